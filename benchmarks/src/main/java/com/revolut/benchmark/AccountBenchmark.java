@@ -0,0 +1,75 @@
+package com.revolut.benchmark;
+
+import com.revolut.db.AccountStore;
+import com.revolut.db.AppDb;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.offheap.OffHeapAppDb;
+import com.revolut.model.AccountModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccountBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Filled {
+        @Param({"100000"})
+        private int accounts;
+
+        @Param({"HEAP", "OFF_HEAP"})
+        private AccountStore store;
+
+        private AppDb db;
+        private UUID[] ids;
+
+        @Setup
+        public void setUp() throws Exception {
+            db = AccountStore.OFF_HEAP.equals(store) ? new OffHeapAppDb(new TransferResultStore(), accounts) : new InMemoryAppDb();
+            ids = new UUID[accounts];
+            for (int i = 0; i < accounts; i++) {
+                ids[i] = db.insertAccount(AccountModel.builder().balance(BigDecimal.TEN).build()).getId();
+            }
+        }
+    }
+
+    //a new db every iteration, so the map doesn't grow without bounds
+    @State(Scope.Benchmark)
+    public static class Empty {
+        private AppDb db;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            db = new InMemoryAppDb();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Picker {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public AccountModel selectAccountById(Filled filled, Picker picker) {
+        return filled.db.selectAccountById(filled.ids[picker.random.nextInt(filled.accounts)]);
+    }
+
+    @Benchmark
+    public AccountModel insertAccount(Empty empty, Picker picker) throws Exception {
+        //ids are made here, UUID.randomUUID would mostly measure SecureRandom
+        return empty.db.insertAccount(AccountModel.builder()
+                .id(new UUID(picker.random.nextLong(), picker.random.nextLong()))
+                .firstName("First")
+                .lastName("Last")
+                .balance(BigDecimal.TEN)
+                .build());
+    }
+}
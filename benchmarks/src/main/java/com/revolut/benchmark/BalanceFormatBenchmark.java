@@ -0,0 +1,34 @@
+package com.revolut.benchmark;
+
+import com.revolut.utils.Money;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BalanceFormatBenchmark {
+
+    private static final String BALANCE_FORMAT = "######.00";
+
+    private BigDecimal balance = new BigDecimal("123456.78");
+    private long minorUnits = 12345678l;
+
+    //what transfer responses used before Money
+    @Benchmark
+    public String appBalanceFormat() {
+        return new DecimalFormat(BALANCE_FORMAT).format(balance);
+    }
+
+    //what transfer responses use now
+    @Benchmark
+    public String moneyFormat() {
+        return Money.format(minorUnits);
+    }
+}
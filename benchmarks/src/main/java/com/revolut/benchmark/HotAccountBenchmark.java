@@ -0,0 +1,69 @@
+package com.revolut.benchmark;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.model.AccountModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link InMemoryAppDb#makeTransfer} with one merchant account receiving 80% of the transfers and the rest between
+ * random accounts, with the merchant a plain account locked by every credit or a hot one with balance stripes.
+ * The merchant pays a random account every 100 transfers, so its debits keep moving the stripes back.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class HotAccountBenchmark {
+    private static final int ACCOUNTS = 10000;
+
+    @Param({"false", "true"})
+    private boolean hot;
+
+    @Param({"8"})
+    private int stripes;
+
+    private InMemoryAppDb db;
+    private UUID merchant;
+    private UUID[] ids;
+
+    @Setup
+    public void setUp() throws Exception {
+        db = new InMemoryAppDb();
+        merchant = UUID.randomUUID();
+        if (hot) {
+            db.hotAccounts(Collections.singleton(merchant), stripes);
+        }
+        db.insertAccount(AccountModel.builder().id(merchant).balance(BigDecimal.ZERO).build());
+        ids = new UUID[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            ids[i] = db.insertAccount(AccountModel.builder().balance(new BigDecimal("1000000000.00")).build()).getId();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Picker {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public TransferResponse makeTransfer(Picker picker) {
+        int roll = picker.random.nextInt(100);
+        UUID from = ids[picker.random.nextInt(ACCOUNTS)];
+        if (roll == 0) {
+            return db.makeTransfer(merchant, from, 50);
+        } else if (roll < 80) {
+            return db.makeTransfer(from, merchant, 1);
+        }
+        return db.makeTransfer(from, ids[picker.random.nextInt(ACCOUNTS)], 1);
+    }
+}
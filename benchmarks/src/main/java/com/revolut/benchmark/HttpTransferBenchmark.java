@@ -0,0 +1,86 @@
+package com.revolut.benchmark;
+
+import com.revolut.App;
+import com.revolut.controller.AppController;
+import com.revolut.controller.AppControllerImpl;
+import com.revolut.db.AppDb;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.model.AccountModel;
+import com.revolut.repository.AccountRepositoryImpl;
+import com.revolut.repository.TransferRepositoryImpl;
+import com.revolut.transaction.TransactionProcessor;
+import com.revolut.transfer.TransferService;
+import com.revolut.transfer.TransferServiceImpl;
+import io.javalin.Javalin;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a synchronous POST /transfer against a server running in the same JVM, from sending the request to
+ * reading the whole response.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpTransferBenchmark {
+
+    private Javalin server;
+    private ExecutorService processor;
+    private URL url;
+    private byte[] form;
+
+    @Setup
+    public void setUp() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        TransferService transferService = new TransferServiceImpl(db);
+        AppController controller = new AppControllerImpl(transferService, new AccountRepositoryImpl(db),
+                new TransferRepositoryImpl(db));
+        processor = Executors.newSingleThreadExecutor();
+        processor.execute(new TransactionProcessor(db, transferService));
+        server = App.startServer(controller, 0);
+
+        String idFrom = db.insertAccount(AccountModel.builder().balance(new BigDecimal("1000000000.00")).build()).getId().toString();
+        String idTo = db.insertAccount(AccountModel.builder().balance(BigDecimal.ZERO).build()).getId().toString();
+        url = new URL("http://localhost:" + server.port() + "/transfer");
+        form = String.format("idFrom=%s&idTo=%s&amount=0.01", idFrom, idTo).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+        processor.shutdownNow();
+    }
+
+    @Benchmark
+    public int transfer() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(form);
+        }
+        int read = 0;
+        //reading the body to the end lets the connection be reused
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                read += n;
+            }
+        }
+        return read;
+    }
+}
@@ -0,0 +1,425 @@
+package com.revolut.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.App;
+import com.revolut.client.AccountPage;
+import com.revolut.config.AppConfig;
+import com.revolut.metrics.LatencyHistogram;
+import com.revolut.model.AccountModel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open loop load test of the whole app over HTTP. It seeds accounts, sends a mix of sync and async transfers,
+ * account reads and account updates at a fixed average rate with Poisson arrivals and Zipf-skewed accounts, prints
+ * throughput and latency every few seconds, and at the end checks that the money of all accounts still adds up.
+ * <p>
+ * Requests are scheduled ahead of time and their latency is measured from when they were due, not from when a client
+ * thread got to send them, so a stalled server shows up in the percentiles instead of quietly lowering the request
+ * rate (coordinated omission). Service time, measured from the actual send, is reported next to it.
+ * <p>
+ * The app is started in the same JVM from the usual system properties, on a free port unless app.port is given,
+ * or load.url points to a running server instead:
+ * <pre>
+ * java -Dload.rate=5000 -Dtransfer.pool=ADAPTIVE -cp target/benchmarks.jar com.revolut.benchmark.LoadGenerator
+ * </pre>
+ */
+public class LoadGenerator {
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000.00");
+    private static final long SETTLE_TIME_OUT = TimeUnit.SECONDS.toNanos(30);
+    private static final int PAGE_SIZE = 1000;
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    enum Operation {
+        SYNC_TRANSFER,
+        ASYNC_TRANSFER,
+        READ,
+        UPDATE
+    }
+
+    private final String url;
+    private final int accounts;
+    private final double rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final long reportNanos;
+    private final int clients;
+    private final ZipfSampler sampler;
+    //cumulative shares of the operations
+    private final double[] mix;
+    private final Stats[] stats = new Stats[Operation.values().length];
+    private final AtomicReference<Interval> interval = new AtomicReference<>(new Interval());
+    private final Queue<String> asyncTransfers = new ConcurrentLinkedQueue<>();
+    private String[] ids;
+
+    public LoadGenerator(String url, int accounts, double rate, long warmupSeconds, long durationSeconds,
+                         long reportSeconds, int clients, double zipfExponent, String mix) {
+        if (accounts < 1 || rate <= 0 || warmupSeconds < 0 || durationSeconds < 1 || reportSeconds < 1 || clients < 1) {
+            throw new IllegalArgumentException("Accounts, rate, duration, report period and clients must be positive.");
+        }
+        this.url = url;
+        this.accounts = accounts;
+        this.rate = rate;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.reportNanos = TimeUnit.SECONDS.toNanos(reportSeconds);
+        this.clients = clients;
+        this.sampler = new ZipfSampler(accounts, zipfExponent);
+        this.mix = parseMix(mix);
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.getInteger("load.clients", 200);
+        //keeps a connection per client thread alive between requests
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+        String url = System.getProperty("load.url");
+        if (Objects.isNull(url)) {
+            System.setProperty("app.port", System.getProperty("app.port", "0"));
+            url = "http://localhost:" + App.start(AppConfig.fromSystemProperties()).port();
+        }
+        LoadGenerator generator = new LoadGenerator(url,
+                Integer.getInteger("load.accounts", 10_000),
+                Double.parseDouble(System.getProperty("load.rate", "1000")),
+                Long.getLong("load.warmupSeconds", 10l),
+                Long.getLong("load.durationSeconds", 60l),
+                Long.getLong("load.reportSeconds", 5l),
+                clients,
+                Double.parseDouble(System.getProperty("load.zipfExponent", "1.0")),
+                System.getProperty("load.mix", "SYNC_TRANSFER=50,ASYNC_TRANSFER=20,READ=25,UPDATE=5"));
+        boolean conserved = generator.run();
+        //runs the shutdown hook of the app, which drains its queue
+        System.exit(conserved ? 0 : 1);
+    }
+
+    /**
+     * @return whether the money of the seeded accounts added up at the end
+     */
+    public boolean run() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(clients, daemon("load-client-"));
+        seed(pool);
+        System.out.printf("Seeded %d accounts, sending %.0f requests/s for %d s after %d s of warmup to %s%n", accounts,
+                rate, TimeUnit.NANOSECONDS.toSeconds(durationNanos), TimeUnit.NANOSECONDS.toSeconds(warmupNanos), url);
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(daemon("load-reporter-"));
+        long start = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> report(start), reportNanos, reportNanos, TimeUnit.NANOSECONDS);
+        SplittableRandom random = new SplittableRandom();
+        //open loop: the next request is due at its time whether or not the previous ones were answered
+        for (long due = start; due - start < warmupNanos + durationNanos; due += nextGap(random)) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = pick(random);
+            String from = ids[sampler.next(random)];
+            String to = ids[sampler.next(random)];
+            String amount = BigDecimal.valueOf(random.nextInt(1, 100), 2).toPlainString();
+            long scheduled = due;
+            //requests of the warmup only show up in the reports along the way
+            boolean measured = due - start >= warmupNanos;
+            pool.execute(() -> send(operation, from, to, amount, scheduled, measured));
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start - warmupNanos;
+        reporter.shutdownNow();
+
+        summary(elapsed);
+        return awaitAsyncTransfers() && checkMoney();
+    }
+
+    private void seed(ExecutorService pool) throws Exception {
+        List<Future<String>> created = new ArrayList<>();
+        for (int i = 0; i < accounts; i++) {
+            String form = "firstName=load&lastName=" + i + "&balance=" + INITIAL_BALANCE.toPlainString();
+            created.add(pool.submit(() -> {
+                Response response = call("POST", "/account", form);
+                if (response.status != 200) {
+                    throw new IllegalStateException("Account is not created: " + response.status + " " + response.body);
+                }
+                return mapper.readValue(response.body, AccountModel.class).getId().toString();
+            }));
+        }
+        ids = new String[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = created.get(i).get();
+        }
+    }
+
+    private void send(Operation operation, String from, String to, String amount, long scheduled, boolean measured) {
+        long sent = System.nanoTime();
+        Response response;
+        try {
+            switch (operation) {
+                case SYNC_TRANSFER:
+                    response = call("POST", "/transfer", transferForm(from, to, amount));
+                    break;
+                case ASYNC_TRANSFER:
+                    response = call("POST", "/transfer/async", transferForm(from, to, amount));
+                    if (response.status == 200) {
+                        asyncTransfers.add(mapper.readValue(response.body, String.class));
+                    }
+                    break;
+                case READ:
+                    response = call("GET", "/account/" + from, null);
+                    break;
+                default:
+                    response = call("PUT", "/account/" + from, "firstName=load&lastName=" + amount);
+            }
+        } catch (IOException ex) {
+            response = null;
+        }
+        long done = System.nanoTime();
+        if (measured) {
+            stats[operation.ordinal()].record(response, scheduled, sent, done);
+        }
+        interval.get().record(response, done - scheduled);
+    }
+
+    //transfers queued async may still be waiting, their results show they are done
+    private boolean awaitAsyncTransfers() throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + SETTLE_TIME_OUT;
+        int unfinished = 0;
+        for (String id : asyncTransfers) {
+            while (call("GET", "/transfer/" + id, null).status == 404) {
+                if (System.nanoTime() - deadline >= 0) {
+                    unfinished++;
+                    break;
+                }
+                Thread.sleep(10l);
+            }
+        }
+        if (unfinished > 0) {
+            System.out.printf("%d async transfers have no result after %d s%n", unfinished,
+                    TimeUnit.NANOSECONDS.toSeconds(SETTLE_TIME_OUT));
+        }
+        return unfinished == 0;
+    }
+
+    //sync transfers which timed out can still be running, so the total gets some time to settle
+    private boolean checkMoney() throws IOException, InterruptedException {
+        BigDecimal expected = INITIAL_BALANCE.multiply(BigDecimal.valueOf(accounts));
+        long deadline = System.nanoTime() + SETTLE_TIME_OUT;
+        BigDecimal total;
+        while (!expected.equals(total = totalBalance()) && System.nanoTime() - deadline < 0) {
+            Thread.sleep(500l);
+        }
+        if (expected.equals(total)) {
+            System.out.printf("Money is conserved: %s on %d accounts%n", total.toPlainString(), accounts);
+            return true;
+        }
+        System.out.printf("MONEY IS NOT CONSERVED: expected %s, found %s%n", expected.toPlainString(),
+                Objects.isNull(total) ? "missing accounts" : total.toPlainString());
+        return false;
+    }
+
+    //sum over the seeded accounts, null if some of them are gone
+    private BigDecimal totalBalance() throws IOException {
+        Set<String> seeded = new HashSet<>(Arrays.asList(ids));
+        BigDecimal total = BigDecimal.ZERO;
+        int found = 0;
+        String cursor = null;
+        do {
+            Response response = call("GET", "/accounts?limit=" + PAGE_SIZE
+                    + (Objects.isNull(cursor) ? "" : "&cursor=" + cursor), null);
+            if (response.status != 200) {
+                throw new IOException("Accounts are not listed: " + response.status + " " + response.body);
+            }
+            AccountPage page = mapper.readValue(response.body, AccountPage.class);
+            for (AccountModel account : page.getAccounts()) {
+                if (seeded.contains(account.getId().toString())) {
+                    total = total.add(account.getBalance());
+                    found++;
+                }
+            }
+            cursor = page.getNextCursor();
+        } while (Objects.nonNull(cursor));
+        return found == accounts ? total : null;
+    }
+
+    private void report(long start) {
+        Interval ended = interval.getAndSet(new Interval());
+        LatencyHistogram.Snapshot latency = ended.latency.snapshot();
+        System.out.printf("%5d s %9.0f req/s %s rejected %d failed %d%n",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), latency.count() / (reportNanos / 1e9),
+                quantiles(latency), ended.rejected.sum(), ended.failed.sum());
+    }
+
+    private void summary(long elapsed) {
+        double seconds = elapsed / 1e9;
+        System.out.printf("%nLatency in ms from when a request was due, service time from when it was sent%n");
+        System.out.printf("%-15s %9s %9s %9s %9s %32s %16s%n", "operation", "requests", "req/s", "rejected", "failed",
+                "p50 / p99 / p99.9", "service p99");
+        for (Operation operation : Operation.values()) {
+            Stats stat = stats[operation.ordinal()];
+            LatencyHistogram.Snapshot latency = stat.latency.snapshot();
+            System.out.printf("%-15s %9d %9.0f %9d %9d %32s %16s%n", operation, latency.count(),
+                    latency.count() / seconds, stat.rejected.sum(), stat.failed.sum(), quantiles(latency),
+                    millis(stat.service.snapshot().valueAt(0.99)));
+        }
+    }
+
+    private Operation pick(SplittableRandom random) {
+        double u = random.nextDouble();
+        Operation[] operations = Operation.values();
+        for (int i = 0; i < mix.length - 1; i++) {
+            if (u < mix[i]) {
+                return operations[i];
+            }
+        }
+        return operations[mix.length - 1];
+    }
+
+    //exponential gaps make Poisson arrivals
+    private long nextGap(SplittableRandom random) {
+        return (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+    }
+
+    private Response call(String method, String path, String form) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setRequestMethod(method);
+        if (Objects.nonNull(form)) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(form.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        //reading the body to the end lets the connection be reused
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (Objects.nonNull(in)) {
+                byte[] buffer = new byte[1024];
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    body.write(buffer, 0, n);
+                }
+            }
+        }
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static String transferForm(String from, String to, String amount) {
+        return "idFrom=" + from + "&idTo=" + to + "&amount=" + amount;
+    }
+
+    private static double[] parseMix(String mix) {
+        double[] shares = new double[Operation.values().length];
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Mix should look like SYNC_TRANSFER=50,READ=50, not " + mix);
+            }
+            shares[Operation.valueOf(pair[0].trim()).ordinal()] = Double.parseDouble(pair[1].trim());
+        }
+        double sum = 0;
+        for (int i = 0; i < shares.length; i++) {
+            if (shares[i] < 0) {
+                throw new IllegalArgumentException("Mix shares can not be negative.");
+            }
+            sum += shares[i];
+            shares[i] = sum;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("Mix has no operations.");
+        }
+        for (int i = 0; i < shares.length; i++) {
+            shares[i] /= sum;
+        }
+        return shares;
+    }
+
+    private static String quantiles(LatencyHistogram.Snapshot snapshot) {
+        StringBuilder out = new StringBuilder();
+        for (double quantile : QUANTILES) {
+            out.append(out.length() == 0 ? "" : " / ").append(millis(snapshot.valueAt(quantile)));
+        }
+        return out.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class Response {
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static class Stats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram service = new LatencyHistogram();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        void record(Response response, long scheduled, long sent, long done) {
+            latency.record(done - scheduled);
+            service.record(done - sent);
+            count(response, rejected, failed);
+        }
+    }
+
+    private static class Interval {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        void record(Response response, long nanos) {
+            latency.record(nanos);
+            count(response, rejected, failed);
+        }
+    }
+
+    //429 is admission control turning a request away, anything else outside 2xx is a failure
+    private static void count(Response response, LongAdder rejected, LongAdder failed) {
+        if (Objects.nonNull(response) && response.status == 429) {
+            rejected.increment();
+        } else if (Objects.isNull(response) || response.status / 100 != 2) {
+            failed.increment();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.revolut.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.client.TransferResponse;
+import com.revolut.db.DB_CODE;
+import com.revolut.model.AccountModel;
+import com.revolut.utils.JsonSerializer;
+import com.revolut.utils.Money;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON of a transfer response and an account as Jackson writes it for javalin and as {@link JsonSerializer} writes
+ * it to the response, run it with {@code -prof gc} to see the allocation rate too.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseSerializationBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    //stands for the response output stream, reset so it doesn't grow
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+    private TransferResponse response;
+    private AccountModel account;
+
+    @Setup
+    public void setUp() {
+        response = DB_CODE.SUCCESS.toResponse(UUID.randomUUID(), UUID.randomUUID(), 123456l);
+        response.setTransactionId(UUID.randomUUID().toString());
+        account = AccountModel.builder()
+                .id(UUID.randomUUID())
+                .firstName("Myrkymbai")
+                .lastName("Myrkymbayev")
+                .balance(Money.toBigDecimal(123300l))
+                .build();
+    }
+
+    @Benchmark
+    public byte[] jacksonTransferResponse() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream serializerTransferResponse() throws IOException {
+        out.reset();
+        JsonSerializer.write(response, out);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] jacksonAccount() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(account);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream serializerAccount() throws IOException {
+        out.reset();
+        JsonSerializer.write(account, out);
+        return out;
+    }
+}
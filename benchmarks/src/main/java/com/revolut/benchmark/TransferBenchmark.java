@@ -0,0 +1,106 @@
+package com.revolut.benchmark;
+
+import com.revolut.db.AccountStore;
+import com.revolut.db.AppDb;
+import com.revolut.db.DB_CODE;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.journal.Journal;
+import com.revolut.db.offheap.OffHeapAppDb;
+import com.revolut.model.AccountModel;
+import com.revolut.transaction.ExecutionMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link InMemoryAppDb#makeTransfer} from several threads, with accounts picked uniformly or Zipf-skewed so that a
+ * few hot accounts are locked by most of the transfers.
+ * <p>
+ * In SHARDED mode every thread is the owner of a quarter of the accounts and moves money between its own ones
+ * with {@link AppDb#withdraw} and {@link AppDb#deposit}, as a shard does, so the ledger retention shows what
+ * appending under the account lock costs a shard.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(TransferBenchmark.THREADS)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+    static final int THREADS = 4;
+
+    public enum Distribution {
+        UNIFORM, ZIPF
+    }
+
+    @Param({"1000", "100000"})
+    private int accounts;
+
+    @Param({"UNIFORM", "ZIPF"})
+    private Distribution distribution;
+
+    @Param({"HEAP"})
+    private AccountStore store;
+
+    @Param({"POOLED", "SHARDED"})
+    private ExecutionMode mode;
+
+    @Param({"0", "1000"})
+    private int ledgerRetention;
+
+    private AppDb db;
+    private UUID[] ids;
+    private ZipfSampler zipf;
+
+    @Setup
+    public void setUp() throws Exception {
+        db = AccountStore.OFF_HEAP.equals(store) ? new OffHeapAppDb(new TransferResultStore(), accounts)
+                : new InMemoryAppDb(new TransferResultStore(), Journal.NONE, ledgerRetention);
+        ids = new UUID[accounts];
+        for (int i = 0; i < accounts; i++) {
+            ids[i] = db.insertAccount(AccountModel.builder().balance(new BigDecimal("1000000000.00")).build()).getId();
+        }
+        zipf = new ZipfSampler(accounts, 1.0);
+    }
+
+    @State(Scope.Thread)
+    public static class Picker {
+        private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+
+        private final SplittableRandom random = new SplittableRandom();
+        //owns the accounts at indexes equal to it modulo THREADS in SHARDED mode
+        private final int shard = THREAD_INDEX.getAndIncrement() % THREADS;
+    }
+
+    @Benchmark
+    public Object makeTransfer(Picker picker) {
+        //one minor unit in a random direction, balances never run out
+        if (ExecutionMode.POOLED.equals(mode)) {
+            return db.makeTransfer(pick(picker.random), pick(picker.random), 1);
+        }
+        UUID from = pick(picker);
+        UUID to = pick(picker);
+        DB_CODE result = db.withdraw(from, to, 1);
+        return DB_CODE.SUCCESS.equals(result) ? db.deposit(to, from, 1) : result;
+    }
+
+    private UUID pick(SplittableRandom random) {
+        return ids[index(random)];
+    }
+
+    //the picked account moved into the shard of the thread, accounts being a multiple of THREADS
+    private UUID pick(Picker picker) {
+        int index = index(picker.random);
+        return ids[index - index % THREADS + picker.shard];
+    }
+
+    private int index(SplittableRandom random) {
+        return Distribution.ZIPF.equals(distribution) ? zipf.next(random) : random.nextInt(accounts);
+    }
+}
@@ -0,0 +1,47 @@
+package com.revolut.benchmark;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.transfer.TransferRequest;
+import com.revolut.transfer.TransferService;
+import com.revolut.transfer.TransferServiceImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transfer going through {@link TransferServiceImpl}: parsing and queueing the request, taking it from the queue
+ * and, for a synchronous one, completing its future.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TransferQueueBenchmark {
+
+    private final String idFrom = UUID.randomUUID().toString();
+    private final String idTo = UUID.randomUUID().toString();
+    private final TransferResponse response = new TransferResponse();
+    private TransferService transferService;
+
+    @Setup
+    public void setUp() {
+        transferService = new TransferServiceImpl(null);
+    }
+
+    @Benchmark
+    public TransferRequest enqueueDequeueAsync() {
+        transferService.queueTransferRequest(idFrom, idTo, "10.00", true);
+        return transferService.getNextRequest();
+    }
+
+    @Benchmark
+    public TransferRequest enqueueDequeueSync() {
+        transferService.queueTransferRequest(idFrom, idTo, "10.00", false);
+        TransferRequest request = transferService.getNextRequest();
+        transferService.completeTransferRequest(request, response);
+        return request;
+    }
+}
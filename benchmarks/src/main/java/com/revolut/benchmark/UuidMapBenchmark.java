@@ -0,0 +1,63 @@
+package com.revolut.benchmark;
+
+import com.revolut.db.UuidMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of random existing keys in {@link UuidMap}, the account index of the db, and in the
+ * {@link ConcurrentHashMap} it replaced. Keys are fresh UUID objects equal to the stored ones, as ids parsed from
+ * requests are.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class UuidMapBenchmark {
+
+    @Param({"100000", "10000000"})
+    private int keys;
+
+    private UUID[] ids;
+    private UuidMap<Object> uuidMap;
+    private Map<UUID, Object> concurrentHashMap;
+
+    @Setup
+    public void setUp() {
+        ids = new UUID[keys];
+        uuidMap = new UuidMap<>();
+        concurrentHashMap = new ConcurrentHashMap<>();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < keys; i++) {
+            ids[i] = new UUID(random.nextLong(), random.nextLong());
+            Object value = new Object();
+            uuidMap.put(ids[i], value);
+            concurrentHashMap.put(ids[i], value);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Picker {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public Object uuidMap(Picker picker) {
+        UUID id = ids[picker.random.nextInt(keys)];
+        return uuidMap.get(new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+    }
+
+    @Benchmark
+    public Object concurrentHashMap(Picker picker) {
+        UUID id = ids[picker.random.nextInt(keys)];
+        return concurrentHashMap.get(new UUID(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+    }
+}
@@ -0,0 +1,109 @@
+package com.revolut.benchmark;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.journal.FileJournal;
+import com.revolut.db.journal.FsyncPolicy;
+import com.revolut.metrics.TransferMetrics;
+import com.revolut.model.AccountModel;
+import com.revolut.transaction.ThreadMode;
+import com.revolut.transaction.TransactionProcessor;
+import com.revolut.transfer.AdmissionControl;
+import com.revolut.transfer.AdmissionPolicy;
+import com.revolut.transfer.TransferService;
+import com.revolut.transfer.TransferServiceImpl;
+import com.revolut.transfer.WaitStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 10k synchronous transfers started at once, every one from its own caller thread which blocks until the result
+ * comes, as a blocking request handler would. Callers and transfer workers are platform or virtual threads, the
+ * journal decides how long a worker blocks per transfer. VIRTUAL needs JDK 21.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+    private static final int TRANSFERS = 10_000;
+    private static final int ACCOUNTS = 1000;
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    private ThreadMode threadMode;
+
+    @Param({"OS", "ALWAYS"})
+    private FsyncPolicy fsync;
+
+    private Path directory;
+    private FileJournal journal;
+    private TransferService transferService;
+    private ExecutorService processor;
+    private ThreadFactory callers;
+    private String[] ids;
+
+    @Setup
+    public void setUp() throws Exception {
+        callers = threadMode.threadFactory("caller-");
+        directory = Files.createTempDirectory("virtual-thread-benchmark");
+        journal = new FileJournal(directory, fsync, 1);
+        InMemoryAppDb db = new InMemoryAppDb(new TransferResultStore(), journal);
+        db.recover();
+        ids = new String[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            ids[i] = db.insertAccount(AccountModel.builder().balance(new BigDecimal("1000000.00")).build()).getId().toString();
+        }
+        //all 10k are queued at once, admission control must not turn them away
+        transferService = new TransferServiceImpl(db, WaitStrategy.BLOCKING, new TransferMetrics(),
+                new AdmissionControl(AdmissionPolicy.REJECT, TRANSFERS, 0));
+        processor = Executors.newSingleThreadExecutor();
+        processor.execute(new TransactionProcessor(db, transferService, threadMode));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        processor.shutdownNow();
+        journal.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public int syncTransfers() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(TRANSFERS);
+        AtomicInteger succeeded = new AtomicInteger();
+        SplittableRandom random = new SplittableRandom();
+        for (int i = 0; i < TRANSFERS; i++) {
+            String idFrom = ids[random.nextInt(ACCOUNTS)];
+            String idTo = ids[random.nextInt(ACCOUNTS)];
+            callers.newThread(() -> {
+                UUID transactionId = transferService.queueTransferRequest(idFrom, idTo, "0.01", false);
+                TransferResponse response = transferService.getTransferResponse(transactionId, 60_000l).join();
+                if (response != null && "SUCCESS".equals(response.getTransactionState())) {
+                    succeeded.incrementAndGet();
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return succeeded.get();
+    }
+}
@@ -0,0 +1,38 @@
+package com.revolut.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * Draws ranks 0..n-1 where rank k comes up with probability proportional to 1 / (k + 1)^exponent, so a few
+ * accounts get most of the traffic. Sampling is a binary search in a precomputed CDF and allocates nothing.
+ */
+public class ZipfSampler {
+    private final double[] cdf;
+
+    public ZipfSampler(int n, double exponent) {
+        cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= sum;
+        }
+    }
+
+    public int next(SplittableRandom random) {
+        double u = random.nextDouble();
+        int low = 0;
+        int high = cdf.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cdf[middle] < u) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
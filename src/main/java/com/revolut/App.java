@@ -1,28 +1,82 @@
 package com.revolut;
 
 import com.revolut.client.AppException;
+import com.revolut.config.AppConfig;
 import com.revolut.controller.AppController;
 import com.revolut.controller.AppControllerImpl;
+import com.revolut.db.AccountStore;
 import com.revolut.db.AppDb;
 import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.Snapshotter;
+import com.revolut.db.journal.FileJournal;
+import com.revolut.db.journal.Journal;
+import com.revolut.db.ledger.AccountLedger;
+import com.revolut.db.offheap.OffHeapAppDb;
+import com.revolut.metrics.TransferMetrics;
 import com.revolut.repository.AccountRepository;
 import com.revolut.repository.AccountRepositoryImpl;
 import com.revolut.repository.TransferRepository;
 import com.revolut.repository.TransferRepositoryImpl;
+import com.revolut.transaction.ExecutionMode;
+import com.revolut.transaction.ShardedTransactionProcessor;
+import com.revolut.transaction.ThreadMode;
 import com.revolut.transaction.TransactionProcessor;
+import com.revolut.transfer.AdmissionControl;
+import com.revolut.transfer.IdempotencyIndex;
+import com.revolut.transfer.IdempotencyKeyReusedException;
+import com.revolut.transfer.TransferRejectedException;
 import com.revolut.transfer.TransferService;
 import com.revolut.transfer.TransferServiceImpl;
+import com.revolut.transfer.TransferSubscriptions;
+import com.revolut.utils.JsonSerializer;
+import com.revolut.utils.NdjsonStream;
 import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.plugin.json.JavalinJson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class App {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        start(AppConfig.fromSystemProperties());
+    }
+
+    /**
+     * Starts the db, the transaction processor and the server, with a shutdown hook which drains the processor and
+     * closes the journal. The server listens on any free port for port 0.
+     */
+    public static Javalin start(AppConfig config) throws IOException {
         //starting up db
-        final AppDb db = new InMemoryAppDb();
+        final TransferResultStore results = new TransferResultStore(config.getResultTtlMillis(), config.getResultMaxSize());
+        final List<Runnable> closers = new ArrayList<>();
+        final AppDb db = startDb(config, results, closers);
 
         //initializing services
-        final TransferService transferService = new TransferServiceImpl(db);
+        final TransferMetrics metrics = new TransferMetrics();
+        metrics.gauge("transfer_results_stored", "Transfer results kept for GET /transfer/:id.", results::size);
+        final AdmissionControl admission = new AdmissionControl(config.getAdmissionPolicy(), config.getQueueCapacity(),
+                config.getQueueWaitTargetMillis());
+        final IdempotencyIndex idempotency = new IdempotencyIndex(config.getIdempotencyWindowMillis(),
+                config.getIdempotencyMaxSize());
+        final TransferSubscriptions subscriptions = new TransferSubscriptions(config.getPushBufferSize(),
+                config.getPushHeartbeatMillis());
+        final TransferService transferService = new TransferServiceImpl(db, config.getWaitStrategy(), metrics, admission,
+                idempotency, subscriptions);
         final AccountRepository accountRepository = new AccountRepositoryImpl(db);
         final TransferRepository transferRepository = new TransferRepositoryImpl(db);
 
@@ -30,27 +84,133 @@ public class App {
         final AppController controller = new AppControllerImpl(transferService, accountRepository, transferRepository);
 
         //starting up transaction processor
-        final TransactionProcessor transactionProcessor = new TransactionProcessor(db, transferService);
+        final Runnable transactionProcessor;
+        if (ExecutionMode.SHARDED.equals(config.getExecutionMode())) {
+            transactionProcessor = new ShardedTransactionProcessor(db, transferService, config.getShards(),
+                    config.getThreadMode());
+        } else {
+            TransactionProcessor processor = new TransactionProcessor(db, transferService, config.getThreadMode(),
+                    config.getWorkerPool(), config.getWorkers(), config.getNettingWindowMicros());
+            metrics.gauge("transfer_workers", "Live threads of the transfer worker pool.", processor::workers);
+            transactionProcessor = processor;
+        }
+        metrics.gauge("db_contended_locks", "Account lock acquisitions which had to wait.", db::contendedLocks);
         Executors.newSingleThreadExecutor().execute(transactionProcessor);
 
-        startServer(controller, 7777);
+        final Javalin server = startServer(controller, config.getPort(), config.getThreadMode());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(config, server, subscriptions,
+                transactionProcessor, closers)));
+        return server;
+    }
+
+    //hooks run concurrently, so the journal is closed here, only after the queued transfers are done
+    private static void shutdown(AppConfig config, Javalin server, TransferSubscriptions subscriptions,
+                                 Runnable transactionProcessor, List<Runnable> closers) {
+        //nothing new is queued while the processor drains, event streams are ended first or the server waits for them
+        subscriptions.close();
+        server.stop();
+        try {
+            if (transactionProcessor instanceof TransactionProcessor) {
+                ((TransactionProcessor) transactionProcessor).shutdown(config.getShutdownTimeoutMillis(),
+                        TimeUnit.MILLISECONDS);
+            } else if (transactionProcessor instanceof ShardedTransactionProcessor) {
+                ((ShardedTransactionProcessor) transactionProcessor).shutdown(config.getShutdownTimeoutMillis(),
+                        TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closers.forEach(Runnable::run);
+    }
+
+    //shards take the account lock only to append to a ledger, so SHARDED mode has none unless asked for
+    private static int ledgerRetention(AppConfig config) {
+        if (config.getLedgerRetention() != AppConfig.LEDGER_RETENTION_BY_MODE) {
+            return config.getLedgerRetention();
+        }
+        return ExecutionMode.SHARDED.equals(config.getExecutionMode()) ? 0 : AccountLedger.DEFAULT_RETENTION;
+    }
+
+    private static AppDb startDb(AppConfig config, TransferResultStore results, List<Runnable> closers)
+            throws IOException {
+        if (AccountStore.OFF_HEAP.equals(config.getAccountStore())) {
+            if (Objects.nonNull(config.getJournalPath())) {
+                throw new IllegalArgumentException("Journal is not supported by the off heap account store.");
+            } else if (!config.getHotAccounts().isEmpty()) {
+                throw new IllegalArgumentException("Hot accounts are not supported by the off heap account store.");
+            }
+            return new OffHeapAppDb(results, config.getAccountCapacity());
+        } else if (Objects.isNull(config.getJournalPath())) {
+            InMemoryAppDb db = new InMemoryAppDb(results, Journal.NONE, ledgerRetention(config));
+            db.hotAccounts(config.getHotAccounts(), config.getHotStripes());
+            return db;
+        }
+        Path directory = Paths.get(config.getJournalPath());
+        FileJournal journal = new FileJournal(directory, config.getJournalFsync(), config.getJournalFsyncIntervalMillis());
+        InMemoryAppDb db = new InMemoryAppDb(results, journal, ledgerRetention(config));
+        db.hotAccounts(config.getHotAccounts(), config.getHotStripes());
+        Snapshotter snapshotter = new Snapshotter(db, journal, directory);
+        snapshotter.load();
+        db.recover();
+        closers.add(journal::close);
+
+        if (config.getSnapshotIntervalMillis() > 0) {
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(snapshotter, config.getSnapshotIntervalMillis(),
+                    config.getSnapshotIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+        return db;
     }
 
     public static Javalin startServer(AppController controller, int port) {
+        return startServer(controller, port, ThreadMode.PLATFORM);
+    }
+
+    public static Javalin startServer(AppController controller, int port, ThreadMode threadMode) {
         Javalin server = Javalin.create().start(port);
+        //Jetty threads only hand requests over to virtual threads, its selectors would pin their carriers otherwise
+        Executor handlers = ThreadMode.VIRTUAL.equals(threadMode) ? threadMode.newExecutor("http-", 0) : null;
+
+        server.get("/account/:id", ctx -> respond(ctx, handlers, () -> controller.getAccountById(ctx)));
+        server.put("/account/:id", ctx -> respond(ctx, handlers, () -> controller.updateAccountById(ctx)));
+        server.post("/account", ctx -> respond(ctx, handlers, () -> controller.createAccount(ctx)));
+        server.delete("/account/:id", ctx -> respond(ctx, handlers, () -> controller.deleteAccountById(ctx)));
+        server.get("/account/:id/transactions", ctx -> respond(ctx, handlers, () -> controller.getAccountTransactions(ctx)));
+        server.get("/accounts", ctx -> {
+            //the stream is only read once the handler returned, so there is nothing to hand over to another thread
+            if (String.valueOf(ctx.header("Accept")).contains(NdjsonStream.CONTENT_TYPE)) {
+                ctx.contentType(NdjsonStream.CONTENT_TYPE).result(controller.streamAccounts(ctx));
+            } else {
+                respond(ctx, handlers, () -> controller.getAccounts(ctx));
+            }
+        });
 
-        server.get("/account/:id", ctx -> ctx.json(controller.getAccountById(ctx)));
-        server.put("/account/:id", ctx -> ctx.json(controller.updateAccountById(ctx)));
-        server.post("/account", ctx -> ctx.json(controller.createAccount(ctx)));
-        server.delete("/account/:id", ctx -> ctx.json(controller.deleteAccountById(ctx)));
+        //ahead of /transfer/:id, which would take events for an id
+        server.get("/transfer/events", controller::subscribeTransfers);
+        server.get("/transfer/:id", ctx -> respond(ctx, handlers, () -> controller.getTransferResultById(ctx)));
+        server.post("/transfer/async", ctx -> respond(ctx, handlers, () -> controller.transferMoneyAsync(ctx)));
+        server.post("/transfer/batch", ctx -> respond(ctx, handlers, () -> controller.transferMoneyBatch(ctx)));
+        server.post("/transfer", ctx -> respond(ctx, handlers, () -> controller.transferMoney(ctx)));
 
-        server.get("/transfer/:id", ctx -> ctx.json(controller.getTransferResultById(ctx)));
-        server.post("/transfer/async", ctx -> ctx.json(controller.transferMoneyAsync(ctx)));
-        server.post("/transfer", ctx -> ctx.json(controller.transferMoney(ctx)));
+        server.get("/metrics", ctx -> ctx.contentType(TransferMetrics.CONTENT_TYPE).result(controller.getMetrics(ctx)));
 
         server.exception(AppException.class, (e, ctx) -> {
             ctx.result(e.getMessage());
             ctx.status(e.getHttpCode());
+        }).exception(TransferRejectedException.class, (e, ctx) -> {
+            ctx.header("Retry-After", String.valueOf(e.getRetryAfterSeconds()));
+            ctx.result(e.getMessage());
+            ctx.status(429);
+        }).exception(IdempotencyKeyReusedException.class, (e, ctx) -> {
+            ctx.result(e.getMessage());
+            ctx.status(422);
+        }).exception(UnsupportedOperationException.class, (e, ctx) -> {
+            ctx.result(e.getMessage());
+            ctx.status(501);
         }).exception(IllegalArgumentException.class, (e, ctx) -> {
             ctx.result("Not proper request params.");
             ctx.status(400);
@@ -64,4 +224,57 @@ public class App {
         return server;
     }
 
+    //writes the result as JSON, a future result is written once it completes
+    @SuppressWarnings("unchecked")
+    private static void respond(Context ctx, Executor executor, Callable<?> handler) throws Exception {
+        if (Objects.isNull(executor)) {
+            Object result = handler.call();
+            if (result instanceof CompletableFuture) {
+                json(ctx, (CompletableFuture<?>) result);
+            } else {
+                json(ctx, result);
+            }
+            return;
+        }
+        json(ctx, CompletableFuture.supplyAsync(() -> {
+            try {
+                return handler.call();
+            } catch (Exception ex) {
+                //javalin unwraps it and maps the cause as if the handler threw it
+                throw new CompletionException(ex);
+            }
+        }, executor).thenCompose(result -> result instanceof CompletableFuture
+                ? (CompletableFuture<Object>) result : CompletableFuture.completedFuture(result)));
+    }
+
+    //transfers and accounts are written by JsonSerializer straight to the response, anything else by javalin's
+    //Jackson mapper
+    private static void json(Context ctx, Object result) throws IOException {
+        if (ctx.status() == 304) {
+            //not modified, no body
+            return;
+        } else if (JsonSerializer.supports(result)) {
+            ctx.contentType(JsonSerializer.CONTENT_TYPE);
+            JsonSerializer.write(result, ctx.res.getOutputStream());
+        } else {
+            ctx.json(result);
+        }
+    }
+
+    //written by the thread completing the future, the empty result leaves javalin nothing more to write
+    private static void json(Context ctx, CompletableFuture<?> result) {
+        ctx.contentType(JsonSerializer.CONTENT_TYPE).result(result.thenApply(value -> {
+            if (ctx.status() == 304) {
+                return "";
+            } else if (!JsonSerializer.supports(value)) {
+                return JavalinJson.toJson(value);
+            }
+            try {
+                JsonSerializer.write(value, ctx.res.getOutputStream());
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return "";
+        }));
+    }
 }
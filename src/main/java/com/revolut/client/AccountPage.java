@@ -0,0 +1,19 @@
+package com.revolut.client;
+
+import com.revolut.model.AccountModel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AccountPage {
+    private List<AccountModel> accounts;
+    //cursor of the next page, null once the listing reached the last inserted account
+    private String nextCursor;
+}
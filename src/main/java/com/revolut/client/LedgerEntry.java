@@ -0,0 +1,24 @@
+package com.revolut.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerEntry {
+    //number of the entry in the ledger of the account, starting from 0
+    private long seq;
+    private Date date;
+    //negative for a debit
+    private String amount;
+    //the other account of the transfer
+    private String counterparty;
+    //balance of the account right after the entry
+    private String balance;
+}
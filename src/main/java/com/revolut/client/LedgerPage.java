@@ -0,0 +1,20 @@
+package com.revolut.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerPage {
+    private String accountId;
+    //newest first
+    private List<LedgerEntry> entries;
+    //beforeSeq of the next page, null if there are no older entries in the requested range
+    private Long nextBeforeSeq;
+}
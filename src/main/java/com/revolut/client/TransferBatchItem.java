@@ -0,0 +1,16 @@
+package com.revolut.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferBatchItem {
+    private String idFrom;
+    private String idTo;
+    private String amount;
+}
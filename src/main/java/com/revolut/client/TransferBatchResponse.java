@@ -0,0 +1,18 @@
+package com.revolut.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransferBatchResponse {
+    private String mode;
+    //in the order of the transfers in the request
+    private List<String> transactionIds;
+}
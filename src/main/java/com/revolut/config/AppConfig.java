@@ -0,0 +1,130 @@
+package com.revolut.config;
+
+import com.revolut.db.AccountStore;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.journal.FsyncPolicy;
+import com.revolut.db.offheap.OffHeapAppDb;
+import com.revolut.transaction.ExecutionMode;
+import com.revolut.transaction.ThreadMode;
+import com.revolut.transaction.WorkerPool;
+import com.revolut.transfer.AdmissionControl;
+import com.revolut.transfer.AdmissionPolicy;
+import com.revolut.transfer.IdempotencyIndex;
+import com.revolut.transfer.TransferSubscriptions;
+import com.revolut.transfer.WaitStrategy;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@Getter
+@Builder
+public class AppConfig {
+    //ledger retention which depends on the execution mode, see ledgerRetention
+    public static final int LEDGER_RETENTION_BY_MODE = -1;
+
+    @Builder.Default
+    private int port = 7777;
+    @Builder.Default
+    private WaitStrategy waitStrategy = WaitStrategy.BLOCKING;
+    @Builder.Default
+    private ExecutionMode executionMode = ExecutionMode.POOLED;
+    @Builder.Default
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    @Builder.Default
+    private int shards = Runtime.getRuntime().availableProcessors();
+    @Builder.Default
+    private WorkerPool workerPool = WorkerPool.FIXED;
+    @Builder.Default
+    private int workers = Runtime.getRuntime().availableProcessors();
+    //how long shutdown waits for queued transfers
+    @Builder.Default
+    private long shutdownTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+    //how long transfers are gathered for netting, 0 turns netting off
+    private long nettingWindowMicros;
+    @Builder.Default
+    private int queueCapacity = AdmissionControl.DEFAULT_CAPACITY;
+    @Builder.Default
+    private AdmissionPolicy admissionPolicy = AdmissionPolicy.SHED_ASYNC;
+    //0 turns the target off
+    @Builder.Default
+    private long queueWaitTargetMillis = AdmissionControl.DEFAULT_QUEUE_WAIT_TARGET_MILLIS;
+    @Builder.Default
+    private long idempotencyWindowMillis = IdempotencyIndex.DEFAULT_WINDOW_MILLIS;
+    @Builder.Default
+    private int idempotencyMaxSize = IdempotencyIndex.DEFAULT_MAX_SIZE;
+    @Builder.Default
+    private AccountStore accountStore = AccountStore.HEAP;
+    //most accounts the off heap store can hold, deleted ones included
+    @Builder.Default
+    private long accountCapacity = OffHeapAppDb.DEFAULT_CAPACITY;
+    //newest ledger entries kept per account, 0 turns ledgers off; costs SHARDED mode an account lock per change,
+    //so by default it has none and the other modes keep AccountLedger.DEFAULT_RETENTION
+    @Builder.Default
+    private int ledgerRetention = LEDGER_RETENTION_BY_MODE;
+    //accounts with credits split between stripes, heap store without journal only
+    @Builder.Default
+    private Set<UUID> hotAccounts = Collections.emptySet();
+    @Builder.Default
+    private int hotStripes = Runtime.getRuntime().availableProcessors();
+    //results a subscriber can fall behind by before they are dropped
+    @Builder.Default
+    private int pushBufferSize = TransferSubscriptions.DEFAULT_BUFFER_SIZE;
+    @Builder.Default
+    private long pushHeartbeatMillis = TransferSubscriptions.DEFAULT_HEARTBEAT_MILLIS;
+    @Builder.Default
+    private long resultTtlMillis = TransferResultStore.DEFAULT_TTL_MILLIS;
+    @Builder.Default
+    private int resultMaxSize = TransferResultStore.DEFAULT_MAX_SIZE;
+    //journal is disabled when there is no path
+    private String journalPath;
+    @Builder.Default
+    private FsyncPolicy journalFsync = FsyncPolicy.ALWAYS;
+    @Builder.Default
+    private long journalFsyncIntervalMillis = 10l;
+    //0 turns snapshots off
+    @Builder.Default
+    private long snapshotIntervalMillis = TimeUnit.MINUTES.toMillis(5);
+
+    public static AppConfig fromSystemProperties() {
+        return AppConfig.builder()
+                .port(Integer.getInteger("app.port", 7777))
+                .waitStrategy(WaitStrategy.valueOf(System.getProperty("transfer.waitStrategy", "BLOCKING")))
+                .executionMode(ExecutionMode.valueOf(System.getProperty("transfer.executionMode", "POOLED")))
+                .threadMode(ThreadMode.valueOf(System.getProperty("app.threads", "PLATFORM")))
+                .shards(Integer.getInteger("transfer.shards", Runtime.getRuntime().availableProcessors()))
+                .workerPool(WorkerPool.valueOf(System.getProperty("transfer.pool", "FIXED")))
+                .workers(Integer.getInteger("transfer.workers", Runtime.getRuntime().availableProcessors()))
+                .shutdownTimeoutMillis(Long.getLong("transfer.shutdownTimeoutMillis", TimeUnit.SECONDS.toMillis(30)))
+                .nettingWindowMicros(Long.getLong("transfer.nettingWindowMicros", 0l))
+                .queueCapacity(Integer.getInteger("transfer.queueCapacity", AdmissionControl.DEFAULT_CAPACITY))
+                .admissionPolicy(AdmissionPolicy.valueOf(System.getProperty("transfer.admission", "SHED_ASYNC")))
+                .queueWaitTargetMillis(Long.getLong("transfer.queueWaitTargetMillis",
+                        AdmissionControl.DEFAULT_QUEUE_WAIT_TARGET_MILLIS))
+                .idempotencyWindowMillis(Long.getLong("idempotency.windowMillis", IdempotencyIndex.DEFAULT_WINDOW_MILLIS))
+                .idempotencyMaxSize(Integer.getInteger("idempotency.maxSize", IdempotencyIndex.DEFAULT_MAX_SIZE))
+                .accountStore(AccountStore.valueOf(System.getProperty("db.store", "HEAP")))
+                .accountCapacity(Long.getLong("db.capacity", OffHeapAppDb.DEFAULT_CAPACITY))
+                .ledgerRetention(Integer.getInteger("ledger.retention", LEDGER_RETENTION_BY_MODE))
+                .hotAccounts(Arrays.stream(System.getProperty("accounts.hot", "").split(","))
+                        .map(String::trim)
+                        .filter(id -> !id.isEmpty())
+                        .map(UUID::fromString)
+                        .collect(Collectors.toSet()))
+                .hotStripes(Integer.getInteger("accounts.hotStripes", Runtime.getRuntime().availableProcessors()))
+                .pushBufferSize(Integer.getInteger("push.bufferSize", TransferSubscriptions.DEFAULT_BUFFER_SIZE))
+                .pushHeartbeatMillis(Long.getLong("push.heartbeatMillis", TransferSubscriptions.DEFAULT_HEARTBEAT_MILLIS))
+                .resultTtlMillis(Long.getLong("results.ttlMillis", TransferResultStore.DEFAULT_TTL_MILLIS))
+                .resultMaxSize(Integer.getInteger("results.maxSize", TransferResultStore.DEFAULT_MAX_SIZE))
+                .journalPath(System.getProperty("journal.path"))
+                .journalFsync(FsyncPolicy.valueOf(System.getProperty("journal.fsync", "ALWAYS")))
+                .journalFsyncIntervalMillis(Long.getLong("journal.fsyncIntervalMillis", 10l))
+                .snapshotIntervalMillis(Long.getLong("snapshot.intervalMillis", TimeUnit.MINUTES.toMillis(5)))
+                .build();
+    }
+}
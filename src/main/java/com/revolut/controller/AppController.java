@@ -1,17 +1,32 @@
 package com.revolut.controller;
 
+import com.revolut.client.AccountPage;
 import com.revolut.client.AppException;
+import com.revolut.client.LedgerPage;
+import com.revolut.client.TransferBatchResponse;
 import com.revolut.client.TransferResponse;
 import com.revolut.model.AccountModel;
 import io.javalin.http.Context;
 
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
 public interface AppController {
     AccountModel getAccountById(Context ctx) throws Exception;
     AccountModel updateAccountById(Context ctx) throws Exception;
     AccountModel createAccount(Context ctx) throws Exception;
     AccountModel deleteAccountById(Context ctx) throws AppException;
+    AccountPage getAccounts(Context ctx) throws AppException;
+    //NDJSON of all accounts, written as the stream is read
+    InputStream streamAccounts(Context ctx) throws AppException;
+    LedgerPage getAccountTransactions(Context ctx) throws AppException;
+
+    CompletableFuture<TransferResponse> transferMoney(Context ctx) throws AppException;
+    TransferResponse getTransferResultById(Context ctx) throws AppException;
+    String transferMoneyAsync(Context ctx) throws AppException;
+    TransferBatchResponse transferMoneyBatch(Context ctx) throws AppException;
+    //server-sent events with results of the given transactions and transfers of the given accounts
+    void subscribeTransfers(Context ctx) throws Exception;
 
-    TransferResponse transferMoney(Context ctx) throws AppException;
-    TransferResponse getTransferResultById(Context ctx);
-    String transferMoneyAsync(Context ctx);
+    String getMetrics(Context ctx);
 }
@@ -1,17 +1,34 @@
 package com.revolut.controller;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.revolut.client.AccountPage;
 import com.revolut.client.AppException;
+import com.revolut.client.LedgerPage;
+import com.revolut.client.TransferBatchItem;
+import com.revolut.client.TransferBatchResponse;
 import com.revolut.client.TransferResponse;
 import com.revolut.model.AccountModel;
 import com.revolut.repository.AccountRepository;
 import com.revolut.repository.TransferRepository;
+import com.revolut.transfer.BatchMode;
 import com.revolut.transfer.TransferService;
+import com.revolut.transfer.TransferSubscriptions;
+import com.revolut.utils.NdjsonStream;
 import io.javalin.http.Context;
+import io.javalin.http.sse.SseHandler;
 import lombok.AllArgsConstructor;
 import org.apache.commons.lang3.math.NumberUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static java.util.UUID.fromString;
 
@@ -29,11 +46,43 @@ public class AppControllerImpl implements AppController {
     private static final String FIRST_NAME_PARAM = "firstName";
     private static final String LAST_NAME_PARAM = "lastName";
     private static final String BALANCE_PARAM = "balance";
+    private static final String MODE_PARAM = "mode";
+    private static final String CURSOR_PARAM = "cursor";
+    private static final String LIMIT_PARAM = "limit";
+    private static final String BEFORE_SEQ_PARAM = "beforeSeq";
+    private static final String FROM_PARAM = "from";
+    private static final String TO_PARAM = "to";
+    private static final String TRANSACTION_ID_PARAM = "transactionId";
+    private static final String ACCOUNT_ID_PARAM = "accountId";
+    private static final int MAX_SUBSCRIBED_IDS = 1_000;
+    private static final String EVENT_STREAM = "text/event-stream";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1_000;
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String ETAG_HEADER = "ETag";
+    private static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
     private static final Long WAIT_TIME_OUT = 20000l;
+    private static final int MAX_BATCH_SIZE = 10_000;
+    //every account of an atomic batch stays locked until the whole batch is done
+    private static final int MAX_ATOMIC_BATCH_SIZE = 1_000;
+    //reads a JSON array as well as NDJSON or any other sequence of JSON objects
+    private static final ObjectReader BATCH_READER = new ObjectMapper().readerFor(TransferBatchItem.class);
 
     @Override
     public AccountModel getAccountById(Context ctx) throws AppException {
-        return accountRepository.getById(fromString(ctx.pathParam(ID_PARAM)));
+        UUID id = fromString(ctx.pathParam(ID_PARAM));
+        String ifNoneMatch = ctx.header(IF_NONE_MATCH_HEADER);
+        //an unchanged account is answered from its version alone, without reading and writing it out
+        if (Objects.nonNull(ifNoneMatch)) {
+            String version = accountRepository.getVersion(id);
+            if (Objects.nonNull(version) && matches(ifNoneMatch, etag(version))) {
+                ctx.header(ETAG_HEADER, etag(version));
+                ctx.status(304);
+                return null;
+            }
+        }
+        return withEtag(ctx, accountRepository.getById(id));
     }
 
     @Override
@@ -42,7 +91,7 @@ public class AppControllerImpl implements AppController {
         accountModel.setFirstName(ctx.formParam(FIRST_NAME_PARAM));
         accountModel.setLastName(ctx.formParam(LAST_NAME_PARAM));
         //we don't update balance directly
-        return accountRepository.updateById(accountModel);
+        return withEtag(ctx, accountRepository.updateById(accountModel));
     }
 
     @Override
@@ -65,28 +114,216 @@ public class AppControllerImpl implements AppController {
     }
 
     @Override
-    public TransferResponse transferMoney(Context ctx) throws AppException {
+    public AccountPage getAccounts(Context ctx) throws AppException {
+        return accountRepository.list(ctx.queryParam(CURSOR_PARAM), pageSize(ctx));
+    }
+
+    @Override
+    public InputStream streamAccounts(Context ctx) throws AppException {
+        return new NdjsonStream(accountRepository.iterate(ctx.queryParam(CURSOR_PARAM)));
+    }
+
+    @Override
+    public LedgerPage getAccountTransactions(Context ctx) throws AppException {
+        UUID id = fromString(ctx.pathParam(ID_PARAM));
+        long beforeSeq = longParam(ctx, BEFORE_SEQ_PARAM, Long.MAX_VALUE);
+        long from = longParam(ctx, FROM_PARAM, Long.MIN_VALUE);
+        long to = longParam(ctx, TO_PARAM, Long.MAX_VALUE);
+        if (beforeSeq < 0) {
+            throw new AppException("Parameter beforeSeq can not be negative.", 400);
+        }
+        return accountRepository.getLedger(id, beforeSeq, from, to, pageSize(ctx));
+    }
+
+    @Override
+    public CompletableFuture<TransferResponse> transferMoney(Context ctx) throws AppException {
         String amount = ctx.formParam(AMOUNT_PARAM);
         String accountIdTo = ctx.formParam(ID_TO_PARAM);
         String accountIdFrom = ctx.formParam(ID_FROM_PARAM);
         if (Objects.isNull(amount) || Objects.isNull(accountIdFrom) || Objects.isNull(accountIdTo)) {
             throw new AppException("Not proper request", 400);
         }
-        UUID transactionId = transferService.queueTransferRequest(accountIdFrom, accountIdTo, amount, false);
-        return transferService.waitTransferResponse(transactionId, WAIT_TIME_OUT);
+        UUID transactionId = transferService.queueTransferRequest(accountIdFrom, accountIdTo, amount, false,
+                idempotencyKey(ctx));
+        //a transfer still running after the wait is answered as GET /transfer/:id answers it
+        return transferService.getTransferResponse(transactionId, WAIT_TIME_OUT).thenApply(response -> {
+            if (Objects.nonNull(response) && TransferService.PENDING_STATE.equals(response.getTransactionState())) {
+                ctx.status(202);
+            }
+            return response;
+        });
     }
 
     @Override
-    public TransferResponse getTransferResultById(Context ctx) {
-        return transferRepository.getTransferResultById(fromString(ctx.pathParam(ID_PARAM)));
+    public TransferResponse getTransferResultById(Context ctx) throws AppException {
+        UUID transactionId = fromString(ctx.pathParam(ID_PARAM));
+        //looked up first, a transfer leaves it only after its result is stored
+        TransferResponse pending = transferService.getPendingResponse(transactionId);
+        if (Objects.nonNull(pending)) {
+            ctx.status(202);
+            return pending;
+        }
+        return transferRepository.getTransferResultById(transactionId);
     }
 
     @Override
-    public String transferMoneyAsync(Context ctx) {
+    public TransferBatchResponse transferMoneyBatch(Context ctx) throws AppException {
+        BatchMode mode;
+        try {
+            mode = BatchMode.valueOf(ctx.queryParam(MODE_PARAM, BatchMode.INDEPENDENT.name()).toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new AppException("Parameter mode should be independent or atomic.", 400);
+        }
+        List<TransferBatchItem> items = readBatch(ctx.bodyAsBytes(),
+                BatchMode.ATOMIC.equals(mode) ? MAX_ATOMIC_BATCH_SIZE : MAX_BATCH_SIZE);
+        List<UUID> transactionIds = transferService.queueTransferBatch(items, mode);
+        return TransferBatchResponse.builder()
+                .mode(mode.name())
+                .transactionIds(transactionIds.stream().map(UUID::toString).collect(Collectors.toList()))
+                .build();
+    }
+
+    @Override
+    public String getMetrics(Context ctx) {
+        return transferService.getMetrics().scrape();
+    }
+
+    @Override
+    public String transferMoneyAsync(Context ctx) throws AppException {
         String amount = ctx.formParam(AMOUNT_PARAM);
         String accountIdTo = ctx.formParam(ID_TO_PARAM);
         String accountIdFrom = ctx.formParam(ID_FROM_PARAM);
-        return transferService.queueTransferRequest(accountIdFrom, accountIdTo, amount, true).toString();
+        return transferService.queueTransferRequest(accountIdFrom, accountIdTo, amount, true, idempotencyKey(ctx))
+                .toString();
+    }
+
+    @Override
+    public void subscribeTransfers(Context ctx) throws Exception {
+        List<String> transactionIds = ids(ctx, TRANSACTION_ID_PARAM);
+        List<String> accountIds = ids(ctx, ACCOUNT_ID_PARAM);
+        if (transactionIds.isEmpty() && accountIds.isEmpty()) {
+            throw new AppException("Parameter transactionId or accountId is required.", 400);
+        } else if (transactionIds.size() + accountIds.size() > MAX_SUBSCRIBED_IDS) {
+            throw new AppException(String.format("At most %d ids can be subscribed to.", MAX_SUBSCRIBED_IDS), 400);
+        } else if (!String.valueOf(ctx.header("Accept")).contains(EVENT_STREAM)) {
+            //the handler would answer an empty 200 otherwise
+            throw new AppException("Events are sent only to clients accepting text/event-stream.", 406);
+        }
+        //the event stream starts only once the request is known to be fine
+        new SseHandler(client -> {
+            TransferSubscriptions.Subscription subscription = transferService.subscribe(transactionIds, accountIds,
+                    new TransferSubscriptions.Sink() {
+                        @Override
+                        public void send(String event, String data, String id) {
+                            client.sendEvent(event, data, id);
+                        }
+
+                        @Override
+                        public void close() {
+                            client.ctx.req.getAsyncContext().complete();
+                        }
+                    });
+            //called when a write fails, which at the latest a heartbeat does
+            client.onClose(() -> transferService.unsubscribe(subscription));
+        }).handle(ctx);
+    }
+
+    //repeated or comma separated, normalized the way results spell them
+    private static List<String> ids(Context ctx, String name) {
+        List<String> ids = new ArrayList<>();
+        for (String value : ctx.queryParams(name)) {
+            for (String id : value.split(",")) {
+                if (!id.trim().isEmpty()) {
+                    ids.add(fromString(id.trim()).toString());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static AccountModel withEtag(Context ctx, AccountModel account) {
+        if (Objects.nonNull(account) && Objects.nonNull(account.getVersion())) {
+            ctx.header(ETAG_HEADER, etag(account.getVersion()));
+        }
+        return account;
+    }
+
+    //a strong entity tag, the version has no quotes in it
+    private static String etag(String version) {
+        return '"' + version + '"';
+    }
+
+    //If-None-Match is * or a comma separated list of tags, weak ones compare equal to strong ones for a GET
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int pageSize(Context ctx) throws AppException {
+        int pageSize = NumberUtils.toInt(ctx.queryParam(LIMIT_PARAM, String.valueOf(DEFAULT_PAGE_SIZE)), 0);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new AppException(String.format("Parameter limit should be from 1 to %d.", MAX_PAGE_SIZE), 400);
+        }
+        return pageSize;
+    }
+
+    private static long longParam(Context ctx, String name, long defaultValue) throws AppException {
+        String value = ctx.queryParam(name);
+        if (Objects.isNull(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new AppException(String.format("Parameter %s is not correct number.", name), 400);
+        }
+    }
+
+    private String idempotencyKey(Context ctx) throws AppException {
+        String key = ctx.header(IDEMPOTENCY_KEY_HEADER);
+        if (Objects.nonNull(key) && (key.isEmpty() || key.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            throw new AppException(String.format("Idempotency key should have 1 to %d characters.",
+                    MAX_IDEMPOTENCY_KEY_LENGTH), 400);
+        }
+        return key;
+    }
+
+    private List<TransferBatchItem> readBatch(byte[] body, int maxSize) throws AppException {
+        List<TransferBatchItem> items = new ArrayList<>();
+        try (MappingIterator<TransferBatchItem> iterator = BATCH_READER.readValues(body)) {
+            while (iterator.hasNextValue()) {
+                if (items.size() == maxSize) {
+                    throw new AppException(String.format("Batch can have at most %d transfers.", maxSize), 413);
+                }
+                TransferBatchItem item = iterator.nextValue();
+                checkBatchItem(item, items.size());
+                items.add(item);
+            }
+        } catch (IOException ex) {
+            throw new AppException("Not proper batch.", 400);
+        }
+        if (items.isEmpty()) {
+            throw new AppException("Batch is empty.", 400);
+        }
+        return items;
+    }
+
+    private void checkBatchItem(TransferBatchItem item, int index) throws AppException {
+        try {
+            if (Objects.nonNull(item) && NumberUtils.isParsable(item.getAmount())) {
+                fromString(item.getIdFrom());
+                fromString(item.getIdTo());
+                return;
+            }
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            //reported below
+        }
+        throw new AppException(String.format("Not proper transfer at index %d.", index), 400);
     }
 
 }
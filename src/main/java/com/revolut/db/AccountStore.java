@@ -0,0 +1,8 @@
+package com.revolut.db;
+
+public enum AccountStore {
+    //accounts are objects in a map on the heap, see InMemoryAppDb
+    HEAP,
+    //accounts are fixed-size records in direct buffers, see OffHeapAppDb, no journal
+    OFF_HEAP
+}
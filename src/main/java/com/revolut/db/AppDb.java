@@ -1,19 +1,62 @@
 package com.revolut.db;
 
+import com.revolut.client.LedgerPage;
 import com.revolut.client.TransferResponse;
 import com.revolut.model.AccountModel;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.locks.ReentrantLock;
 
 public interface AppDb {
     AccountModel selectAccountById(UUID id);
+    //opaque version of the account, changed by every change of it, as AccountModel#getVersion has it;
+    //null if there is no such account or the store doesn't version accounts
+    default String selectAccountVersion(UUID id) {
+        return null;
+    }
     AccountModel deleteAccountById(UUID id);
     AccountModel insertAccount(AccountModel newAccount) throws Exception;
     AccountModel updateAccountById(AccountModel account);
+    //accounts get positions in the order they are inserted, a position is never reused and is lost on restart;
+    //returns null for a deleted account, reads don't lock and don't block transfers
+    AccountModel selectAccountAt(long position);
+    //position the next inserted account gets, every position below it is taken
+    long nextAccountPosition();
+    //newest ledger entries of the account with a seq below beforeSeq and a time in [fromMillis, toMillis),
+    //null if there is no such account
+    LedgerPage selectLedger(UUID id, long beforeSeq, long fromMillis, long toMillis, int limit);
     TransferResponse selectTransferResultById(UUID transactionId);
-    TransferResponse makeTransfer(UUID idFrom, UUID idTo, BigDecimal amount, ReentrantLock lock);
+    boolean isTransferResultExpired(UUID transactionId);
+    //amounts are in minor units, see Money
+    TransferResponse makeTransfer(UUID idFrom, UUID idTo, long amount);
+    //all or nothing, returns a response for every transfer in the same order
+    List<TransferResponse> makeAtomicTransfer(UUID batchId, List<Transfer> transfers);
+    //applied in order with every account locked and updated once, each transfer succeeds or fails on its own as if
+    //it ran alone; stores without netting run them one by one
+    default List<TransferResponse> makeNettedTransfer(UUID batchId, List<Transfer> transfers) {
+        List<TransferResponse> responses = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            responses.add(makeTransfer(transfer.getIdFrom(), transfer.getIdTo(), transfer.getAmount()));
+        }
+        return responses;
+    }
+
+    //lock free single account balance changes, used by the sharded processor where every account has one writer;
+    //counterparty is the other account of the transfer, for the ledger
+    DB_CODE withdraw(UUID id, UUID counterparty, long amount);
+    DB_CODE deposit(UUID id, UUID counterparty, long amount);
+
+    default DB_CODE withdraw(UUID id, long amount) {
+        return withdraw(id, null, amount);
+    }
+
+    default DB_CODE deposit(UUID id, long amount) {
+        return deposit(id, null, amount);
+    }
 
     void insertTransferResult(UUID uuid, TransferResponse transferResponse);
+
+    //account lock acquisitions which had to wait for another thread, a hint that more workers won't help
+    long contendedLocks();
 }
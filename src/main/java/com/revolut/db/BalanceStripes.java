@@ -0,0 +1,125 @@
+package com.revolut.db;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Credits of a hot account, spread over stripes each on its own cache line, so concurrent credits neither wait for
+ * the account lock nor retry on one contended balance. A thread credits the stripe its id hashes to and moves on to
+ * the next one when a CAS fails.
+ * <p>
+ * Debits draw from the main balance of the account, and move all stripes into it once it runs short. Moves and the
+ * close of the account are counted by a version, odd while one is running, so a reader summing the main balance and
+ * the stripes retries instead of missing or counting twice money on its way between them: every credit and debit
+ * is either in the total or not.
+ * <p>
+ * Every stripe also counts its credits, on the same cache line, so the version of the account can grow with each
+ * credit while a move, which leaves the total as it is, changes nothing readers can see.
+ */
+class BalanceStripes {
+    private static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(long[].class);
+    //longs per cache line
+    private static final int PADDING = 8;
+    //offset of the credit count from the balance of a stripe
+    private static final int CREDITS = 1;
+    //stripe of a deleted account, credits to it fail
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final long[] cells;
+    private final int mask;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long version;
+
+    //rounded up to a power of two
+    BalanceStripes(int stripes) {
+        int count = Integer.highestOneBit(Math.max(stripes, 1) * 2 - 1);
+        cells = new long[count * PADDING];
+        mask = count - 1;
+    }
+
+    DB_CODE add(long amount) {
+        long hash = Thread.currentThread().getId() * 0x9E3779B97F4A7C15l;
+        int stripe = (int) (hash >>> 32) & mask;
+        while (true) {
+            int cell = stripe * PADDING;
+            long current = (long) CELLS.getVolatile(cells, cell);
+            if (current == CLOSED) {
+                return DB_CODE.ACCOUNT_NOT_FOUND;
+            }
+            //overflow is checked per stripe, a total over Long.MAX_VALUE minor units is out of reach anyway
+            long newValue = current + amount;
+            if (((current ^ newValue) & (amount ^ newValue)) < 0) {
+                return DB_CODE.BALANCE_OVERFLOW;
+            } else if (CELLS.compareAndSet(cells, cell, current, newValue)) {
+                //counted after the credit, so a reader which sees the count sees the credit as well
+                CELLS.getAndAdd(cells, cell + CREDITS, 1l);
+                return DB_CODE.SUCCESS;
+            }
+            stripe = (stripe + 1) & mask;
+        }
+    }
+
+    //even while no move is running
+    long version() {
+        return version;
+    }
+
+    //sum of the stripes, only exact if the version is even and the same before and after
+    long sum() {
+        long sum = 0;
+        for (int cell = 0; cell < cells.length; cell += PADDING) {
+            sum += (long) CELLS.getVolatile(cells, cell);
+        }
+        return sum;
+    }
+
+    //credits so far, to be read before the sum: a count newer than the sum could mark a stale balance as current
+    long credits() {
+        long credits = 0;
+        for (int cell = 0; cell < cells.length; cell += PADDING) {
+            credits += (long) CELLS.getVolatile(cells, cell + CREDITS);
+        }
+        return credits;
+    }
+
+    //empties the stripes into the main balance, which has to keep its version, returns the amount moved
+    long drain(LongConsumer mainBalance) {
+        lock.lock();
+        try {
+            version++;
+            long moved = 0;
+            for (int cell = 0; cell < cells.length; cell += PADDING) {
+                long current = (long) CELLS.getAndSet(cells, cell, 0l);
+                if (current == CLOSED) {
+                    CELLS.setVolatile(cells, cell, CLOSED);
+                    return 0;
+                }
+                moved += current;
+            }
+            mainBalance.accept(moved);
+            return moved;
+        } finally {
+            version++;
+            lock.unlock();
+        }
+    }
+
+    //closes the main balance and the stripes, returns their last total
+    long close(LongSupplier closeMainBalance) {
+        lock.lock();
+        try {
+            version++;
+            long total = closeMainBalance.getAsLong();
+            for (int cell = 0; cell < cells.length; cell += PADDING) {
+                total += (long) CELLS.getAndSet(cells, cell, CLOSED);
+            }
+            return total;
+        } finally {
+            version++;
+            lock.unlock();
+        }
+    }
+}
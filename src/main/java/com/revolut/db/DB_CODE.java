@@ -0,0 +1,58 @@
+package com.revolut.db;
+
+import com.revolut.client.TransferResponse;
+
+import java.util.Date;
+import java.util.Objects;
+import java.util.UUID;
+
+import static com.revolut.utils.Money.format;
+
+public enum DB_CODE {
+    BALANCE_NOT_ENOUGH("FAILED", "Balance is not enough."),
+    SUCCESS("SUCCESS", "Success transaction."),
+    FROM_ACCOUNT_NOT_FOUND("FAILED", "The account from which the transfer is made does not exist."),
+    TO_ACCOUNT_NOT_FOUND("FAILED", "The account to which the transfer is made does not exist."),
+    BALANCE_OVERFLOW("FAILED", "Balance limit is exceeded."),
+    ACCOUNT_NOT_FOUND("FAILED", "The account does not exist."),
+    INTERNAL_ERROR("FAILED", "Internal Error."),
+    BATCH_ABORTED("FAILED", "Another transfer of the atomic batch failed.")
+    ;
+
+    private static final DB_CODE[] VALUES = values();
+
+    private String state;
+    private String message;
+
+    DB_CODE(String state, String message) {
+        this.state = state;
+        this.message = message;
+    }
+
+    //code the response was made from, INTERNAL_ERROR for a response made elsewhere
+    public static DB_CODE of(TransferResponse response) {
+        if (Objects.nonNull(response)) {
+            for (DB_CODE code : VALUES) {
+                if (code.message.equals(response.getMessage())) {
+                    return code;
+                }
+            }
+        }
+        return INTERNAL_ERROR;
+    }
+
+    public TransferResponse toResponse(UUID idFrom, UUID idTo, long amount) {
+        return toResponse(idFrom.toString(), idTo.toString(), amount);
+    }
+
+    public TransferResponse toResponse(String idFrom, String idTo, long amount) {
+        return TransferResponse.builder()
+                .idTo(idTo)
+                .message(message)
+                .idFrom(idFrom)
+                .amount(format(amount))
+                .transactionDate(new Date())
+                .transactionState(state)
+                .build();
+    }
+}
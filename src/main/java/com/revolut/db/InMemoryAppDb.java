@@ -1,20 +1,75 @@
 package com.revolut.db;
 
+import com.revolut.client.LedgerPage;
 import com.revolut.client.TransferResponse;
+import com.revolut.db.journal.Journal;
+import com.revolut.db.journal.JournalRecord;
+import com.revolut.db.ledger.AccountLedger;
 import com.revolut.model.AccountModel;
+import com.revolut.utils.Money;
+import lombok.AccessLevel;
 import lombok.Getter;
-import org.apache.commons.lang3.math.NumberUtils;
 
-import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
-import static com.revolut.utils.Utils.appBalanceFormat;
+import static com.revolut.utils.Money.toBigDecimal;
+import static com.revolut.utils.Money.toMinorUnits;
 import static java.util.Optional.ofNullable;
 
 public class InMemoryAppDb implements AppDb {
-    private final Map<UUID, InMemoryAppDb.Account> accounts = new HashMap<>();
-    private final Map<UUID, TransferResponse> responses = new HashMap<>();
+    private final UuidMap<InMemoryAppDb.Account> accounts = new UuidMap<>();
+    //accounts in insertion order, for listing
+    private final PositionList<InMemoryAppDb.Account> positions = new PositionList<>();
+    private final TransferResultStore responses;
+    private final Journal journal;
+    private final boolean journaled;
+    //entries kept in the ledger of every account, 0 if there are no ledgers
+    private final int ledgerRetention;
+    private final LongAdder contendedLocks = new LongAdder();
+    //part of every account version, so versions of an earlier run never match
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    //ids of the accounts inserted with balance stripes, see BalanceStripes
+    private Set<UUID> hotAccounts = Collections.emptySet();
+    private int hotStripes;
+
+    public InMemoryAppDb() {
+        this(new TransferResultStore());
+    }
+
+    public InMemoryAppDb(TransferResultStore responses) {
+        this(responses, Journal.NONE);
+    }
+
+    public InMemoryAppDb(TransferResultStore responses, Journal journal) {
+        this(responses, journal, AccountLedger.DEFAULT_RETENTION);
+    }
+
+    public InMemoryAppDb(TransferResultStore responses, Journal journal, int ledgerRetention) {
+        this.responses = responses;
+        this.journal = journal;
+        this.journaled = journal != Journal.NONE;
+        this.ledgerRetention = ledgerRetention;
+    }
+
+    /**
+     * Accounts with these ids get their credits split between stripes when they are inserted, so credits to them
+     * neither lock nor contend. They keep no ledger, and can't be journaled, which relies on the account lock.
+     */
+    public void hotAccounts(Set<UUID> ids, int stripes) {
+        if (journaled && !ids.isEmpty()) {
+            throw new IllegalArgumentException("Hot accounts are not supported with the journal.");
+        }
+        hotAccounts = ids;
+        hotStripes = stripes;
+    }
+
+    //rebuilds accounts from the journal, has to be called before any change
+    public void recover() {
+        journal.replay(this::restore);
+    }
 
     @Override
     public AccountModel selectAccountById(UUID id) {
@@ -23,28 +78,55 @@ public class InMemoryAppDb implements AppDb {
 
     @Override
     public AccountModel deleteAccountById(UUID id) {
-        synchronized (accounts.get(id)) {
-            return parse(accounts.remove(id));
+        Account account = accounts.get(id);
+        AccountModel deletedAccount;
+        JournalRecord record;
+        lock(account);
+        try {
+            if (accounts.get(id) != account) {
+                return null;
+            }
+            //a journal which can't take the record fails the delete before anything is changed
+            record = account.journal(journal.append(JournalRecord.delete(id)));
+            accounts.remove(id, account);
+            positions.clear(account.position);
+            deletedAccount = parse(account);
+            deletedAccount.setBalance(toBigDecimal(account.close()));
+        } finally {
+            account.unlock();
         }
+        journal.awaitDurable(record);
+        return deletedAccount;
     }
 
     @Override
     public AccountModel insertAccount(AccountModel newAccount) throws Exception {
         if (Objects.nonNull(newAccount)) {
             UUID id = ofNullable(newAccount.getId()).orElse(UUID.randomUUID());
-            BigDecimal balance = ofNullable(newAccount.getBalance()).orElse(NumberUtils.toScaledBigDecimal("0.00"));
-            if (accounts.containsKey(id)) {
-                throw new Exception(String.format("Account with id:%s already exists", id));
+            long balance = ofNullable(newAccount.getBalance()).map(Money::toMinorUnits).orElse(0l);
+            Account account = new Account(id, balance, newAccount.getFirstName(), newAccount.getLastName());
+            if (hotAccounts.contains(id)) {
+                account.stripes = new BalanceStripes(hotStripes);
+            } else {
+                account.ledger = ledger();
             }
-            synchronized (accounts) {
-                if (accounts.containsKey(id)) {
+            JournalRecord record = JournalRecord.insert(id, balance, newAccount.getFirstName(), newAccount.getLastName());
+            //transfers wait for the lock, so their records can't get ahead of the insert
+            lock(account);
+            try {
+                if (Objects.nonNull(accounts.putIfAbsent(id, account))) {
                     throw new Exception(String.format("Account with id:%s already exists", id));
-                } else {
-                    accounts.put(id, new Account(id, balance, newAccount.getFirstName(), newAccount.getLastName()));
-                    return parse(accounts.get(id));
                 }
+                account.position = positions.add(account);
+                account.journal(append(record, () -> {
+                    positions.clear(account.position);
+                    accounts.remove(id, account);
+                }));
+            } finally {
+                account.unlock();
             }
-
+            journal.awaitDurable(record);
+            return parse(account);
         }
         throw new Exception("Empty account");
     }
@@ -52,128 +134,729 @@ public class InMemoryAppDb implements AppDb {
     @Override
     public AccountModel updateAccountById(AccountModel accountModel) {
         ofNullable(accountModel).map(acc -> acc.getId()).map(id -> accounts.get(id)).ifPresent(acc -> {
-            synchronized (acc) {
-                acc.setFirstName(accountModel.getFirstName());
-                acc.setLastName(accountModel.getLastName());
+            if (!journaled) {
+                acc.rename(accountModel.getFirstName(), accountModel.getLastName());
+                return;
+            }
+            //the lock only keeps the record order equal to the change order
+            JournalRecord record = JournalRecord.update(acc.getId(), accountModel.getFirstName(), accountModel.getLastName());
+            lock(acc);
+            try {
+                acc.journal(journal.append(record));
+                acc.rename(accountModel.getFirstName(), accountModel.getLastName());
+            } finally {
+                acc.unlock();
             }
+            journal.awaitDurable(record);
         });
         return parse(accounts.get(accountModel.getId()));
     }
 
+    @Override
+    public String selectAccountVersion(UUID id) {
+        Account account = accounts.get(id);
+        if (Objects.isNull(account)) {
+            return null;
+        }
+        State state = account.snapshot();
+        return state.balance == Account.CLOSED ? null : version(account, state);
+    }
+
+    @Override
+    public AccountModel selectAccountAt(long position) {
+        return ofNullable(positions.get(position)).filter(account -> !account.isClosed()).map(this::parse).orElse(null);
+    }
+
+    @Override
+    public long nextAccountPosition() {
+        return positions.size();
+    }
+
+    @Override
+    public LedgerPage selectLedger(UUID id, long beforeSeq, long fromMillis, long toMillis, int limit) {
+        if (ledgerRetention == 0) {
+            throw new UnsupportedOperationException("Account ledgers are turned off.");
+        }
+        Account account = accounts.get(id);
+        if (Objects.isNull(account)) {
+            return null;
+        } else if (account.isHot()) {
+            throw new UnsupportedOperationException("Hot accounts have no ledger.");
+        }
+        LedgerPage page = account.ledger.read(beforeSeq, fromMillis, toMillis, limit);
+        page.setAccountId(id.toString());
+        return page;
+    }
+
     @Override
     public void insertTransferResult(UUID uuid, TransferResponse transferResponse) {
         responses.put(uuid, transferResponse);
     }
 
+    @Override
+    public long contendedLocks() {
+        return contendedLocks.sum();
+    }
+
     @Override
     public TransferResponse selectTransferResultById(UUID transactionId) {
         return responses.get(transactionId);
     }
 
     @Override
-    public TransferResponse makeTransfer(UUID idFrom, UUID idTo, BigDecimal amount, ReentrantLock lock) {
-        DB_CODE result = null;
+    public boolean isTransferResultExpired(UUID transactionId) {
+        return responses.isExpired(transactionId);
+    }
+
+    @Override
+    public TransferResponse makeTransfer(UUID idFrom, UUID idTo, long amount) {
+        DB_CODE result;
         try {
-            synchronized (accounts.get(idFrom)) {
-                synchronized (accounts.get(idTo)) {
-                    if (lock.isHeldByCurrentThread()) {
-                        lock.unlock();
-                    }
-                    result = accounts.get(idFrom).makeTransaction(amount.negate());
-                    if (DB_CODE.SUCCESS.equals(result)) {
-                        result = accounts.get(idTo).makeTransaction(amount);
-                        if (!DB_CODE.SUCCESS.equals(result)) {
-                            //rollback
-                            accounts.get(idFrom).makeTransaction(amount);
-                        }
-                    }
-                }
+            Account from = accounts.get(idFrom);
+            Account to = accounts.get(idTo);
+            if (Objects.isNull(from)) {
+                result = DB_CODE.FROM_ACCOUNT_NOT_FOUND;
+            } else if (Objects.isNull(to)) {
+                result = DB_CODE.TO_ACCOUNT_NOT_FOUND;
+            } else {
+                result = transfer(from, to, amount);
             }
         } catch (Exception ex) {
-            if (lock.isHeldByCurrentThread()) {
-                lock.unlock();
-            }
             result = DB_CODE.INTERNAL_ERROR;
-            if (Objects.isNull(accounts.get(idFrom))) {
+        }
+        return result.toResponse(idFrom, idTo, amount);
+    }
+
+    @Override
+    public List<TransferResponse> makeAtomicTransfer(UUID batchId, List<Transfer> transfers) {
+        return groupTransfer(batchId, transfers, true);
+    }
+
+    @Override
+    public List<TransferResponse> makeNettedTransfer(UUID batchId, List<Transfer> transfers) {
+        return groupTransfer(batchId, transfers, false);
+    }
+
+    private List<TransferResponse> groupTransfer(UUID batchId, List<Transfer> transfers, boolean atomic) {
+        DB_CODE[] results = new DB_CODE[transfers.size()];
+        Arrays.fill(results, DB_CODE.SUCCESS);
+        try {
+            groupTransfer(batchId, transfers, results, atomic);
+        } catch (Exception ex) {
+            Arrays.fill(results, DB_CODE.INTERNAL_ERROR);
+        }
+        List<TransferResponse> responses = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            responses.add(results[i].toResponse(transfer.getIdFrom(), transfer.getIdTo(), transfer.getAmount()));
+        }
+        return responses;
+    }
+
+    @Override
+    public DB_CODE withdraw(UUID id, UUID counterparty, long amount) {
+        DB_CODE result = change(accounts.get(id), counterparty, -amount);
+        return DB_CODE.ACCOUNT_NOT_FOUND.equals(result) ? DB_CODE.FROM_ACCOUNT_NOT_FOUND : result;
+    }
+
+    @Override
+    public DB_CODE deposit(UUID id, UUID counterparty, long amount) {
+        DB_CODE result = change(accounts.get(id), counterparty, amount);
+        return DB_CODE.ACCOUNT_NOT_FOUND.equals(result) ? DB_CODE.TO_ACCOUNT_NOT_FOUND : result;
+    }
+
+    private DB_CODE change(Account account, UUID counterparty, long amount) {
+        if (Objects.isNull(account)) {
+            return DB_CODE.ACCOUNT_NOT_FOUND;
+        } else if (!journaled && Objects.isNull(account.ledger)) {
+            return account.makeTransaction(amount);
+        }
+        //the lock is uncontended for a single writer, it only keeps the record order equal to the change order;
+        //it is still a CAS more per change for a shard, which is why SHARDED mode has ledgers off by default
+        DB_CODE result;
+        JournalRecord record = null;
+        lock(account);
+        try {
+            result = account.makeTransaction(amount);
+            if (DB_CODE.SUCCESS.equals(result)) {
+                if (journaled) {
+                    record = account.journal(append(JournalRecord.adjust(account.getId(), amount),
+                            () -> account.makeTransaction(-amount)));
+                }
+                account.ledger(amount, counterparty, account.getBalance());
+            }
+        } finally {
+            account.unlock();
+        }
+        if (Objects.nonNull(record)) {
+            journal.awaitDurable(record);
+        }
+        return result;
+    }
+
+    private DB_CODE transfer(Account from, Account to, long amount) {
+        //a hot account is credited without its lock, a deleted one fails the credit
+        if (to.isHot() && from != to) {
+            return transferToHot(from, to, amount);
+        }
+        //locks are always taken in account id order, so A->B and B->A transfers can't deadlock
+        Account first = from.getId().compareTo(to.getId()) <= 0 ? from : to;
+        Account second = first == from ? to : from;
+        DB_CODE result;
+        JournalRecord record = null;
+        lock(first);
+        lock(second);
+        try {
+            //account could be deleted while we were waiting for its lock
+            if (accounts.get(from.getId()) != from) {
+                return DB_CODE.FROM_ACCOUNT_NOT_FOUND;
+            } else if (accounts.get(to.getId()) != to) {
+                return DB_CODE.TO_ACCOUNT_NOT_FOUND;
+            }
+            result = from.makeTransaction(-amount);
+            if (DB_CODE.SUCCESS.equals(result)) {
+                result = to.makeTransaction(amount);
+                if (!DB_CODE.SUCCESS.equals(result)) {
+                    //rollback
+                    from.makeTransaction(amount);
+                }
+            }
+            if (journaled && DB_CODE.SUCCESS.equals(result)) {
+                record = from.journal(append(JournalRecord.transfer(from.getId(), to.getId(), amount), () -> {
+                    to.makeTransaction(-amount);
+                    from.makeTransaction(amount);
+                }));
+                to.journal(record);
+            }
+            if (DB_CODE.SUCCESS.equals(result)) {
+                //a transfer to the same account has its debit entry before the credit
+                from.ledger(-amount, to.getId(), from == to ? from.getBalance() - amount : from.getBalance());
+                to.ledger(amount, from.getId(), to.getBalance());
+            }
+        } finally {
+            second.unlock();
+            first.unlock();
+        }
+        //waiting for the disk without holding the locks lets other transfers join the same fsync
+        if (Objects.nonNull(record)) {
+            journal.awaitDurable(record);
+        }
+        return result;
+    }
+
+    //never journaled, hot accounts and the journal don't go together
+    private DB_CODE transferToHot(Account from, Account to, long amount) {
+        DB_CODE result;
+        lock(from);
+        try {
+            if (accounts.get(from.getId()) != from) {
+                return DB_CODE.FROM_ACCOUNT_NOT_FOUND;
+            }
+            result = from.makeTransaction(-amount);
+            if (DB_CODE.SUCCESS.equals(result)) {
+                result = to.makeTransaction(amount);
+                if (DB_CODE.SUCCESS.equals(result)) {
+                    from.ledger(-amount, to.getId(), from.getBalance());
+                } else {
+                    from.makeTransaction(amount);
+                    result = DB_CODE.ACCOUNT_NOT_FOUND.equals(result) ? DB_CODE.TO_ACCOUNT_NOT_FOUND : result;
+                }
+            }
+        } finally {
+            from.unlock();
+        }
+        return result;
+    }
+
+    //an atomic group is all or nothing, in a netted one every transfer succeeds or fails on its own
+    private void groupTransfer(UUID batchId, List<Transfer> transfers, DB_CODE[] results, boolean atomic) {
+        //sorted by id, so locks are taken in the same order as two account transfers take them
+        Map<UUID, Account> involved = new TreeMap<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            Account from = accounts.get(transfer.getIdFrom());
+            Account to = accounts.get(transfer.getIdTo());
+            if (Objects.isNull(from)) {
+                if (fail(results, i, DB_CODE.FROM_ACCOUNT_NOT_FOUND, atomic)) {
+                    return;
+                }
+                continue;
+            } else if (Objects.isNull(to)) {
+                if (fail(results, i, DB_CODE.TO_ACCOUNT_NOT_FOUND, atomic)) {
+                    return;
+                }
+                continue;
+            }
+            involved.put(from.getId(), from);
+            involved.put(to.getId(), to);
+        }
+        JournalRecord record;
+        int locked = 0;
+        try {
+            for (Account account : involved.values()) {
+                lock(account);
+                locked++;
+            }
+            record = applyGroup(batchId, involved, transfers, results, atomic);
+        } finally {
+            for (Account account : involved.values()) {
+                if (locked-- == 0) {
+                    break;
+                }
+                account.unlock();
+            }
+        }
+        if (Objects.nonNull(record)) {
+            journal.awaitDurable(record);
+        }
+    }
+
+    //runs the transfers one by one on copies of the balances, then applies only the net change of every account
+    private JournalRecord applyGroup(UUID batchId, Map<UUID, Account> involved, List<Transfer> transfers,
+                                     DB_CODE[] results, boolean atomic) {
+        Map<UUID, Long> initial = new HashMap<>();
+        Map<UUID, Long> balances = new HashMap<>();
+        Map<UUID, Integer> firstDebit = new HashMap<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            if (!DB_CODE.SUCCESS.equals(results[i])) {
+                continue;
+            }
+            DB_CODE result;
+            //account could be deleted while we were waiting for its lock
+            if (accounts.get(transfer.getIdFrom()) != involved.get(transfer.getIdFrom())) {
                 result = DB_CODE.FROM_ACCOUNT_NOT_FOUND;
-            } else if (Objects.isNull(accounts.get(idTo))) {
+            } else if (accounts.get(transfer.getIdTo()) != involved.get(transfer.getIdTo())) {
                 result = DB_CODE.TO_ACCOUNT_NOT_FOUND;
+            } else {
+                firstDebit.putIfAbsent(transfer.getIdFrom(), i);
+                result = simulate(balances, initial, involved.get(transfer.getIdFrom()), -transfer.getAmount());
+                if (DB_CODE.SUCCESS.equals(result)) {
+                    result = simulate(balances, initial, involved.get(transfer.getIdTo()), transfer.getAmount());
+                    if (!DB_CODE.SUCCESS.equals(result)) {
+                        balances.merge(transfer.getIdFrom(), transfer.getAmount(), Long::sum);
+                    }
+                }
+            }
+            if (!DB_CODE.SUCCESS.equals(result) && fail(results, i, result, atomic)) {
+                return null;
             }
         }
 
-        return TransferResponse.builder()
-                .idTo(idTo.toString())
-                .message(result.message)
-                .idFrom(idFrom.toString())
-                .amount(appBalanceFormat(amount))
-                .transactionDate(new Date())
-                .transactionState(result.state)
-                .build();
+        List<JournalRecord> applied = new ArrayList<>();
+        //debits go first, so a rollback only has to give money back
+        for (boolean debits : new boolean[]{true, false}) {
+            for (Map.Entry<UUID, Long> balance : balances.entrySet()) {
+                long change = balance.getValue() - initial.get(balance.getKey());
+                if (change == 0 || change < 0 != debits) {
+                    continue;
+                }
+                Account account = involved.get(balance.getKey());
+                //can only fail if a lock free withdraw of the sharded processor got in between
+                DB_CODE result = account.makeTransaction(change);
+                if (!DB_CODE.SUCCESS.equals(result)) {
+                    undo(involved, applied);
+                    if (atomic) {
+                        abort(results, firstDebit.getOrDefault(account.getId(), 0), result);
+                    } else {
+                        Arrays.fill(results, result);
+                    }
+                    return null;
+                }
+                applied.add(JournalRecord.adjust(account.getId(), change));
+            }
+        }
+        JournalRecord record = null;
+        if (journaled && !applied.isEmpty()) {
+            JournalRecord batch = append(JournalRecord.batch(batchId, applied), () -> undo(involved, applied));
+            applied.forEach(item -> involved.get(item.getId()).journal(batch));
+            record = batch;
+        }
+        if (ledgerRetention > 0) {
+            ledgerGroup(involved, transfers, results, initial);
+        }
+        return record;
     }
 
-    private AccountModel parse(Account account) {
-        return ofNullable(account)
-                .map(acc -> AccountModel.builder()
-                        .id(acc.getId())
-                        .firstName(acc.getFirstName())
-                        .lastName(acc.getLastName())
-                        .balance(acc.getBalance())
-                        .build())
+    private static void undo(Map<UUID, Account> involved, List<JournalRecord> applied) {
+        for (JournalRecord done : applied) {
+            involved.get(done.getId()).makeTransaction(-done.getAmount());
+        }
+    }
+
+    //an entry for every applied transfer of the group, with the balances it had run one by one
+    private static void ledgerGroup(Map<UUID, Account> involved, List<Transfer> transfers, DB_CODE[] results,
+                                    Map<UUID, Long> initial) {
+        Map<UUID, Long> balances = new HashMap<>(initial);
+        for (int i = 0; i < transfers.size(); i++) {
+            if (!DB_CODE.SUCCESS.equals(results[i])) {
+                continue;
+            }
+            Transfer transfer = transfers.get(i);
+            long from = balances.merge(transfer.getIdFrom(), -transfer.getAmount(), Long::sum);
+            long to = balances.merge(transfer.getIdTo(), transfer.getAmount(), Long::sum);
+            involved.get(transfer.getIdFrom()).ledger(-transfer.getAmount(), transfer.getIdTo(), from);
+            involved.get(transfer.getIdTo()).ledger(transfer.getAmount(), transfer.getIdFrom(), to);
+        }
+    }
+
+    private DB_CODE simulate(Map<UUID, Long> balances, Map<UUID, Long> initial, Account account, long amount) {
+        long current = balances.computeIfAbsent(account.getId(), id -> {
+            initial.put(id, account.getBalance());
+            return account.getBalance();
+        });
+        long newValue = current + amount;
+        if (((current ^ newValue) & (amount ^ newValue)) < 0) {
+            return DB_CODE.BALANCE_OVERFLOW;
+        } else if (newValue < 0) {
+            return DB_CODE.BALANCE_NOT_ENOUGH;
+        }
+        balances.put(account.getId(), newValue);
+        return DB_CODE.SUCCESS;
+    }
+
+    //returns true if the whole group fails with the transfer
+    private static boolean fail(DB_CODE[] results, int failed, DB_CODE result, boolean atomic) {
+        if (atomic) {
+            abort(results, failed, result);
+        } else {
+            results[failed] = result;
+        }
+        return atomic;
+    }
+
+    private static void abort(DB_CODE[] results, int failed, DB_CODE result) {
+        Arrays.fill(results, DB_CODE.BATCH_ABORTED);
+        results[failed] = result;
+    }
+
+    //a record is skipped for an account which already has it, e.g. from a snapshot taken while it was written
+    private void restore(JournalRecord record) {
+        Account account = ofNullable(accounts.get(record.getId()))
+                .filter(acc -> acc.getLastSeq() < record.getSeq())
                 .orElse(null);
+        switch (record.getType()) {
+            case INSERT:
+                if (Objects.isNull(account) && accounts.containsKey(record.getId())) {
+                    break;
+                }
+                try {
+                    restoreAccount(new Account(record.getId(), record.getAmount(),
+                            record.getFirstName(), record.getLastName()), record.getSeq());
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Journal contains a broken account " + record.getId(), ex);
+                }
+                break;
+            case UPDATE:
+                if (Objects.nonNull(account)) {
+                    account.restoreNames(record.getFirstName(), record.getLastName());
+                    account.journal(record);
+                }
+                break;
+            case DELETE:
+                if (Objects.nonNull(account)) {
+                    accounts.remove(record.getId());
+                    positions.clear(account.position);
+                }
+                break;
+            case TRANSFER:
+                //only successful transfers are journaled, so balances are moved without any checks
+                Account to = ofNullable(accounts.get(record.getIdTo()))
+                        .filter(acc -> acc.getLastSeq() < record.getSeq())
+                        .orElse(null);
+                restoreChange(account, -record.getAmount(), record);
+                restoreChange(to, record.getAmount(), record);
+                break;
+            case ADJUST:
+                restoreChange(account, record.getAmount(), record);
+                break;
+            case BATCH:
+                for (JournalRecord item : record.getItems()) {
+                    restoreChange(ofNullable(accounts.get(item.getId()))
+                            .filter(acc -> acc.getLastSeq() < record.getSeq())
+                            .orElse(null), item.getAmount(), record);
+                }
+                break;
+        }
+    }
+
+    private static void restoreChange(Account account, long amount, JournalRecord record) {
+        if (Objects.nonNull(account)) {
+            account.restoreBalance(amount);
+            account.journal(record);
+        }
+    }
+
+    void restoreAccount(Account account, long lastSeq) {
+        account.lastSeq = lastSeq;
+        account.ledger = ledger();
+        account.position = positions.add(account);
+        ofNullable(accounts.put(account.getId(), account)).ifPresent(replaced -> positions.clear(replaced.position));
+    }
+
+    private AccountLedger ledger() {
+        return ledgerRetention > 0 ? new AccountLedger(ledgerRetention) : null;
+    }
+
+    Iterable<Account> accounts() {
+        return accounts;
+    }
+
+    TransferResultStore responses() {
+        return responses;
+    }
+
+    //one state of the account, null if it is deleted
+    private AccountModel parse(Account account) {
+        if (Objects.isNull(account)) {
+            return null;
+        }
+        State state = account.snapshot();
+        if (state.balance == Account.CLOSED) {
+            return null;
+        }
+        return AccountModel.builder()
+                .id(account.getId())
+                .firstName(state.firstName)
+                .lastName(state.lastName)
+                .balance(toBigDecimal(state.balance))
+                .version(version(account, state))
+                .build();
+    }
+
+    //positions tell apart accounts which had the same id, the epoch tells apart runs of the app
+    private String version(Account account, State state) {
+        String version = state.tag;
+        if (Objects.isNull(version)) {
+            //a racy but benign cache, every thread computes the same string
+            version = epoch + "." + account.position + "." + state.version;
+            state.tag = version;
+        }
+        return version;
+    }
+
+    //counts the acquisitions which had to wait
+    //a change is made before its record, as the record depends on its result; a journal which can't take the
+    //record any more fails the change, so it is undone while the account locks are still held
+    private JournalRecord append(JournalRecord record, Runnable undo) {
+        try {
+            return journal.append(record);
+        } catch (RuntimeException ex) {
+            undo.run();
+            throw ex;
+        }
+    }
+
+    private void lock(Account account) {
+        if (!account.tryLock()) {
+            contendedLocks.increment();
+            account.lock();
+        }
     }
 
     @Getter
     static class Account {
+        private static final AtomicReferenceFieldUpdater<Account, State> STATE =
+                AtomicReferenceFieldUpdater.newUpdater(Account.class, State.class, "state");
+        //balance of a deleted account, real balances are never negative
+        private static final long CLOSED = Long.MIN_VALUE;
+        private static final State CLOSED_STATE = new State(CLOSED, null, null, -1);
+
         private UUID id;
-        private BigDecimal balance;
-        private String firstName;
-        private String lastName;
-
-        public Account(UUID id, BigDecimal amount, String firstName, String lastName) throws Exception {
-            if (Objects.isNull(id) || Objects.isNull(amount)) {
-                throw new Exception("id and amount cannot be null.");
-            } else if (amount.compareTo(BigDecimal.valueOf(0d)) < 0) {
+        //replaced as a whole with CAS, so a reader sees the balance and the names of one version
+        @Getter(AccessLevel.NONE)
+        private volatile State state;
+        //sequence number of the last journal record of the account, guarded by the account lock
+        private long lastSeq;
+        //place of the account in insertion order, see AppDb#selectAccountAt
+        @Getter(AccessLevel.NONE)
+        private long position = -1;
+        //null if ledgers are turned off or the account is hot, appended under the account lock
+        @Getter(AccessLevel.NONE)
+        private AccountLedger ledger;
+        //null unless the account is hot, credits of a hot account go to the stripes and debits to the balance
+        @Getter(AccessLevel.NONE)
+        private BalanceStripes stripes;
+        //a j.u.c. lock rather than the monitor, so a virtual thread waiting for it doesn't pin its carrier
+        @Getter(AccessLevel.NONE)
+        private final ReentrantLock lock = new ReentrantLock();
+
+        public Account(UUID id, long amount, String firstName, String lastName) throws Exception {
+            if (Objects.isNull(id)) {
+                throw new Exception("id cannot be null.");
+            } else if (amount < 0) {
                 throw new Exception("amount can not be lower than zero");
             }
             this.id = id;
-            this.balance = amount;
-            this.firstName = firstName;
-            this.lastName = lastName;
+            this.state = new State(amount, firstName, lastName, 0);
+        }
+
+        public String getFirstName() {
+            return state.firstName;
+        }
+
+        public String getLastName() {
+            return state.lastName;
         }
 
-        public synchronized DB_CODE makeTransaction(BigDecimal amount) {
-            BigDecimal newValue = this.balance.add(amount);
-            if (newValue.compareTo(BigDecimal.valueOf(0d)) < 0) {
-                return DB_CODE.BALANCE_NOT_ENOUGH;
+        //the main balance and the stripes of a hot account together
+        public long getBalance() {
+            return snapshot().balance;
+        }
+
+        //for a hot account the stripes are summed in, and its version grows by their credits as well
+        State snapshot() {
+            if (Objects.isNull(stripes)) {
+                return state;
+            }
+            while (true) {
+                long version = stripes.version();
+                State main = state;
+                if (main.balance == CLOSED) {
+                    return main;
+                } else if ((version & 1) == 0) {
+                    long credits = stripes.credits();
+                    long sum = stripes.sum();
+                    if (stripes.version() == version) {
+                        return new State(main.balance + sum, main.firstName, main.lastName, main.version + credits);
+                    }
+                }
+                Thread.onSpinWait();
             }
-            this.balance = newValue;
-            return DB_CODE.SUCCESS;
         }
 
-        private void setFirstName(String firstName) {
-            this.firstName = firstName;
+        //lock free, so a shard owning the account can update it without taking the lock
+        public DB_CODE makeTransaction(long amount) {
+            if (Objects.isNull(stripes)) {
+                return apply(amount);
+            } else if (amount > 0) {
+                return stripes.add(amount);
+            }
+            DB_CODE result = apply(amount);
+            //credits piled up in the stripes are moved to the balance only when a debit needs them
+            if (DB_CODE.BALANCE_NOT_ENOUGH.equals(result) && stripes.drain(this::absorb) > 0) {
+                result = apply(amount);
+            }
+            return result;
         }
 
-        private void setLastName(String lastName) {
-            this.lastName = lastName;
+        boolean isHot() {
+            return Objects.nonNull(stripes);
+        }
+
+        private DB_CODE apply(long amount) {
+            while (true) {
+                State current = state;
+                if (current.balance == CLOSED) {
+                    return DB_CODE.ACCOUNT_NOT_FOUND;
+                }
+                long newValue = current.balance + amount;
+                if (((current.balance ^ newValue) & (amount ^ newValue)) < 0) {
+                    return DB_CODE.BALANCE_OVERFLOW;
+                } else if (newValue < 0) {
+                    return DB_CODE.BALANCE_NOT_ENOUGH;
+                } else if (STATE.compareAndSet(this, current, current.withBalance(newValue))) {
+                    return DB_CODE.SUCCESS;
+                }
+            }
         }
 
+        //credits moved from the stripes, already counted in the version by the stripes
+        private void absorb(long amount) {
+            while (true) {
+                State current = state;
+                if (current.balance == CLOSED
+                        || STATE.compareAndSet(this, current, current.withBalanceOf(current.balance + amount))) {
+                    return;
+                }
+            }
+        }
+
+        //lock free as balance changes are, a deleted account keeps its last names
+        private void rename(String firstName, String lastName) {
+            while (true) {
+                State current = state;
+                if (current.balance == CLOSED
+                        || STATE.compareAndSet(this, current, current.withNames(firstName, lastName))) {
+                    return;
+                }
+            }
+        }
+
+        //has to be called under the account lock
+        private void ledger(long amount, UUID counterparty, long balance) {
+            if (Objects.nonNull(ledger)) {
+                ledger.append(amount, counterparty, balance);
+            }
+        }
+
+        private JournalRecord journal(JournalRecord record) {
+            lastSeq = record.getSeq();
+            return record;
+        }
+
+        //recovery runs before anything else touches the account
+        private void restoreBalance(long amount) {
+            state = state.withBalance(state.balance + amount);
+        }
+
+        private void restoreNames(String firstName, String lastName) {
+            state = state.withNames(firstName, lastName);
+        }
+
+        void lock() {
+            lock.lock();
+        }
+
+        boolean tryLock() {
+            return lock.tryLock();
+        }
+
+        void unlock() {
+            lock.unlock();
+        }
+
+        boolean isClosed() {
+            return state.balance == CLOSED;
+        }
+
+        //returns the last balance, after that every transaction fails
+        private long close() {
+            if (Objects.nonNull(stripes)) {
+                return stripes.close(() -> STATE.getAndSet(this, CLOSED_STATE).balance);
+            }
+            return STATE.getAndSet(this, CLOSED_STATE).balance;
+        }
     }
 
-    enum DB_CODE {
-        BALANCE_NOT_ENOUGH("FAILED", "Balance is not enough."),
-        SUCCESS("SUCCESS", "Success transaction."),
-        FROM_ACCOUNT_NOT_FOUND("FAILED", "The account from which the transfer is made does not exist."),
-        TO_ACCOUNT_NOT_FOUND("FAILED", "The account to which the transfer is made does not exist."),
-        INTERNAL_ERROR("FAILED", "Internal Error.")
-        ;
+    //immutable, every change of an account makes a new state with the next version
+    static final class State {
+        //minor units, see Money
+        private final long balance;
+        private final String firstName;
+        private final String lastName;
+        private final long version;
+        //version as AccountModel#getVersion has it, made by the first read
+        private String tag;
 
-        private String state;
-        private String message;
+        private State(long balance, String firstName, String lastName, long version) {
+            this.balance = balance;
+            this.firstName = firstName;
+            this.lastName = lastName;
+            this.version = version;
+        }
+
+        private State withBalance(long balance) {
+            return new State(balance, firstName, lastName, version + 1);
+        }
+
+        //same version, for a balance which only changed its place
+        private State withBalanceOf(long balance) {
+            return new State(balance, firstName, lastName, version);
+        }
 
-        DB_CODE(String state, String message) {
-            this.state = state;
-            this.message = message;
+        private State withNames(String firstName, String lastName) {
+            return new State(balance, firstName, lastName, version + 1);
         }
     }
 }
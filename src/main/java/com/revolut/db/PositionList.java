@@ -0,0 +1,59 @@
+package com.revolut.db;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Values in the order they were added, each at a position which never changes, in chunks allocated as the list
+ * grows. Reads take no lock and see a value once its position is below {@link #size()}. A cleared position stays
+ * empty, so positions can be used as cursors while values are added and cleared.
+ */
+class PositionList<V> {
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Object[][] chunks = new Object[0][];
+    private volatile long size;
+
+    //position of the added value
+    long add(V value) {
+        lock.lock();
+        try {
+            long position = size;
+            int chunk = (int) (position >>> CHUNK_BITS);
+            if (chunk == chunks.length) {
+                Object[][] grown = Arrays.copyOf(chunks, chunk + 1);
+                grown[chunk] = new Object[CHUNK_SIZE];
+                chunks = grown;
+            }
+            chunks[chunk][(int) (position & (CHUNK_SIZE - 1))] = value;
+            //publishes the value
+            size = position + 1;
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //value at the position, null if it was cleared or the position is not taken yet
+    @SuppressWarnings("unchecked")
+    V get(long position) {
+        if (position < 0 || position >= size) {
+            return null;
+        }
+        return (V) VALUES.getAcquire(chunks[(int) (position >>> CHUNK_BITS)], (int) (position & (CHUNK_SIZE - 1)));
+    }
+
+    void clear(long position) {
+        VALUES.setRelease(chunks[(int) (position >>> CHUNK_BITS)], (int) (position & (CHUNK_SIZE - 1)), null);
+    }
+
+    //position the next value takes, every position below it is taken
+    long size() {
+        return size;
+    }
+}
@@ -0,0 +1,266 @@
+package com.revolut.db;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.db.journal.FileJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * Writes all accounts and the live transfer results of an {@link InMemoryAppDb} to a snapshot file and drops the
+ * journal segments it covers, so a restart loads the snapshot and replays only the journal written after it.
+ * <p>
+ * Accounts are read one by one under their lock while transfers keep running, so the file alone is not a
+ * point in time image. Every account is stored with the sequence number of its last journal record though, and
+ * the journal is rotated before the accounts are read, so replaying the newer segments over the snapshot skips
+ * whatever the snapshot already has and ends in the state the db had.
+ */
+public class Snapshotter implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(Snapshotter.class);
+
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d+)\\.snap");
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte ACCOUNT = 1;
+    private static final byte RESULT = 2;
+    private static final byte END = 0;
+
+    private final InMemoryAppDb db;
+    private final FileJournal journal;
+    private final Path directory;
+
+    public Snapshotter(InMemoryAppDb db, FileJournal journal, Path directory) {
+        this.db = db;
+        this.journal = journal;
+        this.directory = directory;
+    }
+
+    @Override
+    public void run() {
+        try {
+            snapshot();
+        } catch (Exception ex) {
+            log.error("Snapshot failed", ex);
+        }
+    }
+
+    /**
+     * Loads the latest snapshot into the db, has to be called before the journal is replayed.
+     *
+     * @return number of loaded accounts
+     */
+    public int load() throws IOException {
+        List<Long> snapshots = snapshots();
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path path = snapshotPath(snapshots.get(snapshots.size() - 1));
+        //checksum has to see exactly the bytes read so far, so it goes above the buffer
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE), new CRC32());
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a snapshot file " + path);
+            }
+            int accounts = 0;
+            byte type;
+            while ((type = in.readByte()) != END) {
+                if (type == ACCOUNT) {
+                    readAccount(in);
+                    accounts++;
+                } else if (type == RESULT) {
+                    readResult(in);
+                } else {
+                    throw new IOException("Snapshot " + path + " is broken");
+                }
+            }
+            long lastSeq = in.readLong();
+            int checksum = (int) checked.getChecksum().getValue();
+            if (in.readInt() != checksum) {
+                throw new IOException("Snapshot " + path + " has a wrong checksum");
+            }
+            journal.skipTo(lastSeq);
+            log.info("Loaded {} accounts from {}", accounts, path);
+            return accounts;
+        }
+    }
+
+    /**
+     * Writes a new snapshot and deletes the older snapshots and the journal segments covered by it.
+     *
+     * @return path of the new snapshot
+     */
+    public synchronized Path snapshot() throws IOException {
+        long segment = journal.rotate();
+        Path path = snapshotPath(segment);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long started = System.currentTimeMillis();
+        int accounts;
+        FileOutputStream file = new FileOutputStream(temp.toFile());
+        CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            accounts = writeAccounts(out);
+            writeResults(out);
+            out.writeByte(END);
+            //every seq stored above is already taken, so the journal continues after it
+            out.writeLong(journal.lastSeq());
+            out.flush();
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getChannel().force(true);
+        }
+        Files.move(temp, path, ATOMIC_MOVE);
+        for (long older : snapshots()) {
+            if (older < segment) {
+                Files.delete(snapshotPath(older));
+            }
+        }
+        journal.deleteSegmentsBefore(segment);
+        log.info("Snapshot of {} accounts written to {} in {} ms", accounts, path, System.currentTimeMillis() - started);
+        return path;
+    }
+
+    private int writeAccounts(DataOutputStream out) throws IOException {
+        int count = 0;
+        for (InMemoryAppDb.Account account : db.accounts()) {
+            long balance;
+            long lastSeq;
+            String firstName;
+            String lastName;
+            account.lock();
+            try {
+                if (account.isClosed()) {
+                    continue;
+                }
+                balance = account.getBalance();
+                lastSeq = account.getLastSeq();
+                firstName = account.getFirstName();
+                lastName = account.getLastName();
+            } finally {
+                account.unlock();
+            }
+            out.writeByte(ACCOUNT);
+            writeId(out, account.getId());
+            out.writeLong(balance);
+            out.writeLong(lastSeq);
+            writeString(out, firstName);
+            writeString(out, lastName);
+            count++;
+        }
+        return count;
+    }
+
+    private void writeResults(DataOutputStream out) throws IOException {
+        try {
+            db.responses().forEach(entry -> {
+                try {
+                    TransferResponse response = entry.getResponse();
+                    out.writeByte(RESULT);
+                    writeId(out, entry.getTransactionId());
+                    out.writeLong(entry.getExpiresAt());
+                    writeString(out, response.getTransactionId());
+                    writeString(out, response.getTransactionState());
+                    writeString(out, response.getMessage());
+                    writeString(out, response.getIdFrom());
+                    writeString(out, response.getIdTo());
+                    writeString(out, response.getAmount());
+                    out.writeLong(Objects.isNull(response.getTransactionDate())
+                            ? Long.MIN_VALUE : response.getTransactionDate().getTime());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void readAccount(DataInputStream in) throws IOException {
+        UUID id = readId(in);
+        long balance = in.readLong();
+        long lastSeq = in.readLong();
+        String firstName = readString(in);
+        String lastName = readString(in);
+        try {
+            db.restoreAccount(new InMemoryAppDb.Account(id, balance, firstName, lastName), lastSeq);
+        } catch (Exception ex) {
+            throw new IOException("Snapshot contains a broken account " + id, ex);
+        }
+    }
+
+    private void readResult(DataInputStream in) throws IOException {
+        UUID transactionId = readId(in);
+        long expiresAt = in.readLong();
+        TransferResponse response = TransferResponse.builder()
+                .transactionId(readString(in))
+                .transactionState(readString(in))
+                .message(readString(in))
+                .idFrom(readString(in))
+                .idTo(readString(in))
+                .amount(readString(in))
+                .build();
+        long date = in.readLong();
+        response.setTransactionDate(date == Long.MIN_VALUE ? null : new Date(date));
+        db.responses().restore(transactionId, response, expiresAt);
+    }
+
+    private List<Long> snapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> SNAPSHOT_NAME.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path snapshotPath(long segment) {
+        return directory.resolve(String.format("snapshot-%020d.snap", segment));
+    }
+
+    private static void writeId(DataOutputStream out, UUID id) throws IOException {
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID readId(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(Objects.nonNull(value));
+        if (Objects.nonNull(value)) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
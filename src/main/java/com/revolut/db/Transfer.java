@@ -0,0 +1,15 @@
+package com.revolut.db;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+@Getter
+@AllArgsConstructor
+public class Transfer {
+    private UUID idFrom;
+    private UUID idTo;
+    //minor units, see Money
+    private long amount;
+}
@@ -0,0 +1,148 @@
+package com.revolut.db;
+
+import com.revolut.client.TransferResponse;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Transfer results kept for a limited time and up to a limited count. Results are evicted in insertion order,
+ * which is also their expiry order, by whichever writer wins a try-lock, so writers never wait for eviction.
+ * Ids of evicted results are remembered for another TTL period (and up to the same count) to tell an expired
+ * result from an unknown one.
+ */
+public class TransferResultStore {
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final int DEFAULT_MAX_SIZE = 1_000_000;
+
+    private final long ttlMillis;
+    private final int maxSize;
+
+    private final Map<UUID, Entry> results = new ConcurrentHashMap<>();
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Map<UUID, Long> expired = new ConcurrentHashMap<>();
+    private final Queue<Entry> expiredOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger expiredSize = new AtomicInteger();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public TransferResultStore() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_MAX_SIZE);
+    }
+
+    public TransferResultStore(long ttlMillis, int maxSize) {
+        if (ttlMillis <= 0 || maxSize <= 0) {
+            throw new IllegalArgumentException("TTL and max size must be positive.");
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxSize = maxSize;
+    }
+
+    public void put(UUID transactionId, TransferResponse response) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(transactionId, response, now + ttlMillis);
+        if (Objects.isNull(results.put(transactionId, entry))) {
+            size.incrementAndGet();
+        }
+        order.add(entry);
+        evict(now);
+    }
+
+    public TransferResponse get(UUID transactionId) {
+        Entry entry = results.get(transactionId);
+        return Objects.nonNull(entry) && entry.expiresAt > System.currentTimeMillis() ? entry.response : null;
+    }
+
+    public boolean isExpired(UUID transactionId) {
+        Entry entry = results.get(transactionId);
+        if (Objects.nonNull(entry)) {
+            return entry.expiresAt <= System.currentTimeMillis();
+        }
+        return expired.containsKey(transactionId);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    //results which are not expired yet, in expiry order
+    void forEach(Consumer<Entry> consumer) {
+        long now = System.currentTimeMillis();
+        for (Entry entry : order) {
+            if (entry.expiresAt > now && results.get(entry.transactionId) == entry) {
+                consumer.accept(entry);
+            }
+        }
+    }
+
+    //puts back a result read from a snapshot, keeping its original expiry time
+    void restore(UUID transactionId, TransferResponse response, long expiresAt) {
+        long now = System.currentTimeMillis();
+        if (expiresAt <= now) {
+            return;
+        }
+        Entry entry = new Entry(transactionId, response, expiresAt);
+        if (Objects.isNull(results.put(transactionId, entry))) {
+            size.incrementAndGet();
+        }
+        order.add(entry);
+        evict(now);
+    }
+
+    private void evict(long now) {
+        Entry head = order.peek();
+        if (size.get() <= maxSize && (Objects.isNull(head) || head.expiresAt > now)) {
+            return;
+        }
+        //another writer is already evicting, no need to wait for it
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            while (Objects.nonNull(head = order.peek()) && (size.get() > maxSize || head.expiresAt <= now)) {
+                order.poll();
+                //the id could be written again later, then the older entry is just dropped from the queue
+                if (results.remove(head.transactionId, head)) {
+                    size.decrementAndGet();
+                    remember(head.transactionId, now);
+                }
+            }
+            while (Objects.nonNull(head = expiredOrder.peek()) && (expiredSize.get() > maxSize || head.expiresAt <= now)) {
+                expiredOrder.poll();
+                if (expired.remove(head.transactionId, head.expiresAt)) {
+                    expiredSize.decrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void remember(UUID transactionId, long now) {
+        Long expiresAt = now + ttlMillis;
+        if (Objects.isNull(expired.put(transactionId, expiresAt))) {
+            expiredSize.incrementAndGet();
+        }
+        expiredOrder.add(new Entry(transactionId, null, expiresAt));
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Entry {
+        private final UUID transactionId;
+        private final TransferResponse response;
+        private final long expiresAt;
+    }
+}
@@ -0,0 +1,261 @@
+package com.revolut.db;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent map from a UUID to a value, with the two longs of every key stored inline in a long array and linear
+ * probing over it, so a lookup neither hashes nor compares UUID objects and allocates no nodes.
+ * <p>
+ * Keys are split between segments by their hash, writers of a segment take its lock and readers take no lock at
+ * all. A slot is published by a volatile write of its value after its key, and its key never changes in the
+ * table it was written to: removed keys leave a tombstone which only a rehash into a new table clears. Iteration
+ * is weakly consistent, as the one of {@link java.util.concurrent.ConcurrentHashMap}.
+ */
+public class UuidMap<V> implements Iterable<V> {
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+    private static final Object TOMBSTONE = new Object();
+    private static final int SEGMENT_BITS = 4;
+    private static final int MIN_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    public UuidMap() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    public V get(UUID key) {
+        return get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long msb, long lsb) {
+        long hash = hash(msb, lsb);
+        return (V) segment(hash).table.get(hash, msb, lsb);
+    }
+
+    public boolean containsKey(UUID key) {
+        return Objects.nonNull(get(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(UUID key, V value) {
+        return (V) segment(hash(key)).put(key, value, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(UUID key, V value) {
+        return (V) segment(hash(key)).put(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(UUID key) {
+        return (V) segment(hash(key)).remove(key, null);
+    }
+
+    //removes the key only if it is still mapped to the value
+    public boolean remove(UUID key, V value) {
+        return Objects.nonNull(segment(hash(key)).remove(key, Objects.requireNonNull(value)));
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.table.size;
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private int segment = -1;
+            private Object[] values = new Object[0];
+            private int slot;
+            private V next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return Objects.nonNull(next);
+            }
+
+            @Override
+            public V next() {
+                if (Objects.isNull(next)) {
+                    throw new NoSuchElementException();
+                }
+                V current = next;
+                next = advance();
+                return current;
+            }
+
+            @SuppressWarnings("unchecked")
+            private V advance() {
+                while (true) {
+                    if (slot == values.length) {
+                        if (++segment == segments.length) {
+                            return null;
+                        }
+                        values = segments[segment].table.values;
+                        slot = 0;
+                    }
+                    Object value = VALUES.getAcquire(values, slot++);
+                    if (Objects.nonNull(value) && value != TOMBSTONE) {
+                        return (V) value;
+                    }
+                }
+            }
+        };
+    }
+
+    private Segment segment(long hash) {
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    private static long hash(UUID key) {
+        return hash(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    private static long hash(long msb, long lsb) {
+        long hash = msb * 0x9E3779B97F4A7C15l ^ lsb;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDl;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile Table table = new Table(MIN_CAPACITY);
+
+        Object put(UUID key, Object value, boolean onlyIfAbsent) {
+            Objects.requireNonNull(value);
+            long msb = key.getMostSignificantBits();
+            long lsb = key.getLeastSignificantBits();
+            long hash = hash(msb, lsb);
+            lock.lock();
+            try {
+                Table current = table;
+                int slot = current.find(hash, msb, lsb);
+                if (slot >= 0) {
+                    Object previous = current.values[slot];
+                    if (!onlyIfAbsent) {
+                        VALUES.setRelease(current.values, slot, value);
+                    }
+                    return previous;
+                }
+                if (current.used + 1 > current.threshold()) {
+                    current = rehash(current);
+                }
+                current.insert(hash, msb, lsb, value);
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Object remove(UUID key, Object expected) {
+            long msb = key.getMostSignificantBits();
+            long lsb = key.getLeastSignificantBits();
+            lock.lock();
+            try {
+                Table current = table;
+                int slot = current.find(hash(msb, lsb), msb, lsb);
+                if (slot < 0 || Objects.nonNull(expected) && current.values[slot] != expected) {
+                    return null;
+                }
+                Object previous = current.values[slot];
+                VALUES.setRelease(current.values, slot, TOMBSTONE);
+                current.size--;
+                return previous;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        //copies live keys to a new table, doubled only if they alone would fill half of the current one
+        private Table rehash(Table current) {
+            int capacity = current.size + 1 > current.length() / 2 ? current.length() * 2 : current.length();
+            Table rehashed = new Table(capacity);
+            for (int slot = 0; slot < current.length(); slot++) {
+                Object value = current.values[slot];
+                if (Objects.nonNull(value) && value != TOMBSTONE) {
+                    long msb = current.keys[2 * slot];
+                    long lsb = current.keys[2 * slot + 1];
+                    rehashed.insert(hash(msb, lsb), msb, lsb, value);
+                }
+            }
+            table = rehashed;
+            return rehashed;
+        }
+    }
+
+    private static final class Table {
+        //most and least significant bits of the key of every slot, one after another
+        private final long[] keys;
+        private final Object[] values;
+        private final int mask;
+        //live keys and slots taken by live keys or tombstones, both changed under the segment lock
+        private volatile int size;
+        private int used;
+
+        Table(int capacity) {
+            keys = new long[capacity * 2];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        int length() {
+            return values.length;
+        }
+
+        int threshold() {
+            return length() - length() / 4;
+        }
+
+        //lock free, a null value ends probing and the key of a slot with a value is always visible
+        Object get(long hash, long msb, long lsb) {
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                Object value = VALUES.getAcquire(values, slot);
+                if (Objects.isNull(value)) {
+                    return null;
+                } else if (value != TOMBSTONE && keys[2 * slot] == msb && keys[2 * slot + 1] == lsb) {
+                    return value;
+                }
+            }
+        }
+
+        //slot of the key, -1 if there is none, only for writers holding the segment lock
+        int find(long hash, long msb, long lsb) {
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                Object value = values[slot];
+                if (Objects.isNull(value)) {
+                    return -1;
+                } else if (value != TOMBSTONE && keys[2 * slot] == msb && keys[2 * slot + 1] == lsb) {
+                    return slot;
+                }
+            }
+        }
+
+        //the key must not be in the table yet, only empty slots are taken
+        void insert(long hash, long msb, long lsb, Object value) {
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                if (Objects.isNull(values[slot])) {
+                    keys[2 * slot] = msb;
+                    keys[2 * slot + 1] = lsb;
+                    VALUES.setRelease(values, slot, value);
+                    size++;
+                    used++;
+                    return;
+                }
+            }
+        }
+    }
+}
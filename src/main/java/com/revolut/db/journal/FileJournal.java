@@ -0,0 +1,339 @@
+package com.revolut.db.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only journal kept as numbered segment files in a directory. Every record is stored as its length
+ * (4 bytes), CRC32 of the body (4 bytes) and the body, see {@link JournalRecord}. Appending threads only put
+ * records into a queue, a single flusher thread encodes whatever has been queued, writes it with one call and
+ * forces it according to the {@link FsyncPolicy}, so concurrent changes share one fsync.
+ * <p>
+ * On replay a record with a wrong length or checksum is treated as the torn tail of the last write before a
+ * crash, and the segment is truncated right before it.
+ * <p>
+ * {@link #rotate()} starts a new segment, so the older ones can be dropped with {@link #deleteSegmentsBefore}
+ * once a snapshot covers them.
+ */
+public class FileJournal implements Journal {
+    private static final Logger log = LoggerFactory.getLogger(FileJournal.class);
+
+    private static final int HEADER_SIZE = 8;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final long ALWAYS_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("journal-(\\d+)\\.log");
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+
+    private final AtomicLong seq = new AtomicLong();
+    private final Queue<JournalRecord> queue = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    //written by the flusher only
+    private FileChannel channel;
+    //segment the flusher has to switch to
+    private volatile FileChannel nextChannel;
+    private long segment;
+
+    private volatile Thread flusher;
+    private volatile boolean running;
+    private volatile Exception failure;
+
+    public FileJournal(Path directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis);
+    }
+
+    @Override
+    public JournalRecord append(JournalRecord record) {
+        if (!running) {
+            throw new IllegalStateException("Journal is not open for writing.", failure);
+        }
+        record.setSeq(seq.incrementAndGet());
+        queue.add(record);
+        if (FsyncPolicy.ALWAYS.equals(fsyncPolicy)) {
+            LockSupport.unpark(flusher);
+        }
+        return record;
+    }
+
+    @Override
+    public void awaitDurable(JournalRecord record) {
+        if (!FsyncPolicy.ALWAYS.equals(fsyncPolicy) || record.isDurable()) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (!record.isDurable()) {
+                if (!running) {
+                    throw new IllegalStateException("Journal is closed.", failure);
+                }
+                written.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public synchronized void replay(Consumer<JournalRecord> consumer) {
+        if (Objects.nonNull(flusher)) {
+            throw new IllegalStateException("Journal has already been replayed.");
+        }
+        try {
+            for (long number : segments()) {
+                if (Objects.nonNull(channel)) {
+                    channel.close();
+                }
+                segment = number;
+                channel = FileChannel.open(segmentPath(number), READ, WRITE);
+                long validSize = read(channel, consumer);
+                if (validSize < channel.size()) {
+                    log.warn("Journal segment {} has a broken tail, truncating it from {} to {} bytes",
+                            number, channel.size(), validSize);
+                    channel.truncate(validSize);
+                }
+                channel.position(validSize);
+            }
+            if (Objects.isNull(channel)) {
+                channel = FileChannel.open(segmentPath(segment), CREATE, READ, WRITE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (Objects.isNull(flusher)) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+            flusher = null;
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Journal could not be closed", e);
+        }
+    }
+
+    public long lastSeq() {
+        return seq.get();
+    }
+
+    //records older than a loaded snapshot may be deleted already, new ones still have to get higher numbers
+    public void skipTo(long lastSeq) {
+        seq.accumulateAndGet(lastSeq, Math::max);
+    }
+
+    /**
+     * Makes the flusher continue in a new segment. Every record appended before the call is in an older segment
+     * when this returns, records appended concurrently can end up in either of them.
+     *
+     * @return number of the new segment
+     */
+    public synchronized long rotate() throws IOException {
+        if (!running) {
+            throw new IllegalStateException("Journal is not open for writing.", failure);
+        }
+        long next = segment + 1;
+        FileChannel created = FileChannel.open(segmentPath(next), CREATE_NEW, READ, WRITE);
+        lock.lock();
+        try {
+            nextChannel = created;
+            LockSupport.unpark(flusher);
+            while (Objects.nonNull(nextChannel)) {
+                if (!running) {
+                    created.close();
+                    throw new IllegalStateException("Journal is closed.", failure);
+                }
+                written.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        segment = next;
+        return next;
+    }
+
+    public synchronized void deleteSegmentsBefore(long number) throws IOException {
+        for (long older : segments()) {
+            if (older < Math.min(number, segment)) {
+                Files.delete(segmentPath(older));
+            }
+        }
+    }
+
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> SEGMENT_NAME.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("journal-%020d.log", number));
+    }
+
+    private long read(FileChannel channel, Consumer<JournalRecord> consumer) throws IOException {
+        ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        in.flip();
+        channel.position(0);
+        long position = 0;
+        while (fill(channel, in, HEADER_SIZE)) {
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length <= 0 || length > BUFFER_SIZE - HEADER_SIZE || !fill(channel, in, length)) {
+                break;
+            }
+            ByteBuffer body = in.slice();
+            body.limit(length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            JournalRecord record;
+            try {
+                record = JournalRecord.decode(body);
+            } catch (BufferUnderflowException | ArrayIndexOutOfBoundsException ex) {
+                break;
+            }
+            in.position(in.position() + length);
+            position += HEADER_SIZE + length;
+            seq.accumulateAndGet(record.getSeq(), Math::max);
+            consumer.accept(record);
+        }
+        return position;
+    }
+
+    //makes sure at least the given number of bytes can be read from the buffer, false at the end of file
+    private boolean fill(FileChannel channel, ByteBuffer in, int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return true;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                in.flip();
+                return false;
+            }
+        }
+        in.flip();
+        return true;
+    }
+
+    private void flushLoop() {
+        List<JournalRecord> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            JournalRecord record;
+            try {
+                while (Objects.nonNull(record = queue.poll())) {
+                    int size = record.encodedSize();
+                    if (buffer.remaining() < HEADER_SIZE + size) {
+                        write();
+                    }
+                    buffer.position(buffer.position() + HEADER_SIZE);
+                    ByteBuffer body = buffer.slice();
+                    record.encode(buffer);
+                    body.limit(size);
+                    crc.reset();
+                    crc.update(body);
+                    buffer.putInt(buffer.position() - size - HEADER_SIZE, size);
+                    buffer.putInt(buffer.position() - size - HEADER_SIZE + 4, (int) crc.getValue());
+                    batch.add(record);
+                }
+                if (!batch.isEmpty()) {
+                    write();
+                    if (!FsyncPolicy.OS.equals(fsyncPolicy)) {
+                        channel.force(false);
+                    }
+                    batch.forEach(JournalRecord::markDurable);
+                    batch.clear();
+                    signalWritten();
+                }
+                if (Objects.nonNull(nextChannel)) {
+                    channel.force(false);
+                    channel.close();
+                    channel = nextChannel;
+                    nextChannel = null;
+                    signalWritten();
+                }
+            } catch (IOException | RuntimeException e) {
+                //waiters of ALWAYS would park forever if the flusher just died
+                log.error("Journal write failed, no more changes can be recorded", e);
+                failure = e;
+                running = false;
+                signalWritten();
+                return;
+            }
+            if (running && queue.isEmpty() && Objects.isNull(nextChannel)) {
+                LockSupport.parkNanos(this, FsyncPolicy.ALWAYS.equals(fsyncPolicy) ? ALWAYS_PARK_NANOS : fsyncIntervalNanos);
+            }
+        }
+    }
+
+    private void write() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void signalWritten() {
+        lock.lock();
+        try {
+            written.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
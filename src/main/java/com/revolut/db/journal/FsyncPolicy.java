@@ -0,0 +1,10 @@
+package com.revolut.db.journal;
+
+public enum FsyncPolicy {
+    //every change waits until its record is forced to disk, concurrent changes share one fsync
+    ALWAYS,
+    //records are forced to disk every fsync interval, a crash can lose the last interval
+    INTERVAL,
+    //records are written every fsync interval and the OS decides when they reach the disk
+    OS
+}
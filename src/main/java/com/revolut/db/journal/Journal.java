@@ -0,0 +1,37 @@
+package com.revolut.db.journal;
+
+import java.util.function.Consumer;
+
+public interface Journal {
+
+    //journal which doesn't keep anything
+    Journal NONE = new Journal() {
+        @Override
+        public JournalRecord append(JournalRecord record) {
+            return record;
+        }
+
+        @Override
+        public void awaitDurable(JournalRecord record) {
+        }
+
+        @Override
+        public void replay(Consumer<JournalRecord> consumer) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    //assigns the next sequence number to the record and queues it for writing, throws once nothing can be written
+    JournalRecord append(JournalRecord record);
+
+    //blocks until the record is on disk if the fsync policy requires that
+    void awaitDurable(JournalRecord record);
+
+    //feeds every stored record to the consumer, has to be called before the first append
+    void replay(Consumer<JournalRecord> consumer);
+
+    void close();
+}
@@ -0,0 +1,200 @@
+package com.revolut.db.journal;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * One change of the account store. Binary layout: type (1 byte), sequence number (8), then the payload:
+ * ids as two longs, amounts as longs in minor units, names as a short length (-1 for null) plus UTF-8 bytes,
+ * batch items as their count (int) followed by id and amount of every item.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class JournalRecord {
+
+    public enum Type {
+        INSERT, UPDATE, DELETE, TRANSFER, ADJUST, BATCH
+    }
+
+    //every char takes at most 3 UTF-8 bytes, so the encoded name always fits into the short length
+    public static final int MAX_NAME_LENGTH = Short.MAX_VALUE / 3;
+
+    private final Type type;
+    private long seq;
+    private final UUID id;
+    //receiver of a TRANSFER
+    private final UUID idTo;
+    //balance of INSERT, amount of TRANSFER, balance change of ADJUST
+    private final long amount;
+    private final String firstName;
+    private final String lastName;
+    //ADJUST records applied together by a BATCH, at most one per account
+    private final List<JournalRecord> items;
+
+    @Getter(AccessLevel.NONE)
+    private volatile boolean durable;
+
+    public static JournalRecord insert(UUID id, long balance, String firstName, String lastName) {
+        checkName(firstName);
+        checkName(lastName);
+        return new JournalRecord(Type.INSERT, 0, id, null, balance, firstName, lastName, null, false);
+    }
+
+    public static JournalRecord update(UUID id, String firstName, String lastName) {
+        checkName(firstName);
+        checkName(lastName);
+        return new JournalRecord(Type.UPDATE, 0, id, null, 0, firstName, lastName, null, false);
+    }
+
+    public static JournalRecord delete(UUID id) {
+        return new JournalRecord(Type.DELETE, 0, id, null, 0, null, null, null, false);
+    }
+
+    public static JournalRecord transfer(UUID idFrom, UUID idTo, long amount) {
+        return new JournalRecord(Type.TRANSFER, 0, idFrom, idTo, amount, null, null, null, false);
+    }
+
+    public static JournalRecord adjust(UUID id, long amount) {
+        return new JournalRecord(Type.ADJUST, 0, id, null, amount, null, null, null, false);
+    }
+
+    //net balance changes of an atomic transfer batch, the id of the record itself is the batch id
+    public static JournalRecord batch(UUID batchId, List<JournalRecord> adjustments) {
+        return new JournalRecord(Type.BATCH, 0, batchId, null, 0, null, null, adjustments, false);
+    }
+
+    void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    boolean isDurable() {
+        return durable;
+    }
+
+    void markDurable() {
+        durable = true;
+    }
+
+    int encodedSize() {
+        int size = 1 + 8 + 16;
+        switch (type) {
+            case INSERT:
+                return size + 8 + stringSize(firstName) + stringSize(lastName);
+            case UPDATE:
+                return size + stringSize(firstName) + stringSize(lastName);
+            case TRANSFER:
+                return size + 16 + 8;
+            case ADJUST:
+                return size + 8;
+            case BATCH:
+                return size + 4 + items.size() * (16 + 8);
+            default:
+                return size;
+        }
+    }
+
+    void encode(ByteBuffer buffer) {
+        buffer.put((byte) type.ordinal()).putLong(seq);
+        putId(buffer, id);
+        switch (type) {
+            case INSERT:
+                buffer.putLong(amount);
+                putString(buffer, firstName);
+                putString(buffer, lastName);
+                break;
+            case UPDATE:
+                putString(buffer, firstName);
+                putString(buffer, lastName);
+                break;
+            case TRANSFER:
+                putId(buffer, idTo);
+                buffer.putLong(amount);
+                break;
+            case ADJUST:
+                buffer.putLong(amount);
+                break;
+            case BATCH:
+                buffer.putInt(items.size());
+                for (JournalRecord item : items) {
+                    putId(buffer, item.id);
+                    buffer.putLong(item.amount);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    static JournalRecord decode(ByteBuffer buffer) throws BufferUnderflowException {
+        Type type = Type.values()[buffer.get()];
+        long seq = buffer.getLong();
+        UUID id = getId(buffer);
+        switch (type) {
+            case INSERT:
+                long balance = buffer.getLong();
+                return new JournalRecord(type, seq, id, null, balance, getString(buffer), getString(buffer), null, true);
+            case UPDATE:
+                return new JournalRecord(type, seq, id, null, 0, getString(buffer), getString(buffer), null, true);
+            case TRANSFER:
+                UUID idTo = getId(buffer);
+                return new JournalRecord(type, seq, id, idTo, buffer.getLong(), null, null, null, true);
+            case ADJUST:
+                return new JournalRecord(type, seq, id, null, buffer.getLong(), null, null, null, true);
+            case BATCH:
+                int count = buffer.getInt();
+                List<JournalRecord> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    items.add(adjust(getId(buffer), buffer.getLong()));
+                }
+                return new JournalRecord(type, seq, id, null, 0, null, null, items, true);
+            default:
+                return new JournalRecord(type, seq, id, null, 0, null, null, null, true);
+        }
+    }
+
+    private static void checkName(String value) {
+        if (Objects.nonNull(value) && value.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException(String.format("Name is longer than %d characters", MAX_NAME_LENGTH));
+        }
+    }
+
+    private static int stringSize(String value) {
+        return 2 + (Objects.isNull(value) ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void putId(ByteBuffer buffer, UUID id) {
+        buffer.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+    }
+
+    private static UUID getId(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (Objects.isNull(value)) {
+            buffer.putShort((short) -1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            buffer.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package com.revolut.db.ledger;
+
+import com.revolut.client.LedgerEntry;
+import com.revolut.client.LedgerPage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+import static com.revolut.utils.Money.format;
+
+/**
+ * Debits and credits of one account in the order they were applied, every entry being five longs (time, amount,
+ * counterparty and resulting balance) in chunks of long arrays. Chunks double from 8 up to 1024 entries, so an
+ * account with a few transfers takes a few hundred bytes, and whole chunks of the oldest entries are dropped
+ * once the ledger holds more than its retention.
+ * <p>
+ * Entries are appended by the single writer of the account, i.e. under its lock. Reads take no lock: an entry is
+ * published by the volatile size written after it, and a chunk is never reused once dropped. Times never go
+ * backwards within a ledger, so a time range is found by binary search and a page costs O(log n + page size).
+ */
+public class AccountLedger {
+    public static final int DEFAULT_RETENTION = 1000;
+
+    private static final int TIME = 0;
+    private static final int AMOUNT = 1;
+    private static final int COUNTERPARTY_MSB = 2;
+    private static final int COUNTERPARTY_LSB = 3;
+    private static final int BALANCE = 4;
+    private static final int ENTRY_LONGS = 5;
+
+    private static final int FIRST_CHUNK_BITS = 3;
+    private static final int MAX_CHUNK_BITS = 10;
+    private static final int GROWING_CHUNKS = MAX_CHUNK_BITS - FIRST_CHUNK_BITS;
+    //entries in the chunks smaller than the max one
+    private static final long GROWING_ENTRIES = ((1l << GROWING_CHUNKS) - 1) << FIRST_CHUNK_BITS;
+
+    private final int retention;
+    private volatile long[][] chunks = new long[0][];
+    //seq of the next entry
+    private volatile long size;
+    //seq of the oldest entry still kept
+    private volatile long first;
+    //written by the writer only
+    private long lastTime;
+
+    //keeps at least the given number of newest entries
+    public AccountLedger(int retention) {
+        this.retention = retention;
+    }
+
+    //counterparty is null for a change which doesn't come from a transfer
+    public void append(long amount, UUID counterparty, long balance) {
+        long seq = size;
+        int chunk = chunk(seq);
+        if (chunk == chunks.length) {
+            long[][] grown = Arrays.copyOf(chunks, chunk + 1);
+            grown[chunk] = new long[chunkSize(chunk) * ENTRY_LONGS];
+            chunks = grown;
+        }
+        long[] entries = chunks[chunk];
+        int base = (int) (seq - chunkStart(chunk)) * ENTRY_LONGS;
+        lastTime = Math.max(lastTime, System.currentTimeMillis());
+        entries[base + TIME] = lastTime;
+        entries[base + AMOUNT] = amount;
+        entries[base + COUNTERPARTY_MSB] = Objects.isNull(counterparty) ? 0 : counterparty.getMostSignificantBits();
+        entries[base + COUNTERPARTY_LSB] = Objects.isNull(counterparty) ? 0 : counterparty.getLeastSignificantBits();
+        entries[base + BALANCE] = balance;
+        size = seq + 1;
+        dropOldChunks();
+    }
+
+    /**
+     * Newest entries first, with a seq below beforeSeq and a time from fromMillis inclusive to toMillis exclusive.
+     */
+    public LedgerPage read(long beforeSeq, long fromMillis, long toMillis, int limit) {
+        long oldest = first;
+        long seq = Math.min(beforeSeq, size) - 1;
+        //skips entries newer than the range
+        long low = oldest;
+        long high = seq;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            if (time(middle) < toMillis) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        seq = high;
+        List<LedgerEntry> entries = new ArrayList<>(Math.min(limit, (int) Math.max(seq - oldest + 1, 0)));
+        for (; seq >= oldest && entries.size() < limit; seq--) {
+            LedgerEntry entry = entry(seq);
+            if (Objects.isNull(entry) || entry.getDate().getTime() < fromMillis) {
+                break;
+            }
+            entries.add(entry);
+        }
+        boolean more = entries.size() == limit && seq >= oldest && time(seq) >= fromMillis;
+        return LedgerPage.builder()
+                .entries(entries)
+                .nextBeforeSeq(more ? seq + 1 : null)
+                .build();
+    }
+
+    //seq of the next entry
+    public long size() {
+        return size;
+    }
+
+    private void dropOldChunks() {
+        int chunk = chunk(first);
+        while (size - chunkStart(chunk + 1) >= retention) {
+            chunks[chunk] = null;
+            first = chunkStart(++chunk);
+        }
+    }
+
+    //time of the entry, Long.MIN_VALUE if it was dropped meanwhile
+    private long time(long seq) {
+        long[] entries = chunks[chunk(seq)];
+        return Objects.isNull(entries) ? Long.MIN_VALUE : entries[(int) (seq - chunkStart(chunk(seq))) * ENTRY_LONGS + TIME];
+    }
+
+    private LedgerEntry entry(long seq) {
+        int chunk = chunk(seq);
+        long[] entries = chunks[chunk];
+        if (Objects.isNull(entries)) {
+            return null;
+        }
+        int base = (int) (seq - chunkStart(chunk)) * ENTRY_LONGS;
+        long msb = entries[base + COUNTERPARTY_MSB];
+        long lsb = entries[base + COUNTERPARTY_LSB];
+        return LedgerEntry.builder()
+                .seq(seq)
+                .date(new Date(entries[base + TIME]))
+                .amount(format(entries[base + AMOUNT]))
+                .counterparty(msb == 0 && lsb == 0 ? null : new UUID(msb, lsb).toString())
+                .balance(format(entries[base + BALANCE]))
+                .build();
+    }
+
+    private static int chunk(long seq) {
+        if (seq < GROWING_ENTRIES) {
+            return Long.SIZE - 1 - Long.numberOfLeadingZeros((seq >>> FIRST_CHUNK_BITS) + 1);
+        }
+        return GROWING_CHUNKS + (int) ((seq - GROWING_ENTRIES) >>> MAX_CHUNK_BITS);
+    }
+
+    private static long chunkStart(int chunk) {
+        if (chunk < GROWING_CHUNKS) {
+            return ((1l << chunk) - 1) << FIRST_CHUNK_BITS;
+        }
+        return GROWING_ENTRIES + ((long) (chunk - GROWING_CHUNKS) << MAX_CHUNK_BITS);
+    }
+
+    private static int chunkSize(int chunk) {
+        return 1 << Math.min(chunk + FIRST_CHUNK_BITS, MAX_CHUNK_BITS);
+    }
+}
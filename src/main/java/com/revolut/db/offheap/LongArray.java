@@ -0,0 +1,98 @@
+package com.revolut.db.offheap;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An array of longs in direct buffers, split into segments as a single buffer can't be bigger than 2 GB.
+ * Segments are allocated up front or, for a lazy array, by {@link #allocate(long)} before an index is first
+ * written. Elements are read and written through a VarHandle, which gives volatile and CAS access to them.
+ */
+final class LongArray {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final int segmentBits;
+    private final long segmentMask;
+    private final long length;
+    //elements of a lazy array are published through other elements, which makes their segment visible too
+    private final ByteBuffer[] segments;
+    private final ReentrantLock allocation = new ReentrantLock();
+
+    LongArray(long length, int segmentBits, boolean lazy) {
+        this.length = length;
+        this.segmentBits = segmentBits;
+        this.segmentMask = (1l << segmentBits) - 1;
+        this.segments = new ByteBuffer[(int) ((length + segmentMask) >>> segmentBits)];
+        if (!lazy) {
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = newSegment(i);
+            }
+        }
+    }
+
+    //makes sure the segment of the index exists, has to be called before the index is written
+    void allocate(long index) {
+        int segment = (int) (index >>> segmentBits);
+        if (segments[segment] != null) {
+            return;
+        }
+        allocation.lock();
+        try {
+            if (segments[segment] == null) {
+                segments[segment] = newSegment(segment);
+            }
+        } finally {
+            allocation.unlock();
+        }
+    }
+
+    long get(long index) {
+        return (long) LONGS.get(segments[(int) (index >>> segmentBits)], offset(index));
+    }
+
+    long getVolatile(long index) {
+        return (long) LONGS.getVolatile(segments[(int) (index >>> segmentBits)], offset(index));
+    }
+
+    void set(long index, long value) {
+        LONGS.set(segments[(int) (index >>> segmentBits)], offset(index), value);
+    }
+
+    void setVolatile(long index, long value) {
+        LONGS.setVolatile(segments[(int) (index >>> segmentBits)], offset(index), value);
+    }
+
+    boolean compareAndSet(long index, long expected, long value) {
+        return LONGS.compareAndSet(segments[(int) (index >>> segmentBits)], offset(index), expected, value);
+    }
+
+    long getAndSet(long index, long value) {
+        return (long) LONGS.getAndSet(segments[(int) (index >>> segmentBits)], offset(index), value);
+    }
+
+    long length() {
+        return length;
+    }
+
+    //bytes taken by the allocated segments
+    long allocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer segment : segments) {
+            bytes += segment == null ? 0 : segment.capacity();
+        }
+        return bytes;
+    }
+
+    private int offset(long index) {
+        return (int) (index & segmentMask) << 3;
+    }
+
+    private ByteBuffer newSegment(int segment) {
+        long longs = Math.min(segmentMask + 1, length - ((long) segment << segmentBits));
+        //VarHandle access needs 8 byte alignment, which allocateDirect alone doesn't promise
+        return ByteBuffer.allocateDirect((int) (longs << 3) + 7).alignedSlice(8).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,79 @@
+package com.revolut.db.offheap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Account names as UTF-8 bytes in direct buffers, appended one after another and referred to by a long which
+ * packs their offset and length. Nothing is ever overwritten, so a reader holding an old reference still reads
+ * the old name, and a renamed account just leaves its old name behind.
+ */
+final class NameArena {
+    static final long NULL = -1l;
+    static final int MAX_LENGTH = 0xFFFF;
+
+    private static final int SEGMENT_BITS = 26;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int LENGTH_BITS = 16;
+
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+    //offset of the next name, guarded by the lock
+    private long next;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    long put(String name) {
+        if (Objects.isNull(name)) {
+            return NULL;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_LENGTH) {
+            throw new IllegalArgumentException(String.format("Name can have at most %d bytes.", MAX_LENGTH));
+        }
+        lock.lock();
+        try {
+            int segment = (int) (next >>> SEGMENT_BITS);
+            int position = (int) (next & (SEGMENT_SIZE - 1));
+            //a name never spans two segments
+            if (position + bytes.length > SEGMENT_SIZE) {
+                segment++;
+                position = 0;
+            }
+            if (segment == segments.length) {
+                ByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+                grown[segment] = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+                segments = grown;
+            }
+            ByteBuffer buffer = segments[segment];
+            for (int i = 0; i < bytes.length; i++) {
+                buffer.put(position + i, bytes[i]);
+            }
+            long offset = ((long) segment << SEGMENT_BITS) + position;
+            next = offset + bytes.length;
+            return offset << LENGTH_BITS | bytes.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String get(long reference) {
+        if (reference == NULL) {
+            return null;
+        }
+        int length = (int) (reference & MAX_LENGTH);
+        long offset = reference >>> LENGTH_BITS;
+        ByteBuffer buffer = segments[(int) (offset >>> SEGMENT_BITS)];
+        int position = (int) (offset & (SEGMENT_SIZE - 1));
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    long allocatedBytes() {
+        return (long) segments.length * SEGMENT_SIZE;
+    }
+}
@@ -0,0 +1,456 @@
+package com.revolut.db.offheap;
+
+import com.revolut.client.LedgerPage;
+import com.revolut.client.TransferResponse;
+import com.revolut.db.AppDb;
+import com.revolut.db.DB_CODE;
+import com.revolut.db.Transfer;
+import com.revolut.db.TransferResultStore;
+import com.revolut.model.AccountModel;
+import com.revolut.utils.Money;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.revolut.utils.Money.toBigDecimal;
+import static java.util.Optional.ofNullable;
+
+/**
+ * {@link AppDb} keeping accounts off the heap, so the heap and GC pauses don't grow with the number of accounts.
+ * Every account is a fixed-size record of five longs (id, balance and references to its names) in a lazily
+ * allocated {@link LongArray}, found through an {@link OffHeapIndex} and with names kept in a {@link NameArena}.
+ * <p>
+ * Balances are changed in place with CAS, like the balances of {@link com.revolut.db.InMemoryAppDb}. Transfers
+ * lock striped locks instead of per-account ones, always in stripe order. Records of deleted accounts are closed
+ * and never reused, so a record number found in the index always belongs to the same account. The store holds
+ * up to a fixed number of accounts, deleted ones included, and has no journal.
+ */
+public class OffHeapAppDb implements AppDb {
+    public static final int DEFAULT_CAPACITY = 1_000_000;
+
+    private static final int MSB = 0;
+    private static final int LSB = 1;
+    private static final int BALANCE = 2;
+    private static final int FIRST_NAME = 3;
+    private static final int LAST_NAME = 4;
+    private static final int RECORD_LONGS = 5;
+    //8 MB segments, allocated as accounts are inserted
+    private static final int SEGMENT_BITS = 20;
+    private static final int LOCK_STRIPES = 1 << 12;
+    //balance of a deleted account, real balances are never negative
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final long capacity;
+    private final LongArray records;
+    private final OffHeapIndex index;
+    private final NameArena names = new NameArena();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    //serializes index writes and record allocation
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final LongAdder contendedLocks = new LongAdder();
+    //changed under the write lock, records below it are published
+    private volatile long recordCount;
+    private final TransferResultStore responses;
+
+    public OffHeapAppDb() {
+        this(new TransferResultStore(), DEFAULT_CAPACITY);
+    }
+
+    public OffHeapAppDb(TransferResultStore responses, long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.responses = responses;
+        this.capacity = capacity;
+        this.records = new LongArray(capacity * RECORD_LONGS, SEGMENT_BITS, true);
+        this.index = new OffHeapIndex(capacity);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public AccountModel selectAccountById(UUID id) {
+        long record = index.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return record < 0 ? null : parse(id, record);
+    }
+
+    @Override
+    public AccountModel deleteAccountById(UUID id) {
+        long record = index.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (record < 0) {
+            return null;
+        }
+        ReentrantLock lock = lock(record);
+        acquire(lock);
+        try {
+            writeLock.lock();
+            try {
+                if (!index.remove(id.getMostSignificantBits(), id.getLeastSignificantBits(), record)) {
+                    return null;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            AccountModel deletedAccount = parse(id, record);
+            //after that every transaction fails
+            deletedAccount.setBalance(toBigDecimal(records.getAndSet(base(record) + BALANCE, CLOSED)));
+            return deletedAccount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public AccountModel insertAccount(AccountModel newAccount) throws Exception {
+        if (Objects.isNull(newAccount)) {
+            throw new Exception("Empty account");
+        }
+        UUID id = ofNullable(newAccount.getId()).orElse(UUID.randomUUID());
+        long balance = ofNullable(newAccount.getBalance()).map(Money::toMinorUnits).orElse(0l);
+        if (balance < 0) {
+            throw new Exception("amount can not be lower than zero");
+        }
+        long firstName = names.put(newAccount.getFirstName());
+        long lastName = names.put(newAccount.getLastName());
+        long record;
+        writeLock.lock();
+        try {
+            if (index.get(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0) {
+                throw new Exception(String.format("Account with id:%s already exists", id));
+            } else if (recordCount == capacity) {
+                throw new Exception(String.format("Account store is full, it has room for %d accounts", capacity));
+            }
+            record = recordCount;
+            long base = base(record);
+            records.allocate(base + RECORD_LONGS - 1);
+            records.set(base + MSB, id.getMostSignificantBits());
+            records.set(base + LSB, id.getLeastSignificantBits());
+            records.set(base + FIRST_NAME, firstName);
+            records.set(base + LAST_NAME, lastName);
+            records.set(base + BALANCE, balance);
+            //publishes the record
+            index.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), record);
+            recordCount = record + 1;
+        } finally {
+            writeLock.unlock();
+        }
+        return parse(id, record);
+    }
+
+    @Override
+    public AccountModel updateAccountById(AccountModel accountModel) {
+        UUID id = accountModel.getId();
+        long record = Objects.isNull(id) ? -1 : index.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (record < 0) {
+            return null;
+        }
+        long firstName = names.put(accountModel.getFirstName());
+        long lastName = names.put(accountModel.getLastName());
+        ReentrantLock lock = lock(record);
+        acquire(lock);
+        try {
+            records.setVolatile(base(record) + FIRST_NAME, firstName);
+            records.setVolatile(base(record) + LAST_NAME, lastName);
+        } finally {
+            lock.unlock();
+        }
+        return parse(id, record);
+    }
+
+    //record numbers are positions, as records are never reused
+    @Override
+    public AccountModel selectAccountAt(long position) {
+        if (position < 0 || position >= recordCount) {
+            return null;
+        }
+        long base = base(position);
+        return parse(new UUID(records.get(base + MSB), records.get(base + LSB)), position);
+    }
+
+    @Override
+    public long nextAccountPosition() {
+        return recordCount;
+    }
+
+    @Override
+    public LedgerPage selectLedger(UUID id, long beforeSeq, long fromMillis, long toMillis, int limit) {
+        throw new UnsupportedOperationException("Account ledgers are not supported by the off heap account store.");
+    }
+
+    @Override
+    public void insertTransferResult(UUID uuid, TransferResponse transferResponse) {
+        responses.put(uuid, transferResponse);
+    }
+
+    @Override
+    public long contendedLocks() {
+        return contendedLocks.sum();
+    }
+
+    @Override
+    public TransferResponse selectTransferResultById(UUID transactionId) {
+        return responses.get(transactionId);
+    }
+
+    @Override
+    public boolean isTransferResultExpired(UUID transactionId) {
+        return responses.isExpired(transactionId);
+    }
+
+    @Override
+    public TransferResponse makeTransfer(UUID idFrom, UUID idTo, long amount) {
+        DB_CODE result;
+        try {
+            long from = index.get(idFrom.getMostSignificantBits(), idFrom.getLeastSignificantBits());
+            long to = index.get(idTo.getMostSignificantBits(), idTo.getLeastSignificantBits());
+            if (from < 0) {
+                result = DB_CODE.FROM_ACCOUNT_NOT_FOUND;
+            } else if (to < 0) {
+                result = DB_CODE.TO_ACCOUNT_NOT_FOUND;
+            } else {
+                result = transfer(from, to, amount);
+            }
+        } catch (Exception ex) {
+            result = DB_CODE.INTERNAL_ERROR;
+        }
+        return result.toResponse(idFrom, idTo, amount);
+    }
+
+    @Override
+    public List<TransferResponse> makeAtomicTransfer(UUID batchId, List<Transfer> transfers) {
+        DB_CODE[] results = new DB_CODE[transfers.size()];
+        Arrays.fill(results, DB_CODE.SUCCESS);
+        try {
+            atomicTransfer(transfers, results);
+        } catch (Exception ex) {
+            Arrays.fill(results, DB_CODE.INTERNAL_ERROR);
+        }
+        List<TransferResponse> responses = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            responses.add(results[i].toResponse(transfer.getIdFrom(), transfer.getIdTo(), transfer.getAmount()));
+        }
+        return responses;
+    }
+
+    @Override
+    public DB_CODE withdraw(UUID id, UUID counterparty, long amount) {
+        long record = index.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        DB_CODE result = record < 0 ? DB_CODE.ACCOUNT_NOT_FOUND : change(record, -amount);
+        return DB_CODE.ACCOUNT_NOT_FOUND.equals(result) ? DB_CODE.FROM_ACCOUNT_NOT_FOUND : result;
+    }
+
+    @Override
+    public DB_CODE deposit(UUID id, UUID counterparty, long amount) {
+        long record = index.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        DB_CODE result = record < 0 ? DB_CODE.ACCOUNT_NOT_FOUND : change(record, amount);
+        return DB_CODE.ACCOUNT_NOT_FOUND.equals(result) ? DB_CODE.TO_ACCOUNT_NOT_FOUND : result;
+    }
+
+    //off-heap bytes taken by records, the index and names
+    public long allocatedBytes() {
+        return records.allocatedBytes() + index.allocatedBytes() + names.allocatedBytes();
+    }
+
+    private DB_CODE transfer(long from, long to, long amount) {
+        //stripes are always locked in their order, so A->B and B->A transfers can't deadlock
+        int first = Math.min(stripe(from), stripe(to));
+        int second = Math.max(stripe(from), stripe(to));
+        DB_CODE result;
+        acquire(locks[first]);
+        if (second != first) {
+            acquire(locks[second]);
+        }
+        try {
+            //account could be deleted while we were waiting for its lock
+            if (isClosed(from)) {
+                return DB_CODE.FROM_ACCOUNT_NOT_FOUND;
+            } else if (isClosed(to)) {
+                return DB_CODE.TO_ACCOUNT_NOT_FOUND;
+            }
+            result = change(from, -amount);
+            if (DB_CODE.SUCCESS.equals(result)) {
+                result = change(to, amount);
+                if (!DB_CODE.SUCCESS.equals(result)) {
+                    //rollback
+                    change(from, amount);
+                }
+            }
+        } finally {
+            if (second != first) {
+                locks[second].unlock();
+            }
+            locks[first].unlock();
+        }
+        return result;
+    }
+
+    private void atomicTransfer(List<Transfer> transfers, DB_CODE[] results) {
+        long[] from = new long[transfers.size()];
+        long[] to = new long[transfers.size()];
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            from[i] = index.get(transfer.getIdFrom().getMostSignificantBits(), transfer.getIdFrom().getLeastSignificantBits());
+            to[i] = index.get(transfer.getIdTo().getMostSignificantBits(), transfer.getIdTo().getLeastSignificantBits());
+            if (from[i] < 0) {
+                abort(results, i, DB_CODE.FROM_ACCOUNT_NOT_FOUND);
+                return;
+            } else if (to[i] < 0) {
+                abort(results, i, DB_CODE.TO_ACCOUNT_NOT_FOUND);
+                return;
+            }
+        }
+        //sorted, so stripes are locked in the same order as two account transfers lock them
+        int[] stripes = new int[transfers.size() * 2];
+        for (int i = 0; i < transfers.size(); i++) {
+            stripes[2 * i] = stripe(from[i]);
+            stripes[2 * i + 1] = stripe(to[i]);
+        }
+        stripes = Arrays.stream(stripes).distinct().sorted().toArray();
+        int locked = 0;
+        try {
+            for (int stripe : stripes) {
+                acquire(locks[stripe]);
+                locked++;
+            }
+            applyAtomic(from, to, transfers, results);
+        } finally {
+            for (int i = 0; i < locked; i++) {
+                locks[stripes[i]].unlock();
+            }
+        }
+    }
+
+    //runs the transfers one by one on copies of the balances, then applies only the net change of every account
+    private void applyAtomic(long[] from, long[] to, List<Transfer> transfers, DB_CODE[] results) {
+        Map<Long, Long> initial = new HashMap<>();
+        Map<Long, Long> balances = new HashMap<>();
+        Map<Long, Integer> firstDebit = new HashMap<>();
+        for (int i = 0; i < transfers.size(); i++) {
+            //account could be deleted while we were waiting for its lock
+            if (isClosed(from[i])) {
+                abort(results, i, DB_CODE.FROM_ACCOUNT_NOT_FOUND);
+                return;
+            } else if (isClosed(to[i])) {
+                abort(results, i, DB_CODE.TO_ACCOUNT_NOT_FOUND);
+                return;
+            }
+            firstDebit.putIfAbsent(from[i], i);
+            long amount = transfers.get(i).getAmount();
+            DB_CODE result = simulate(balances, initial, from[i], -amount);
+            if (DB_CODE.SUCCESS.equals(result)) {
+                result = simulate(balances, initial, to[i], amount);
+            }
+            if (!DB_CODE.SUCCESS.equals(result)) {
+                abort(results, i, result);
+                return;
+            }
+        }
+
+        Map<Long, Long> applied = new HashMap<>();
+        //debits go first, so a rollback only has to give money back
+        for (boolean debits : new boolean[]{true, false}) {
+            for (Map.Entry<Long, Long> balance : balances.entrySet()) {
+                long record = balance.getKey();
+                long change = balance.getValue() - initial.get(record);
+                if (change == 0 || change < 0 != debits) {
+                    continue;
+                }
+                //can only fail if a lock free withdraw of the sharded processor got in between
+                DB_CODE result = change(record, change);
+                if (!DB_CODE.SUCCESS.equals(result)) {
+                    applied.forEach((done, amount) -> change(done, -amount));
+                    abort(results, firstDebit.getOrDefault(record, 0), result);
+                    return;
+                }
+                applied.put(record, change);
+            }
+        }
+    }
+
+    private DB_CODE simulate(Map<Long, Long> balances, Map<Long, Long> initial, long record, long amount) {
+        long current = balances.computeIfAbsent(record, key -> {
+            long balance = records.getVolatile(base(key) + BALANCE);
+            initial.put(key, balance);
+            return balance;
+        });
+        long newValue = current + amount;
+        if (((current ^ newValue) & (amount ^ newValue)) < 0) {
+            return DB_CODE.BALANCE_OVERFLOW;
+        } else if (newValue < 0) {
+            return DB_CODE.BALANCE_NOT_ENOUGH;
+        }
+        balances.put(record, newValue);
+        return DB_CODE.SUCCESS;
+    }
+
+    private static void abort(DB_CODE[] results, int failed, DB_CODE result) {
+        Arrays.fill(results, DB_CODE.BATCH_ABORTED);
+        results[failed] = result;
+    }
+
+    //lock free, so a shard owning the account can update it without taking the lock
+    private DB_CODE change(long record, long amount) {
+        long balance = base(record) + BALANCE;
+        while (true) {
+            long current = records.getVolatile(balance);
+            if (current == CLOSED) {
+                return DB_CODE.ACCOUNT_NOT_FOUND;
+            }
+            long newValue = current + amount;
+            if (((current ^ newValue) & (amount ^ newValue)) < 0) {
+                return DB_CODE.BALANCE_OVERFLOW;
+            } else if (newValue < 0) {
+                return DB_CODE.BALANCE_NOT_ENOUGH;
+            } else if (records.compareAndSet(balance, current, newValue)) {
+                return DB_CODE.SUCCESS;
+            }
+        }
+    }
+
+    private boolean isClosed(long record) {
+        return records.getVolatile(base(record) + BALANCE) == CLOSED;
+    }
+
+    private AccountModel parse(UUID id, long record) {
+        long base = base(record);
+        long balance = records.getVolatile(base + BALANCE);
+        if (balance == CLOSED) {
+            return null;
+        }
+        return AccountModel.builder()
+                .id(id)
+                .firstName(names.get(records.getVolatile(base + FIRST_NAME)))
+                .lastName(names.get(records.getVolatile(base + LAST_NAME)))
+                .balance(toBigDecimal(balance))
+                .build();
+    }
+
+    //counts the acquisitions which had to wait
+    private void acquire(ReentrantLock lock) {
+        if (!lock.tryLock()) {
+            contendedLocks.increment();
+            lock.lock();
+        }
+    }
+
+    private ReentrantLock lock(long record) {
+        return locks[stripe(record)];
+    }
+
+    private static int stripe(long record) {
+        return (int) (record & (LOCK_STRIPES - 1));
+    }
+
+    private static long base(long record) {
+        return record * RECORD_LONGS;
+    }
+}
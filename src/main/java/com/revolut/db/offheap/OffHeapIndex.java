@@ -0,0 +1,82 @@
+package com.revolut.db.offheap;
+
+/**
+ * Open addressing hash index from a UUID, kept as its two longs, to a record number, with linear probing over
+ * slots of three longs in a {@link LongArray}. Lookups take no lock: the record number of a slot is written last
+ * and read first, with volatile access, so a reader which sees it sees the key too. Writers have to be serialized
+ * by the caller. A removed key leaves a tombstone, which a later insert can take over.
+ */
+final class OffHeapIndex {
+    private static final int MSB = 0;
+    private static final int LSB = 1;
+    private static final int VALUE = 2;
+    private static final int SLOT_LONGS = 3;
+    //values are record numbers plus one, so a zeroed slot is an empty one
+    private static final long EMPTY = 0l;
+    private static final long TOMBSTONE = -1l;
+    private static final int SEGMENT_BITS = 27;
+
+    private final long mask;
+    private final LongArray slots;
+
+    //room for the given number of keys at a load factor of at most 3/4, with always one empty slot to end probing
+    OffHeapIndex(long capacity) {
+        long size = Long.highestOneBit(capacity + capacity / 3) << 1;
+        this.mask = size - 1;
+        this.slots = new LongArray(size * SLOT_LONGS, SEGMENT_BITS, false);
+    }
+
+    //record number of the key, -1 if there is none
+    long get(long msb, long lsb) {
+        for (long slot = slot(msb, lsb); ; slot = (slot + 1) & mask) {
+            long base = slot * SLOT_LONGS;
+            long value = slots.getVolatile(base + VALUE);
+            if (value == EMPTY) {
+                return -1;
+            } else if (value != TOMBSTONE && slots.get(base + MSB) == msb && slots.get(base + LSB) == lsb) {
+                return value - 1;
+            }
+        }
+    }
+
+    //the key must not be in the index yet
+    void put(long msb, long lsb, long record) {
+        for (long slot = slot(msb, lsb); ; slot = (slot + 1) & mask) {
+            long base = slot * SLOT_LONGS;
+            long value = slots.get(base + VALUE);
+            if (value == EMPTY || value == TOMBSTONE) {
+                slots.set(base + MSB, msb);
+                slots.set(base + LSB, lsb);
+                slots.setVolatile(base + VALUE, record + 1);
+                return;
+            }
+        }
+    }
+
+    //removes the key if it still points at the record
+    boolean remove(long msb, long lsb, long record) {
+        for (long slot = slot(msb, lsb); ; slot = (slot + 1) & mask) {
+            long base = slot * SLOT_LONGS;
+            long value = slots.get(base + VALUE);
+            if (value == EMPTY) {
+                return false;
+            } else if (value == record + 1 && slots.get(base + MSB) == msb && slots.get(base + LSB) == lsb) {
+                slots.setVolatile(base + VALUE, TOMBSTONE);
+                return true;
+            }
+        }
+    }
+
+    long allocatedBytes() {
+        return slots.allocatedBytes();
+    }
+
+    private long slot(long msb, long lsb) {
+        //random UUIDs are random enough already, the mix is there for ids made some other way
+        long hash = msb * 0x9E3779B97F4A7C15l ^ lsb;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDl;
+        hash ^= hash >>> 33;
+        return hash & mask;
+    }
+}
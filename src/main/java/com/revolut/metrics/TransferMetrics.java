@@ -0,0 +1,119 @@
+package com.revolut.metrics;
+
+import com.revolut.db.DB_CODE;
+import com.revolut.transfer.RejectReason;
+import lombok.AllArgsConstructor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Transfer metrics: how long transfers wait in the queue, how long they execute and how long they take end to
+ * end, how many finished with every {@link DB_CODE} and how many were rejected by admission control, plus
+ * gauges sampled on scrape. Recording is lock-free and allocation-free, {@link #scrape()} renders everything
+ * in the Prometheus text format.
+ */
+public class TransferMetrics {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+    private static final DB_CODE[] CODES = DB_CODE.values();
+    private static final RejectReason[] REJECT_REASONS = RejectReason.values();
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+    private final AtomicLongArray results = new AtomicLongArray(CODES.length);
+    private final AtomicLongArray rejections = new AtomicLongArray(REJECT_REASONS.length);
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    /**
+     * Records a finished transfer, all times are {@link System#nanoTime()} readings.
+     */
+    public void recordTransfer(long queuedAt, long startedAt, long completedAt, DB_CODE result) {
+        queueWait.record(startedAt - queuedAt);
+        execution.record(completedAt - startedAt);
+        endToEnd.record(completedAt - queuedAt);
+        results.incrementAndGet(result.ordinal());
+    }
+
+    public void recordRejection(RejectReason reason) {
+        rejections.incrementAndGet(reason.ordinal());
+    }
+
+    public void gauge(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    public long results(DB_CODE code) {
+        return results.get(code.ordinal());
+    }
+
+    public long rejections(RejectReason reason) {
+        return rejections.get(reason.ordinal());
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getExecution() {
+        return execution;
+    }
+
+    public LatencyHistogram getEndToEnd() {
+        return endToEnd;
+    }
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder(2048);
+        summary(out, "transfer_queue_wait_seconds", "Time from queueing a transfer to the start of its execution.", queueWait);
+        summary(out, "transfer_execution_seconds", "Time a transfer spends executing against the db.", execution);
+        summary(out, "transfer_end_to_end_seconds", "Time from queueing a transfer to its result.", endToEnd);
+
+        header(out, "transfer_results_total", "Finished transfers by result code.", "counter");
+        for (DB_CODE code : CODES) {
+            out.append("transfer_results_total{code=\"").append(code.name()).append("\"} ")
+                    .append(results.get(code.ordinal())).append('\n');
+        }
+        header(out, "transfer_rejected_total", "Transfers turned away by admission control by reason.", "counter");
+        for (RejectReason reason : REJECT_REASONS) {
+            out.append("transfer_rejected_total{reason=\"").append(reason.name()).append("\"} ")
+                    .append(rejections.get(reason.ordinal())).append('\n');
+        }
+        for (Gauge gauge : gauges) {
+            header(out, gauge.name, gauge.help, "gauge");
+            out.append(gauge.name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        header(out, name, help, "summary");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(snapshot.valueAt(quantile))).append('\n');
+        }
+        out.append(name).append("_sum ").append(seconds(histogram.sum())).append('\n');
+        out.append(name).append("_count ").append(snapshot.count()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    @AllArgsConstructor
+    private static class Gauge {
+        private final String name;
+        private final String help;
+        private final LongSupplier value;
+    }
+}
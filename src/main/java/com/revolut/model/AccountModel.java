@@ -1,5 +1,6 @@
 package com.revolut.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -17,4 +18,7 @@ public class AccountModel {
     private String firstName;
     private String lastName;
     private BigDecimal balance;
+    //opaque, changed by every change of the account, null if the store doesn't version accounts; sent as ETag
+    @JsonIgnore
+    private String version;
 }
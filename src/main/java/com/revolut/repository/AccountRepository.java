@@ -1,13 +1,23 @@
 package com.revolut.repository;
 
+import com.revolut.client.AccountPage;
 import com.revolut.client.AppException;
+import com.revolut.client.LedgerPage;
 import com.revolut.model.AccountModel;
 
+import java.util.Iterator;
 import java.util.UUID;
 
 public interface AccountRepository {
     AccountModel getById(UUID fromString) throws AppException;
+    //null if there is no such account or accounts are not versioned
+    String getVersion(UUID id);
     AccountModel updateById(AccountModel accountModel);
     AccountModel create(AccountModel accountModel) throws AppException;
     AccountModel deleteById(UUID fromString) throws AppException;
+    //accounts in insertion order, from the start or from an opaque cursor of a previous page
+    AccountPage list(String cursor, int limit) throws AppException;
+    //every account from the cursor to the last one inserted before the call, weakly consistent
+    Iterator<AccountModel> iterate(String cursor) throws AppException;
+    LedgerPage getLedger(UUID id, long beforeSeq, long fromMillis, long toMillis, int limit) throws AppException;
 }
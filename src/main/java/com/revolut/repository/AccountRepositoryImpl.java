@@ -1,16 +1,27 @@
 package com.revolut.repository;
 
+import com.revolut.client.AccountPage;
 import com.revolut.client.AppException;
+import com.revolut.client.LedgerPage;
 import com.revolut.db.AppDb;
 import com.revolut.model.AccountModel;
 import lombok.AllArgsConstructor;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.UUID;
 
 import static java.util.Optional.ofNullable;
 
 @AllArgsConstructor
 public class AccountRepositoryImpl implements AccountRepository {
+    //positions of deleted accounts are skipped, a page ends after this many of them even if it isn't full
+    private static final int MAX_PAGE_SCAN = 10_000;
 
     private AppDb accountDb;
 
@@ -20,6 +31,11 @@ public class AccountRepositoryImpl implements AccountRepository {
                 .orElseThrow(() -> new AppException("Account not found.", 404));
     }
 
+    @Override
+    public String getVersion(UUID id) {
+        return accountDb.selectAccountVersion(id);
+    }
+
     @Override
     public AccountModel updateById(AccountModel accountModel) {
         return accountDb.updateAccountById(accountModel);
@@ -42,4 +58,86 @@ public class AccountRepositoryImpl implements AccountRepository {
             throw new AppException("Account does not exist.", 404);
         }
     }
+
+    @Override
+    public AccountPage list(String cursor, int limit) throws AppException {
+        long position = position(cursor);
+        long end = accountDb.nextAccountPosition();
+        long scanEnd = Math.min(end, position + Math.max(limit, MAX_PAGE_SCAN));
+        List<AccountModel> accounts = new ArrayList<>((int) Math.min(limit, Math.max(end - position, 0)));
+        for (; position < scanEnd && accounts.size() < limit; position++) {
+            AccountModel account = accountDb.selectAccountAt(position);
+            if (Objects.nonNull(account)) {
+                accounts.add(account);
+            }
+        }
+        return AccountPage.builder()
+                .accounts(accounts)
+                .nextCursor(position < end ? cursor(position) : null)
+                .build();
+    }
+
+    @Override
+    public Iterator<AccountModel> iterate(String cursor) throws AppException {
+        long start = position(cursor);
+        long end = accountDb.nextAccountPosition();
+        return new Iterator<AccountModel>() {
+            private long position = start;
+            private AccountModel next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return Objects.nonNull(next);
+            }
+
+            @Override
+            public AccountModel next() {
+                if (Objects.isNull(next)) {
+                    throw new NoSuchElementException();
+                }
+                AccountModel current = next;
+                next = advance();
+                return current;
+            }
+
+            private AccountModel advance() {
+                while (position < end) {
+                    AccountModel account = accountDb.selectAccountAt(position++);
+                    if (Objects.nonNull(account)) {
+                        return account;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public LedgerPage getLedger(UUID id, long beforeSeq, long fromMillis, long toMillis, int limit) throws AppException {
+        return ofNullable(accountDb.selectLedger(id, beforeSeq, fromMillis, toMillis, limit))
+                .orElseThrow(() -> new AppException("Account not found.", 404));
+    }
+
+    //cursors are base64 of the position, so clients don't build them
+    private static String cursor(long position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(position).array());
+    }
+
+    private static long position(String cursor) throws AppException {
+        if (Objects.isNull(cursor)) {
+            return 0;
+        }
+        try {
+            byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+            if (bytes.length == Long.BYTES) {
+                long position = ByteBuffer.wrap(bytes).getLong();
+                if (position >= 0) {
+                    return position;
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            //reported below
+        }
+        throw new AppException("Cursor is not valid.", 400);
+    }
 }
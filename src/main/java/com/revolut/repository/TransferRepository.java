@@ -1,9 +1,10 @@
 package com.revolut.repository;
 
+import com.revolut.client.AppException;
 import com.revolut.client.TransferResponse;
 
 import java.util.UUID;
 
 public interface TransferRepository {
-    TransferResponse getTransferResultById(UUID transactionId);
+    TransferResponse getTransferResultById(UUID transactionId) throws AppException;
 }
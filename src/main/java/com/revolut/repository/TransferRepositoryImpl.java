@@ -1,9 +1,11 @@
 package com.revolut.repository;
 
+import com.revolut.client.AppException;
 import com.revolut.client.TransferResponse;
 import com.revolut.db.AppDb;
 import lombok.AllArgsConstructor;
 
+import java.util.Objects;
 import java.util.UUID;
 
 @AllArgsConstructor
@@ -12,7 +14,13 @@ public class TransferRepositoryImpl implements TransferRepository {
     private AppDb db;
 
     @Override
-    public TransferResponse getTransferResultById(UUID transactionId) {
-        return db.selectTransferResultById(transactionId);
+    public TransferResponse getTransferResultById(UUID transactionId) throws AppException {
+        TransferResponse response = db.selectTransferResultById(transactionId);
+        if (Objects.nonNull(response)) {
+            return response;
+        } else if (db.isTransferResultExpired(transactionId)) {
+            throw new AppException("Transfer result expired.", 410);
+        }
+        throw new AppException("Transfer result not found.", 404);
     }
 }
@@ -0,0 +1,106 @@
+package com.revolut.transaction;
+
+import com.revolut.metrics.LatencyHistogram;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Thread pool which resizes itself every second from what the last second looked like. It grows by a quarter while
+ * transfers wait in the queue longer than {@link #QUEUE_WAIT_TARGET_NANOS} on average, and shrinks by one thread
+ * when more threads stop helping: when transfers keep waiting for account locks, so the threads mostly queue up on
+ * the same hot accounts, or when transfers hardly wait while some threads sit idle.
+ */
+public class AdaptiveExecutor extends ThreadPoolExecutor {
+    //the pool grows up to this many times the threads it starts with
+    static final int MAX_GROWTH = 4;
+
+    private static final long TUNE_INTERVAL_MILLIS = 1000l;
+    private static final long QUEUE_WAIT_TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    //contended lock acquisitions per transfer, a transfer takes two locks
+    private static final double CONTENTION_LIMIT = 0.2;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final LatencyHistogram queueWait;
+    private final LongSupplier contendedLocks;
+    private final ScheduledExecutorService tuner;
+    //readings at the previous tune
+    private long transfers;
+    private long waited;
+    private long contended;
+
+    public AdaptiveExecutor(int threads, int minThreads, int maxThreads, ThreadFactory threadFactory,
+                            LatencyHistogram queueWait, LongSupplier contendedLocks) {
+        super(threads, threads, 0l, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        if (minThreads < 1 || threads < minThreads || maxThreads < threads) {
+            throw new IllegalArgumentException("Thread counts must be positive, with min <= threads <= max.");
+        }
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.queueWait = queueWait;
+        this.contendedLocks = contendedLocks;
+        this.transfers = queueWait.snapshot().count();
+        this.waited = queueWait.sum();
+        this.contended = contendedLocks.getAsLong();
+        tuner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-pool-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tuner.scheduleWithFixedDelay(this::tune, TUNE_INTERVAL_MILLIS, TUNE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resizes the pool from the transfers finished since the previous call.
+     *
+     * @return the new size of the pool
+     */
+    public synchronized int tune() {
+        long nowTransfers = queueWait.snapshot().count();
+        long nowWaited = queueWait.sum();
+        long nowContended = contendedLocks.getAsLong();
+        long count = nowTransfers - transfers;
+        long meanWait = count == 0 ? 0 : (nowWaited - waited) / count;
+        double contention = count == 0 ? 0 : (double) (nowContended - contended) / count;
+        transfers = nowTransfers;
+        waited = nowWaited;
+        contended = nowContended;
+
+        int size = getMaximumPoolSize();
+        if (count == 0) {
+            return size;
+        } else if (contention > CONTENTION_LIMIT) {
+            return resize(size - 1);
+        } else if (meanWait > QUEUE_WAIT_TARGET_NANOS) {
+            return resize(size + Math.max(1, size / 4));
+        } else if (meanWait < QUEUE_WAIT_TARGET_NANOS / 4 && getActiveCount() < size) {
+            return resize(size - 1);
+        }
+        return size;
+    }
+
+    @Override
+    protected void terminated() {
+        tuner.shutdown();
+        super.terminated();
+    }
+
+    private int resize(int threads) {
+        int size = Math.max(minThreads, Math.min(maxThreads, threads));
+        //core size can't go above the max one
+        if (size > getMaximumPoolSize()) {
+            setMaximumPoolSize(size);
+            setCorePoolSize(size);
+        } else {
+            setCorePoolSize(size);
+            setMaximumPoolSize(size);
+        }
+        return size;
+    }
+}
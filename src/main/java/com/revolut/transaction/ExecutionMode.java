@@ -0,0 +1,8 @@
+package com.revolut.transaction;
+
+public enum ExecutionMode {
+    //shared worker pool, accounts are protected by their locks
+    POOLED,
+    //every account is owned by a single shard thread, see ShardedTransactionProcessor
+    SHARDED
+}
@@ -0,0 +1,231 @@
+package com.revolut.transaction;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.db.AppDb;
+import com.revolut.db.DB_CODE;
+import com.revolut.transfer.BatchMode;
+import com.revolut.transfer.TransferRequest;
+import com.revolut.transfer.TransferService;
+import lombok.AllArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static java.util.UUID.fromString;
+
+/**
+ * Alternative to {@link TransactionProcessor} where accounts are partitioned across shards by id hash and every
+ * shard has a single owner thread, so balances are changed without taking any account lock, unless the db keeps
+ * account ledgers or a journal: their entries are appended under the lock, uncontended as it is.
+ * <p>
+ * A transfer is routed to the shard of the debited account. When both accounts live in the same shard it is
+ * executed right away, otherwise the owner debits the sender and sends a credit message to the shard of the
+ * receiver. If the credit fails the receiver shard sends a refund message back with the reason, and the sender
+ * shard returns the money and reports the failure. While a cross shard transfer is in flight its amount is on
+ * neither account.
+ * <p>
+ * {@link #shutdown} lets the queue drain and waits until every dispatched transfer is done, refunds included,
+ * before the shards stop.
+ */
+public class ShardedTransactionProcessor implements Runnable {
+
+    private static final long POLL_TIME_OUT = 1000l;
+
+    private AppDb db;
+    private TransferService transferService;
+    private final List<BlockingQueue<Message>> shards = new ArrayList<>();
+    private final ExecutorService owners;
+    //transfers sent to the shards and not completed yet
+    private final AtomicInteger pending = new AtomicInteger();
+    //counted down once nothing is dispatched anymore and nothing is pending
+    private final CountDownLatch idle = new CountDownLatch(1);
+    private volatile boolean draining;
+    private volatile boolean dispatched;
+
+    public ShardedTransactionProcessor(AppDb db, TransferService transferService, int shardCount) {
+        this(db, transferService, shardCount, ThreadMode.PLATFORM);
+    }
+
+    public ShardedTransactionProcessor(AppDb db, TransferService transferService, int shardCount, ThreadMode threadMode) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be positive.");
+        }
+        this.db = db;
+        this.transferService = transferService;
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new LinkedBlockingQueue<>());
+        }
+        this.owners = threadMode.newExecutor("shard-", shardCount);
+    }
+
+    @Override
+    public void run() {
+        shards.forEach(queue -> owners.execute(() -> runShard(queue)));
+
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean drain = draining;
+                TransferRequest t = drain
+                        ? transferService.getNextRequest()
+                        : transferService.awaitNextRequest(POLL_TIME_OUT, TimeUnit.MILLISECONDS);
+                if (Objects.nonNull(t)) {
+                    dispatch(t);
+                } else if (drain) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dispatched = true;
+            if (pending.get() == 0) {
+                idle.countDown();
+            }
+            //interrupted rather than shut down, the shards stop right away
+            if (Thread.currentThread().isInterrupted()) {
+                owners.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Keeps taking transfers until the queue is empty, then waits for the shards to finish the taken ones and
+     * stops them. Requests queued after that stay in the queue, so callers should stop queueing first.
+     *
+     * @return false if the timeout passed before every taken transfer was done
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        draining = true;
+        try {
+            return idle.await(timeout, unit);
+        } finally {
+            owners.shutdownNow();
+        }
+    }
+
+    private void dispatch(TransferRequest t) {
+        if (Objects.nonNull(t.getItems())) {
+            dispatchBatch(t);
+            return;
+        }
+        UUID idFrom;
+        UUID idTo;
+        try {
+            idFrom = fromString(t.getAccountIdFrom());
+            idTo = fromString(t.getAccountIdTo());
+        } catch (IllegalArgumentException ex) {
+            complete(t, DB_CODE.INTERNAL_ERROR.toResponse(t.getAccountIdFrom(), t.getAccountIdTo(), t.getAmount()));
+            return;
+        }
+        pending.incrementAndGet();
+        shardOf(idFrom).add(new Message(Step.TRANSFER, t, idFrom, idTo, null));
+    }
+
+    private void dispatchBatch(TransferRequest batch) {
+        List<TransferRequest> items = batch.getItems();
+        if (!BatchMode.ATOMIC.equals(batch.getMode())) {
+            items.forEach(this::dispatch);
+            return;
+        }
+        //an atomic batch spans many shards, so it runs right here under account locks; balances are still
+        //changed by CAS, so concurrent lock free shard updates can't get lost
+        items.forEach(TransferRequest::start);
+        List<TransferResponse> responses = db.makeAtomicTransfer(batch.getUuid(),
+                items.stream().map(TransferRequest::toTransfer).collect(Collectors.toList()));
+        for (int i = 0; i < items.size(); i++) {
+            complete(items.get(i), responses.get(i));
+        }
+    }
+
+    private void runShard(BlockingQueue<Message> queue) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Message message = queue.take();
+                try {
+                    handle(queue, message);
+                } catch (Exception ex) {
+                    complete(message, DB_CODE.INTERNAL_ERROR);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handle(BlockingQueue<Message> owner, Message message) {
+        TransferRequest t = message.request;
+        switch (message.step) {
+            case TRANSFER:
+                t.start();
+                DB_CODE result = db.withdraw(message.idFrom, message.idTo, t.getAmount());
+                if (!DB_CODE.SUCCESS.equals(result)) {
+                    complete(message, result);
+                } else if (shardOf(message.idTo) == owner) {
+                    credit(message);
+                } else {
+                    shardOf(message.idTo).add(message.next(Step.CREDIT, null));
+                }
+                break;
+            case CREDIT:
+                credit(message);
+                break;
+            case REFUND:
+                DB_CODE refund = db.deposit(message.idFrom, message.idTo, t.getAmount());
+                complete(message, DB_CODE.SUCCESS.equals(refund) ? message.result : DB_CODE.INTERNAL_ERROR);
+                break;
+        }
+    }
+
+    private void credit(Message message) {
+        DB_CODE result = db.deposit(message.idTo, message.idFrom, message.request.getAmount());
+        if (DB_CODE.SUCCESS.equals(result)) {
+            complete(message, result);
+        } else {
+            shardOf(message.idFrom).add(message.next(Step.REFUND, result));
+        }
+    }
+
+    private void complete(Message message, DB_CODE result) {
+        complete(message.request, result.toResponse(message.idFrom, message.idTo, message.request.getAmount()));
+        if (pending.decrementAndGet() == 0 && dispatched) {
+            idle.countDown();
+        }
+    }
+
+    private void complete(TransferRequest t, TransferResponse response) {
+        response.setTransactionId(t.getUuid().toString());
+        db.insertTransferResult(t.getUuid(), response);
+        transferService.completeTransferRequest(t, response);
+    }
+
+    private BlockingQueue<Message> shardOf(UUID accountId) {
+        return shards.get(Math.floorMod(accountId.hashCode(), shards.size()));
+    }
+
+    private enum Step {
+        TRANSFER, CREDIT, REFUND
+    }
+
+    @AllArgsConstructor
+    private static class Message {
+        private final Step step;
+        private final TransferRequest request;
+        private final UUID idFrom;
+        private final UUID idTo;
+        //why the credit failed, carried by a refund
+        private final DB_CODE result;
+
+        private Message next(Step step, DB_CODE result) {
+            return new Message(step, request, idFrom, idTo, result);
+        }
+    }
+}
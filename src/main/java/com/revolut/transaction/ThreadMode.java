@@ -0,0 +1,58 @@
+package com.revolut.transaction;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kind of threads transfers and HTTP requests are handled on. VIRTUAL needs JDK 21 or newer at runtime; the
+ * virtual thread API is looked up reflectively, so the code still builds for the older target.
+ */
+public enum ThreadMode {
+    PLATFORM {
+        @Override
+        public ExecutorService newExecutor(String name, int threads) {
+            return Executors.newFixedThreadPool(threads, threadFactory(name));
+        }
+
+        @Override
+        public ThreadFactory threadFactory(String name) {
+            AtomicInteger count = new AtomicInteger();
+            return runnable -> new Thread(runnable, name + count.getAndIncrement());
+        }
+    },
+    VIRTUAL {
+        //a virtual thread per task, they are cheap enough to never be pooled
+        @Override
+        public ExecutorService newExecutor(String name, int threads) {
+            try {
+                Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory(name));
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException("Virtual threads need JDK 21 or newer.", ex);
+            }
+        }
+
+        @Override
+        public ThreadFactory threadFactory(String name) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name, 0l);
+                return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException("Virtual threads need JDK 21 or newer.", ex);
+            }
+        }
+    };
+
+    /**
+     * @param name    prefix of thread names
+     * @param threads size of the pool of platform threads, virtual threads are not limited
+     */
+    public abstract ExecutorService newExecutor(String name, int threads);
+
+    public abstract ThreadFactory threadFactory(String name);
+}
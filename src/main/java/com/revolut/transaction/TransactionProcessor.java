@@ -2,50 +2,237 @@ package com.revolut.transaction;
 
 import com.revolut.client.TransferResponse;
 import com.revolut.db.AppDb;
+import com.revolut.db.DB_CODE;
+import com.revolut.transfer.BatchMode;
+import com.revolut.transfer.TransferRequest;
 import com.revolut.transfer.TransferService;
-import lombok.AllArgsConstructor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
-import static java.util.Optional.ofNullable;
 import static java.util.UUID.fromString;
 
-@AllArgsConstructor
+/**
+ * Takes transfers off the queue of the transfer service and runs them on a pool of workers, see {@link WorkerPool}.
+ * The pool is created with the processor, so it can be sized and observed from outside, and {@link #shutdown}
+ * lets the queue drain before the workers stop.
+ * <p>
+ * With a netting window, transfers taken within the window after the first one are grouped by the pair of accounts
+ * they move money between, and every group runs as one {@link AppDb#makeNettedTransfer}, locking and updating each
+ * of its two accounts once however many transfers it has.
+ */
 public class TransactionProcessor implements Runnable {
 
-    private AppDb db;
-    private TransferService transferService;
+    private static final long POLL_TIME_OUT = 1000l;
+    private static final String WORKER_NAME = "transfer-worker-";
+    //most transfers taken into one netting window
+    private static final int MAX_NETTED = 1024;
+
+    private final AppDb db;
+    private final TransferService transferService;
+    private final ExecutorService executor;
+    //0 if transfers are not netted
+    private final long nettingWindowNanos;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean draining;
+
+    public TransactionProcessor(AppDb db, TransferService transferService) {
+        this(db, transferService, ThreadMode.PLATFORM);
+    }
+
+    public TransactionProcessor(AppDb db, TransferService transferService, ThreadMode threadMode) {
+        this(db, transferService, threadMode, WorkerPool.FIXED, Runtime.getRuntime().availableProcessors());
+    }
+
+    public TransactionProcessor(AppDb db, TransferService transferService, ThreadMode threadMode, WorkerPool pool,
+                                int workers) {
+        this(db, transferService, threadMode, pool, workers, 0);
+    }
+
+    public TransactionProcessor(AppDb db, TransferService transferService, ThreadMode threadMode, WorkerPool pool,
+                                int workers, long nettingWindowMicros) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Worker count must be positive.");
+        } else if (nettingWindowMicros < 0) {
+            throw new IllegalArgumentException("Netting window can not be negative.");
+        }
+        this.db = db;
+        this.transferService = transferService;
+        this.nettingWindowNanos = TimeUnit.MICROSECONDS.toNanos(nettingWindowMicros);
+        //with virtual threads a transfer waiting for the journal doesn't hold back the ones queued after it,
+        //and there is no pool to size
+        this.executor = ThreadMode.VIRTUAL.equals(threadMode)
+                ? threadMode.newExecutor(WORKER_NAME, workers)
+                : pool.newExecutor(WORKER_NAME, workers, db, transferService.getMetrics());
+    }
 
     @Override
     public void run() {
-        ReentrantLock lock = new ReentrantLock();
-        ExecutorService executor = Executors.newFixedThreadPool(5);
-
-        while (true) {
-            ofNullable(transferService.getNextRequest()).ifPresentOrElse(t -> {
-                Runnable r = () -> {
-                    lock.lock();
-                    TransferResponse response = db.makeTransfer(fromString(t.getAccountIdFrom()),
-                            fromString(t.getAccountIdTo()), t.getAmount(), lock);
-                    response.setTransactionId(t.getUuid().toString());
-                    db.insertTransferResult(t.getUuid(), response);
-                    if (!t.getAsync()) {
-                        synchronized (t.getUuid()) {
-                            t.getUuid().notify();
-                        }
-                    }
-                };
-                executor.execute(r);
-            },
-            () -> {
-                try {
-                    Thread.sleep(10l);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean drain = draining;
+                //wakes up as soon as a request is queued, the timeout only bounds how long we ignore an interrupt
+                TransferRequest t = drain
+                        ? transferService.getNextRequest()
+                        : transferService.awaitNextRequest(POLL_TIME_OUT, TimeUnit.MILLISECONDS);
+                if (Objects.nonNull(t) && nettingWindowNanos > 0 && Objects.isNull(t.getItems())) {
+                    net(t);
+                } else if (Objects.nonNull(t)) {
+                    executor.execute(() -> process(t));
+                } else if (drain) {
+                    break;
                 }
-            });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Keeps taking transfers until the queue is empty, then stops and waits for the workers to finish the taken
+     * ones. Requests queued after that stay in the queue, so callers should stop queueing first.
+     *
+     * @return false if the timeout passed before every taken transfer was done
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        draining = true;
+        return stopped.await(timeout, unit)
+                && executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    //live worker threads, -1 for virtual threads which are not pooled
+    public int workers() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getPoolSize();
+        } else if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getPoolSize();
+        }
+        return -1;
+    }
+
+    //takes transfers for the window after the first one, batches are not held back
+    private void net(TransferRequest first) throws InterruptedException {
+        long deadline = System.nanoTime() + nettingWindowNanos;
+        Map<List<UUID>, List<TransferRequest>> groups = new LinkedHashMap<>();
+        group(groups, first);
+        try {
+            for (int taken = 1; taken < MAX_NETTED; ) {
+                long remaining = deadline - System.nanoTime();
+                TransferRequest t = remaining > 0
+                        ? transferService.awaitNextRequest(remaining, TimeUnit.NANOSECONDS)
+                        : null;
+                if (Objects.isNull(t)) {
+                    break;
+                } else if (Objects.nonNull(t.getItems())) {
+                    executor.execute(() -> process(t));
+                } else {
+                    group(groups, t);
+                    taken++;
+                }
+            }
+        } finally {
+            //taken transfers run even if we were interrupted meanwhile
+            for (List<TransferRequest> group : groups.values()) {
+                executor.execute(() -> {
+                    if (group.size() == 1) {
+                        process(group.get(0));
+                    } else {
+                        processNetted(group);
+                    }
+                });
+            }
         }
     }
+
+    //A->B and B->A transfers go to the same group
+    private void group(Map<List<UUID>, List<TransferRequest>> groups, TransferRequest t) {
+        UUID from;
+        UUID to;
+        try {
+            from = fromString(t.getAccountIdFrom());
+            to = fromString(t.getAccountIdTo());
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            complete(t, failed(Collections.singletonList(t)).get(0));
+            return;
+        }
+        List<UUID> pair = from.compareTo(to) <= 0 ? Arrays.asList(from, to) : Arrays.asList(to, from);
+        groups.computeIfAbsent(pair, key -> new ArrayList<>()).add(t);
+    }
+
+    private void processNetted(List<TransferRequest> group) {
+        group.forEach(TransferRequest::start);
+        List<TransferResponse> responses;
+        try {
+            responses = db.makeNettedTransfer(UUID.randomUUID(),
+                    group.stream().map(TransferRequest::toTransfer).collect(Collectors.toList()));
+        } catch (RuntimeException ex) {
+            responses = failed(group);
+        }
+        for (int i = 0; i < group.size(); i++) {
+            complete(group.get(i), responses.get(i));
+        }
+    }
+
+    private void process(TransferRequest t) {
+        if (Objects.nonNull(t.getItems())) {
+            processBatch(t);
+            return;
+        }
+        t.start();
+        TransferResponse response;
+        try {
+            response = db.makeTransfer(fromString(t.getAccountIdFrom()), fromString(t.getAccountIdTo()), t.getAmount());
+        } catch (RuntimeException ex) {
+            response = failed(Collections.singletonList(t)).get(0);
+        }
+        complete(t, response);
+    }
+
+    private void processBatch(TransferRequest batch) {
+        List<TransferRequest> items = batch.getItems();
+        if (!BatchMode.ATOMIC.equals(batch.getMode())) {
+            items.forEach(this::process);
+            return;
+        }
+        items.forEach(TransferRequest::start);
+        List<TransferResponse> responses;
+        try {
+            responses = db.makeAtomicTransfer(batch.getUuid(),
+                    items.stream().map(TransferRequest::toTransfer).collect(Collectors.toList()));
+        } catch (RuntimeException ex) {
+            responses = failed(items);
+        }
+        for (int i = 0; i < items.size(); i++) {
+            complete(items.get(i), responses.get(i));
+        }
+    }
+
+    //every taken transfer gets a result, otherwise it would hold its place in admission control for good
+    private static List<TransferResponse> failed(List<TransferRequest> requests) {
+        return requests.stream()
+                .map(t -> DB_CODE.INTERNAL_ERROR.toResponse(t.getAccountIdFrom(), t.getAccountIdTo(), t.getAmount()))
+                .collect(Collectors.toList());
+    }
+
+    private void complete(TransferRequest t, TransferResponse response) {
+        response.setTransactionId(t.getUuid().toString());
+        db.insertTransferResult(t.getUuid(), response);
+        transferService.completeTransferRequest(t, response);
+    }
 }
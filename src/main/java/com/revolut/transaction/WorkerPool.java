@@ -0,0 +1,47 @@
+package com.revolut.transaction;
+
+import com.revolut.db.AppDb;
+import com.revolut.metrics.TransferMetrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Pool of platform threads {@link TransactionProcessor} runs transfers on. FIXED keeps the given number of threads,
+ * WORK_STEALING is a {@link ForkJoinPool} of that parallelism where idle workers steal queued transfers instead of
+ * waiting on one shared queue, ADAPTIVE is an {@link AdaptiveExecutor} which starts with the given number of threads
+ * and resizes itself from the queue wait of transfers and the contention on account locks.
+ */
+public enum WorkerPool {
+    FIXED {
+        @Override
+        public ExecutorService newExecutor(String name, int threads, AppDb db, TransferMetrics metrics) {
+            return ThreadMode.PLATFORM.newExecutor(name, threads);
+        }
+    },
+    WORK_STEALING {
+        @Override
+        public ExecutorService newExecutor(String name, int threads, AppDb db, TransferMetrics metrics) {
+            //FIFO, transfers are queued from outside and never fork
+            return new ForkJoinPool(threads, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(name + thread.getPoolIndex());
+                return thread;
+            }, null, true);
+        }
+    },
+    ADAPTIVE {
+        @Override
+        public ExecutorService newExecutor(String name, int threads, AppDb db, TransferMetrics metrics) {
+            return new AdaptiveExecutor(threads, 1, threads * AdaptiveExecutor.MAX_GROWTH,
+                    ThreadMode.PLATFORM.threadFactory(name), metrics.getQueueWait(), db::contendedLocks);
+        }
+    };
+
+    /**
+     * @param name    prefix of thread names
+     * @param threads size of the pool, the one it starts with for ADAPTIVE
+     */
+    public abstract ExecutorService newExecutor(String name, int threads, AppDb db, TransferMetrics metrics);
+}
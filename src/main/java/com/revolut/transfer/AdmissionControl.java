@@ -0,0 +1,98 @@
+package com.revolut.transfer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the transfers in flight, a request is admitted while the admitted transfers which are not done yet fit
+ * into the capacity and the queue is not standing. A transfer holds its place until its result is completed, so
+ * transfers waiting for a worker or in the queue of a shard count as much as the ones in the transfer queue.
+ * <p>
+ * The queue is standing when every transfer done during the last interval has waited longer than the queue wait
+ * target before it started to execute: a spike drains within an interval, a backlog doesn't, and whatever is
+ * queued behind it would only wait longer, so requests are turned away until the queue catches up.
+ * <p>
+ * With {@link AdmissionPolicy#SHED_ASYNC} async transfers and batches get a quarter less of the capacity and
+ * half of the target, so under overload they are rejected before the sync ones.
+ */
+public class AdmissionControl {
+    public static final int DEFAULT_CAPACITY = 100_000;
+    public static final long DEFAULT_QUEUE_WAIT_TARGET_MILLIS = 1000l;
+
+    private static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AdmissionPolicy policy;
+    private final int capacity;
+    //0 turns the target off
+    private final long targetNanos;
+    //admitted and not done transfers, a batch counts with all its items
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong intervalStart = new AtomicLong(System.nanoTime());
+    private final AtomicLong intervalMinWait = new AtomicLong(Long.MAX_VALUE);
+    private volatile long standingWait;
+
+    public AdmissionControl() {
+        this(AdmissionPolicy.SHED_ASYNC, DEFAULT_CAPACITY, DEFAULT_QUEUE_WAIT_TARGET_MILLIS);
+    }
+
+    public AdmissionControl(AdmissionPolicy policy, int capacity, long queueWaitTargetMillis) {
+        this.policy = policy;
+        this.capacity = capacity;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(queueWaitTargetMillis);
+    }
+
+    /**
+     * Reserves room for the given number of transfers.
+     *
+     * @return null when they are admitted, why they are not otherwise
+     */
+    public RejectReason tryAdmit(int transfers, boolean async) {
+        boolean shed = async && AdmissionPolicy.SHED_ASYNC.equals(policy);
+        int limit = shed ? capacity - capacity / 4 : capacity;
+        long target = shed ? targetNanos / 2 : targetNanos;
+        int current;
+        do {
+            current = inFlight.get();
+            if (current + transfers > limit) {
+                return RejectReason.QUEUE_FULL;
+            }
+            //nothing in flight is never standing, whatever the last interval saw
+            if (targetNanos > 0 && current > 0 && standingWait > target) {
+                return RejectReason.QUEUE_WAIT;
+            }
+        } while (!inFlight.compareAndSet(current, current + transfers));
+        return null;
+    }
+
+    //gives back room reserved for transfers which were not queued after all
+    public void release(int transfers) {
+        inFlight.addAndGet(-transfers);
+    }
+
+    /**
+     * Called for every transfer once its result is completed, gives back its place.
+     *
+     * @param waitNanos how long the transfer waited between being queued and starting to execute
+     */
+    public void completed(long waitNanos) {
+        long now = System.nanoTime();
+        intervalMinWait.accumulateAndGet(waitNanos, Math::min);
+        long started = intervalStart.get();
+        if (now - started >= INTERVAL_NANOS && intervalStart.compareAndSet(started, now)) {
+            standingWait = intervalMinWait.getAndSet(Long.MAX_VALUE);
+        }
+        if (inFlight.decrementAndGet() == 0) {
+            standingWait = 0;
+        }
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    //how long the queue is expected to take to catch up, at least a second
+    public long retryAfterSeconds() {
+        return Math.max(1l, (standingWait + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,11 @@
+package com.revolut.transfer;
+
+/**
+ * How an overloaded transfer queue turns requests away, see {@link AdmissionControl}.
+ * REJECT treats every request the same, SHED_ASYNC starts rejecting async transfers and batches earlier,
+ * so sync callers, who are waiting for the result, are the last to be refused.
+ */
+public enum AdmissionPolicy {
+    REJECT,
+    SHED_ASYNC
+}
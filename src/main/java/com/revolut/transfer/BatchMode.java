@@ -0,0 +1,8 @@
+package com.revolut.transfer;
+
+public enum BatchMode {
+    //every transfer of the batch succeeds or fails on its own
+    INDEPENDENT,
+    //either all transfers of the batch succeed or none of them changes any balance
+    ATOMIC
+}
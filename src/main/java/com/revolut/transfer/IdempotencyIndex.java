@@ -0,0 +1,111 @@
+package com.revolut.transfer;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Idempotency keys of transfers mapped to the transaction they started, kept for a time window and up to a
+ * limited count. Keys are evicted in insertion order, which is also their expiry order, by whichever writer wins
+ * a try-lock, the same way {@link com.revolut.db.TransferResultStore} evicts results.
+ */
+public class IdempotencyIndex {
+    public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final int DEFAULT_MAX_SIZE = 1_000_000;
+
+    private final long windowMillis;
+    private final int maxSize;
+
+    private final Map<String, Entry> keys = new ConcurrentHashMap<>();
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public IdempotencyIndex() {
+        this(DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_SIZE);
+    }
+
+    public IdempotencyIndex(long windowMillis, int maxSize) {
+        if (windowMillis <= 0 || maxSize <= 0) {
+            throw new IllegalArgumentException("Window and max size must be positive.");
+        }
+        this.windowMillis = windowMillis;
+        this.maxSize = maxSize;
+    }
+
+    //entry of the key, null if the key is unknown or its window is over
+    public Entry get(String key) {
+        Entry entry = keys.get(key);
+        return Objects.nonNull(entry) && entry.expiresAt > System.currentTimeMillis() ? entry : null;
+    }
+
+    /**
+     * Binds the key to the transaction unless a live entry has it already.
+     *
+     * @return the entry which holds the key, the new one or the one which got there first
+     */
+    public Entry putIfAbsent(String key, UUID transactionId, String fingerprint) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(key, transactionId, fingerprint, now + windowMillis);
+        Entry existing;
+        while (Objects.nonNull(existing = keys.putIfAbsent(key, entry))) {
+            if (existing.expiresAt > now) {
+                return existing;
+            }
+            //an expired entry not evicted yet, the key is free again
+            if (keys.replace(key, existing, entry)) {
+                order.add(entry);
+                return entry;
+            }
+        }
+        size.incrementAndGet();
+        order.add(entry);
+        evict(now);
+        return entry;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private void evict(long now) {
+        Entry head = order.peek();
+        if (size.get() <= maxSize && (Objects.isNull(head) || head.expiresAt > now)) {
+            return;
+        }
+        //another writer is already evicting, no need to wait for it
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            while (Objects.nonNull(head = order.peek()) && (size.get() > maxSize || head.expiresAt <= now)) {
+                order.poll();
+                //a replaced entry is just dropped from the queue
+                if (keys.remove(head.key, head)) {
+                    size.decrementAndGet();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final String key;
+        private final UUID transactionId;
+        //what the transfer was, a key sent again with another transfer is an error
+        private final String fingerprint;
+        private final long expiresAt;
+    }
+}
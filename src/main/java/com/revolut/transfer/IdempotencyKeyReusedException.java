@@ -0,0 +1,11 @@
+package com.revolut.transfer;
+
+/**
+ * Thrown when an idempotency key comes again with another transfer than the one it was first used for.
+ */
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException() {
+        super("Idempotency key was already used for another transfer.");
+    }
+}
@@ -0,0 +1,16 @@
+package com.revolut.transfer;
+
+public enum RejectReason {
+    QUEUE_FULL("Too many transfers are queued, retry later."),
+    QUEUE_WAIT("Transfers wait in the queue for too long, retry later.");
+
+    private String message;
+
+    RejectReason(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,40 @@
+package com.revolut.transfer;
+
+import com.revolut.client.TransferResponse;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pending results of synchronous transfers keyed by transaction id. A future is registered before the
+ * request is queued, so a completion can never be missed no matter how fast the transfer is executed.
+ */
+public class TransferCompletionRegistry {
+    private final Map<UUID, CompletableFuture<TransferResponse>> pending = new ConcurrentHashMap<>();
+
+    public CompletableFuture<TransferResponse> register(UUID transactionId) {
+        return pending.computeIfAbsent(transactionId, id -> new CompletableFuture<>());
+    }
+
+    public CompletableFuture<TransferResponse> get(UUID transactionId) {
+        return pending.get(transactionId);
+    }
+
+    public void complete(UUID transactionId, TransferResponse response) {
+        CompletableFuture<TransferResponse> future = pending.remove(transactionId);
+        if (Objects.nonNull(future)) {
+            future.complete(response);
+        }
+    }
+
+    public void remove(UUID transactionId, CompletableFuture<TransferResponse> future) {
+        pending.remove(transactionId, future);
+    }
+
+    public int size() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,18 @@
+package com.revolut.transfer;
+
+import lombok.Getter;
+
+/**
+ * Thrown when admission control refuses to queue a transfer, answered with 429 and a Retry-After header.
+ */
+@Getter
+public class TransferRejectedException extends RuntimeException {
+    private final RejectReason reason;
+    private final long retryAfterSeconds;
+
+    public TransferRejectedException(RejectReason reason, long retryAfterSeconds) {
+        super(reason.getMessage());
+        this.reason = reason;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
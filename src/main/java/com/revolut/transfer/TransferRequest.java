@@ -1,12 +1,13 @@
 package com.revolut.transfer;
 
 import com.revolut.client.AppException;
+import com.revolut.db.Transfer;
 import io.javalin.http.Context;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 
-import java.math.BigDecimal;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -19,6 +20,25 @@ public class TransferRequest {
     private UUID uuid;
     private String accountIdFrom;
     private String accountIdTo;
-    private BigDecimal amount;
+    //minor units, see Money
+    private long amount;
     private Boolean async;
+    //null unless the client sent one
+    private String idempotencyKey;
+    //transfers of a batch request, the batch itself moves no money
+    private List<TransferRequest> items;
+    private BatchMode mode;
+    //System.nanoTime() readings for metrics
+    @Builder.Default
+    private long queuedAt = System.nanoTime();
+    private long startedAt;
+
+    //called by the thread which executes the transfer right before it touches the db
+    public void start() {
+        startedAt = System.nanoTime();
+    }
+
+    public Transfer toTransfer() {
+        return new Transfer(UUID.fromString(accountIdFrom), UUID.fromString(accountIdTo), amount);
+    }
 }
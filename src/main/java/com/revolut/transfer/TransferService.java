@@ -1,11 +1,35 @@
 package com.revolut.transfer;
 
+import com.revolut.client.TransferBatchItem;
 import com.revolut.client.TransferResponse;
+import com.revolut.metrics.TransferMetrics;
 
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public interface TransferService {
+    //transaction state of a transfer which is queued or running
+    String PENDING_STATE = "PENDING";
+
     TransferRequest getNextRequest();
-    TransferResponse waitTransferResponse(UUID transactionId,Long waitTimeOut );
+    TransferRequest awaitNextRequest(long timeout, TimeUnit unit) throws InterruptedException;
+    //a PENDING response if the transfer is still queued or running when the wait times out
+    CompletableFuture<TransferResponse> getTransferResponse(UUID transactionId, Long waitTimeOut);
+    //a PENDING response while the transfer is queued or running, null once it is done or if it is unknown
+    TransferResponse getPendingResponse(UUID transactionId);
+    void completeTransferRequest(TransferRequest request, TransferResponse response);
+    //both throw TransferRejectedException when admission control turns the request away
     UUID queueTransferRequest(String idFrom, String idTo, String amount, Boolean async);
+    //a repeated idempotency key gets the transaction id of the first request instead of a new transfer
+    UUID queueTransferRequest(String idFrom, String idTo, String amount, Boolean async, String idempotencyKey);
+    //queues the whole batch as one request, returns transaction ids of its transfers
+    List<UUID> queueTransferBatch(List<TransferBatchItem> items, BatchMode mode);
+    TransferMetrics getMetrics();
+    //pushes results of the given transactions and of every transfer of the given accounts as they complete,
+    //results of the given transactions which are done already are pushed right away
+    TransferSubscriptions.Subscription subscribe(List<String> transactionIds, List<String> accountIds,
+                                                 TransferSubscriptions.Sink sink);
+    void unsubscribe(TransferSubscriptions.Subscription subscription);
 }
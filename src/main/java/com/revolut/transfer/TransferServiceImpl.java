@@ -1,44 +1,243 @@
 package com.revolut.transfer;
 
+import com.revolut.client.TransferBatchItem;
 import com.revolut.client.TransferResponse;
 import com.revolut.db.AppDb;
-import lombok.AllArgsConstructor;
+import com.revolut.db.DB_CODE;
+import com.revolut.metrics.TransferMetrics;
+import com.revolut.utils.Money;
 import org.apache.commons.lang3.math.NumberUtils;
 
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-@AllArgsConstructor
 public class TransferServiceImpl implements TransferService {
+    private static final String PENDING_MESSAGE = "Transfer is queued or running.";
+
     private AppDb appDb;
-    private final Queue<TransferRequest> transfers = new ConcurrentLinkedQueue<>();
+    private WaitStrategy waitStrategy;
+    private TransferMetrics metrics;
+    private AdmissionControl admission;
+    private IdempotencyIndex idempotency;
+    private TransferSubscriptions subscriptions;
+    private final BlockingQueue<TransferRequest> transfers = new LinkedBlockingQueue<>();
+    private final TransferCompletionRegistry completionRegistry = new TransferCompletionRegistry();
+    //queued or running transfers, removed once their result is stored
+    private final Map<UUID, TransferRequest> inFlight = new ConcurrentHashMap<>();
+
+    public TransferServiceImpl(AppDb appDb) {
+        this(appDb, WaitStrategy.BLOCKING);
+    }
+
+    public TransferServiceImpl(AppDb appDb, WaitStrategy waitStrategy) {
+        this(appDb, waitStrategy, new TransferMetrics());
+    }
+
+    public TransferServiceImpl(AppDb appDb, WaitStrategy waitStrategy, TransferMetrics metrics) {
+        this(appDb, waitStrategy, metrics, new AdmissionControl());
+    }
+
+    public TransferServiceImpl(AppDb appDb, WaitStrategy waitStrategy, TransferMetrics metrics, AdmissionControl admission) {
+        this(appDb, waitStrategy, metrics, admission, new IdempotencyIndex());
+    }
+
+    public TransferServiceImpl(AppDb appDb, WaitStrategy waitStrategy, TransferMetrics metrics, AdmissionControl admission,
+                               IdempotencyIndex idempotency) {
+        this(appDb, waitStrategy, metrics, admission, idempotency, new TransferSubscriptions());
+    }
+
+    public TransferServiceImpl(AppDb appDb, WaitStrategy waitStrategy, TransferMetrics metrics, AdmissionControl admission,
+                               IdempotencyIndex idempotency, TransferSubscriptions subscriptions) {
+        this.appDb = appDb;
+        this.waitStrategy = waitStrategy;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.idempotency = idempotency;
+        this.subscriptions = subscriptions;
+        metrics.gauge("transfer_queue_depth", "Requests waiting in the transfer queue, a batch counts once.", transfers::size);
+        metrics.gauge("transfer_queued_transfers", "Transfers admitted and not done yet, queued or running, with all items of batches.",
+                admission::inFlight);
+        metrics.gauge("transfer_idempotency_keys", "Idempotency keys kept to deduplicate retried transfers.", idempotency::size);
+        metrics.gauge("transfer_subscriptions", "Open subscriptions to transfer results.", subscriptions::size);
+    }
 
     public UUID queueTransferRequest(String idFrom, String idTo, String amount, Boolean isAsync) {
-        TransferRequest transfer = TransferRequest.builder()
-                .accountIdTo(idTo)
-                .accountIdFrom(idFrom)
+        return queueTransferRequest(idFrom, idTo, amount, isAsync, null);
+    }
+
+    public UUID queueTransferRequest(String idFrom, String idTo, String amount, Boolean isAsync, String idempotencyKey) {
+        TransferRequest transfer = buildRequest(idFrom, idTo, amount, isAsync, idempotencyKey);
+        if (Objects.isNull(idempotencyKey)) {
+            admit(1, isAsync);
+            if (!isAsync) {
+                completionRegistry.register(transfer.getUuid());
+            }
+            queue(transfer);
+            return transfer.getUuid();
+        }
+        String fingerprint = idFrom + ' ' + idTo + ' ' + transfer.getAmount();
+        IdempotencyIndex.Entry entry = idempotency.get(idempotencyKey);
+        if (Objects.isNull(entry)) {
+            admit(1, isAsync);
+            //even an async one gets a future, a sync retry of it waits for the same result
+            CompletableFuture<TransferResponse> future = completionRegistry.register(transfer.getUuid());
+            entry = idempotency.putIfAbsent(idempotencyKey, transfer.getUuid(), fingerprint);
+            if (transfer.getUuid().equals(entry.getTransactionId())) {
+                queue(transfer);
+                return transfer.getUuid();
+            }
+            //a concurrent request with the same key got there first
+            completionRegistry.remove(transfer.getUuid(), future);
+            admission.release(1);
+        }
+        if (!fingerprint.equals(entry.getFingerprint())) {
+            throw new IdempotencyKeyReusedException();
+        }
+        return entry.getTransactionId();
+    }
+
+    public List<UUID> queueTransferBatch(List<TransferBatchItem> items, BatchMode mode) {
+        List<TransferRequest> requests = new ArrayList<>(items.size());
+        List<UUID> transactionIds = new ArrayList<>(items.size());
+        for (TransferBatchItem item : items) {
+            TransferRequest request = buildRequest(item.getIdFrom(), item.getIdTo(), item.getAmount(), true, null);
+            requests.add(request);
+            transactionIds.add(request.getUuid());
+        }
+        admit(requests.size(), true);
+        requests.forEach(request -> inFlight.put(request.getUuid(), request));
+        transfers.add(TransferRequest.builder()
                 .uuid(UUID.randomUUID())
-                .amount(NumberUtils.toScaledBigDecimal(amount))
-                .async(isAsync)
+                .async(true)
+                .items(requests)
+                .mode(mode)
+                .build());
+        return transactionIds;
+    }
+
+    public CompletableFuture<TransferResponse> getTransferResponse(UUID transactionId, Long waitTimeOut) {
+        CompletableFuture<TransferResponse> future = completionRegistry.get(transactionId);
+        if (Objects.isNull(future)) {
+            //already completed or has never been waited for
+            return CompletableFuture.completedFuture(storedOrPending(transactionId));
+        }
+        //the future stays registered after a timeout, so a retry with the same idempotency key waits for the
+        //same result; completeTransferRequest removes it
+        return future.copy()
+                .completeOnTimeout(null, waitTimeOut, TimeUnit.MILLISECONDS)
+                .thenApply(response -> Objects.nonNull(response) ? response : storedOrPending(transactionId));
+    }
+
+    private TransferResponse storedOrPending(UUID transactionId) {
+        TransferResponse response = appDb.selectTransferResultById(transactionId);
+        return Objects.nonNull(response) ? response : getPendingResponse(transactionId);
+    }
+
+    public TransferResponse getPendingResponse(UUID transactionId) {
+        TransferRequest request = inFlight.get(transactionId);
+        if (Objects.isNull(request)) {
+            return null;
+        }
+        return TransferResponse.builder()
+                .transactionId(transactionId.toString())
+                .transactionState(PENDING_STATE)
+                .message(PENDING_MESSAGE)
+                .idFrom(request.getAccountIdFrom())
+                .idTo(request.getAccountIdTo())
+                .amount(Money.format(request.getAmount()))
                 .build();
-        transfers.add(transfer);
-        return transfer.getUuid();
     }
 
-    public TransferResponse waitTransferResponse(UUID transactionId, Long waitTimeOut) {
-        synchronized (transactionId) {
-            try {
-                transactionId.wait(waitTimeOut);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } finally {
-                return appDb.selectTransferResultById(transactionId);
+    //the processor stores the result before it completes the request, so a transfer is always found either here
+    //or in the db
+    public void completeTransferRequest(TransferRequest request, TransferResponse response) {
+        long now = System.nanoTime();
+        //a request failed before it could start has no execution time
+        long startedAt = request.getStartedAt() == 0 ? now : request.getStartedAt();
+        metrics.recordTransfer(request.getQueuedAt(), startedAt, now, DB_CODE.of(response));
+        admission.completed(startedAt - request.getQueuedAt());
+        inFlight.remove(request.getUuid());
+        if (!request.getAsync() || Objects.nonNull(request.getIdempotencyKey())) {
+            completionRegistry.complete(request.getUuid(), response);
+        }
+        subscriptions.publish(response);
+    }
+
+    public TransferSubscriptions.Subscription subscribe(List<String> transactionIds, List<String> accountIds,
+                                                        TransferSubscriptions.Sink sink) {
+        TransferSubscriptions.Subscription subscription = subscriptions.subscribe(transactionIds, accountIds, sink);
+        //results are stored before they are published, so a transfer done before the subscription is found here,
+        //one done meanwhile can come twice
+        for (String transactionId : transactionIds) {
+            TransferResponse response = appDb.selectTransferResultById(UUID.fromString(transactionId));
+            if (Objects.nonNull(response)) {
+                subscription.offer(response);
             }
         }
+        return subscription;
+    }
+
+    public void unsubscribe(TransferSubscriptions.Subscription subscription) {
+        subscriptions.unsubscribe(subscription);
+    }
+
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void admit(int transfers, boolean async) {
+        RejectReason reason = admission.tryAdmit(transfers, async);
+        if (Objects.nonNull(reason)) {
+            metrics.recordRejection(reason);
+            throw new TransferRejectedException(reason, admission.retryAfterSeconds());
+        }
+    }
+
+    private void queue(TransferRequest transfer) {
+        inFlight.put(transfer.getUuid(), transfer);
+        transfers.add(transfer);
+    }
+
+    private TransferRequest buildRequest(String idFrom, String idTo, String amount, Boolean isAsync, String idempotencyKey) {
+        //a malformed or missing id is answered with 400 here instead of failing on the processor thread
+        UUID.fromString(idFrom);
+        UUID.fromString(idTo);
+        return TransferRequest.builder()
+                .accountIdTo(idTo)
+                .accountIdFrom(idFrom)
+                .uuid(UUID.randomUUID())
+                .amount(Money.toMinorUnits(NumberUtils.toScaledBigDecimal(amount)))
+                .async(isAsync)
+                .idempotencyKey(idempotencyKey)
+                .build();
     }
 
     public TransferRequest getNextRequest() {
         return transfers.poll();
     }
+
+    public TransferRequest awaitNextRequest(long timeout, TimeUnit unit) throws InterruptedException {
+        if (WaitStrategy.BLOCKING.equals(waitStrategy)) {
+            return transfers.poll(timeout, unit);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        TransferRequest request;
+        while ((request = transfers.poll()) == null) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            } else if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            waitStrategy.idle();
+        }
+        return request;
+    }
 }
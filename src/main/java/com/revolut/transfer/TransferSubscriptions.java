@@ -0,0 +1,219 @@
+package com.revolut.transfer;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.utils.JsonSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscriptions to results of transfers, by transaction id or by account id, for clients which would otherwise poll
+ * GET /transfer/:id. Every subscription has a bounded buffer the completing worker only offers to, and its own
+ * sender which drains the buffer to the client, so a slow client never holds up workers or other clients. Results
+ * which don't fit the buffer are dropped and the client is told how many it missed.
+ * <p>
+ * Events are "transfer" with the result as JSON and its transaction id as the event id, "dropped" with the number
+ * of lost results, and "ping" every heartbeat period, which also finds clients gone without a word.
+ */
+public class TransferSubscriptions {
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    public static final long DEFAULT_HEARTBEAT_MILLIS = 15_000l;
+
+    //queued like a result, so a subscription is only ever written by its sender
+    private static final TransferResponse PING = new TransferResponse();
+
+    private final int bufferSize;
+    private final long heartbeatMillis;
+    private final Map<String, Set<Subscription>> byTransaction = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscription>> byAccount = new ConcurrentHashMap<>();
+    private final Set<Subscription> all = ConcurrentHashMap.newKeySet();
+    private final Executor senders = Executors.newCachedThreadPool(daemon("transfer-push-"));
+    private ScheduledExecutorService heartbeat;
+
+    /**
+     * Where the events of a subscription go, e.g. a server-sent events client.
+     */
+    public interface Sink {
+        //id can be null
+        void send(String event, String data, String id);
+
+        //ends the stream, the subscription is gone by then
+        default void close() {
+        }
+    }
+
+    public TransferSubscriptions() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_HEARTBEAT_MILLIS);
+    }
+
+    public TransferSubscriptions(int bufferSize, long heartbeatMillis) {
+        if (bufferSize < 1 || heartbeatMillis < 1) {
+            throw new IllegalArgumentException("Buffer size and heartbeat period must be positive.");
+        }
+        this.bufferSize = bufferSize;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    public Subscription subscribe(Collection<String> transactionIds, Collection<String> accountIds, Sink sink) {
+        Subscription subscription = new Subscription(transactionIds, accountIds, sink);
+        all.add(subscription);
+        transactionIds.forEach(id -> add(byTransaction, id, subscription));
+        accountIds.forEach(id -> add(byAccount, id, subscription));
+        startHeartbeat();
+        return subscription;
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        if (all.remove(subscription)) {
+            subscription.closed = true;
+            subscription.transactionIds.forEach(id -> remove(byTransaction, id, subscription));
+            subscription.accountIds.forEach(id -> remove(byAccount, id, subscription));
+            subscription.sink.close();
+        }
+    }
+
+    //ends every subscription, open streams would hold up a server stop otherwise
+    public void close() {
+        all.forEach(this::unsubscribe);
+        synchronized (this) {
+            if (Objects.nonNull(heartbeat)) {
+                heartbeat.shutdownNow();
+                heartbeat = null;
+            }
+        }
+    }
+
+    /**
+     * Offers the result to every subscription of its transaction or either of its accounts, never blocks.
+     */
+    public void publish(TransferResponse response) {
+        if (all.isEmpty()) {
+            return;
+        }
+        Set<Subscription> targets = new HashSet<>();
+        //a transaction completes once, nothing else is published for its id
+        addAll(targets, byTransaction, response.getTransactionId(), true);
+        addAll(targets, byAccount, response.getIdFrom(), false);
+        addAll(targets, byAccount, response.getIdTo(), false);
+        targets.forEach(subscription -> subscription.offer(response));
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    private synchronized void startHeartbeat() {
+        if (Objects.isNull(heartbeat)) {
+            heartbeat = Executors.newSingleThreadScheduledExecutor(daemon("transfer-push-heartbeat-"));
+            heartbeat.scheduleWithFixedDelay(() -> all.forEach(Subscription::ping), heartbeatMillis, heartbeatMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //the set is replaced under the map lock, so an add can't go to a set which a remove just dropped
+    private static void add(Map<String, Set<Subscription>> index, String id, Subscription subscription) {
+        index.compute(id, (key, subscriptions) -> {
+            Set<Subscription> updated = Objects.isNull(subscriptions) ? ConcurrentHashMap.newKeySet() : subscriptions;
+            updated.add(subscription);
+            return updated;
+        });
+    }
+
+    private static void remove(Map<String, Set<Subscription>> index, String id, Subscription subscription) {
+        index.computeIfPresent(id, (key, subscriptions) -> {
+            subscriptions.remove(subscription);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+    }
+
+    private static void addAll(Set<Subscription> targets, Map<String, Set<Subscription>> index, String id,
+                               boolean remove) {
+        Set<Subscription> subscriptions = Objects.isNull(id) ? null : remove ? index.remove(id) : index.get(id);
+        if (Objects.nonNull(subscriptions)) {
+            targets.addAll(subscriptions);
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public final class Subscription {
+        private final List<String> transactionIds;
+        private final List<String> accountIds;
+        private final Sink sink;
+        private final BlockingQueue<TransferResponse> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicLong dropped = new AtomicLong();
+        //a sender is draining the buffer or about to
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscription(Collection<String> transactionIds, Collection<String> accountIds, Sink sink) {
+            this.transactionIds = new ArrayList<>(transactionIds);
+            this.accountIds = new ArrayList<>(accountIds);
+            this.sink = sink;
+        }
+
+        //also used for results which were done before the subscription
+        public void offer(TransferResponse response) {
+            if (!buffer.offer(response)) {
+                dropped.incrementAndGet();
+            }
+            schedule();
+        }
+
+        private void ping() {
+            //a busy subscription is written anyway
+            if (buffer.isEmpty() && buffer.offer(PING)) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (!closed && scheduled.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                for (TransferResponse response; !closed && Objects.nonNull(response = buffer.poll()); ) {
+                    if (response == PING) {
+                        sink.send("ping", "", null);
+                    } else {
+                        sink.send("transfer", new String(JsonSerializer.toBytes(response), StandardCharsets.UTF_8),
+                                response.getTransactionId());
+                    }
+                }
+                long lost = dropped.getAndSet(0);
+                if (lost > 0 && !closed) {
+                    sink.send("dropped", String.valueOf(lost), null);
+                }
+                scheduled.set(false);
+                //an offer which saw the flag still set relies on this check
+            } while (!closed && (!buffer.isEmpty() || dropped.get() > 0) && scheduled.compareAndSet(false, true));
+        }
+    }
+}
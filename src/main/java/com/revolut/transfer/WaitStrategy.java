@@ -0,0 +1,25 @@
+package com.revolut.transfer;
+
+/**
+ * How a consumer waits for the next transfer request when the queue is empty.
+ * BLOCKING parks the thread until a request arrives, YIELDING and BUSY_SPIN keep
+ * polling and trade a CPU core for lower hand-off latency.
+ */
+public enum WaitStrategy {
+    BLOCKING,
+    YIELDING {
+        @Override
+        void idle() {
+            Thread.yield();
+        }
+    },
+    BUSY_SPIN {
+        @Override
+        void idle() {
+            Thread.onSpinWait();
+        }
+    };
+
+    void idle() {
+    }
+}
@@ -0,0 +1,283 @@
+package com.revolut.utils;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.model.AccountModel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Writes {@link TransferResponse} and {@link AccountModel} as JSON into a per-thread byte buffer which is reused
+ * from one response to the next. Output is byte for byte what Jackson writes for them, dates as epoch millis and
+ * balances as plain numbers, but without reflection, intermediate strings or number formatters.
+ * <p>
+ * {@link #write} hands the buffer straight to the output stream of the response, so a route allocates nothing
+ * per response; {@link #toBytes} and {@link #toLine} return a copy for callers which keep the bytes.
+ */
+public class JsonSerializer {
+    public static final String CONTENT_TYPE = "application/json";
+
+    private static final ThreadLocal<JsonSerializer> SERIALIZERS = ThreadLocal.withInitial(JsonSerializer::new);
+    private static final byte[] HEX = ascii("0123456789abcdef");
+    //Jackson writes the hex digits of escaped chars in upper case
+    private static final byte[] ESCAPE_HEX = ascii("0123456789ABCDEF");
+    private static final byte[] NULL = ascii("null");
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    //a thread doesn't keep a buffer grown bigger than this by an unusually long name
+    private static final int MAX_KEPT_BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] TRANSACTION_ID = ascii("{\"transactionId\":");
+    private static final byte[] TRANSACTION_STATE = ascii(",\"transactionState\":");
+    private static final byte[] MESSAGE = ascii(",\"message\":");
+    private static final byte[] ID_FROM = ascii(",\"idFrom\":");
+    private static final byte[] ID_TO = ascii(",\"idTo\":");
+    private static final byte[] AMOUNT = ascii(",\"amount\":");
+    private static final byte[] TRANSACTION_DATE = ascii(",\"transactionDate\":");
+
+    private static final byte[] ID = ascii("{\"id\":");
+    private static final byte[] FIRST_NAME = ascii(",\"firstName\":");
+    private static final byte[] LAST_NAME = ascii(",\"lastName\":");
+    private static final byte[] BALANCE = ascii(",\"balance\":");
+
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int size;
+
+    public static boolean supports(Object value) {
+        return value instanceof TransferResponse || value instanceof AccountModel;
+    }
+
+    //the buffer stays with the thread for the next response, so it is written out before returning
+    public static void write(Object value, OutputStream out) throws IOException {
+        JsonSerializer serializer = serialize(value);
+        out.write(serializer.buffer, 0, serializer.size);
+    }
+
+    public static byte[] toBytes(Object value) {
+        JsonSerializer serializer = serialize(value);
+        return Arrays.copyOf(serializer.buffer, serializer.size);
+    }
+
+    //a line of newline delimited JSON
+    public static byte[] toLine(Object value) {
+        JsonSerializer serializer = serialize(value);
+        serializer.append((byte) '\n');
+        return Arrays.copyOf(serializer.buffer, serializer.size);
+    }
+
+    private static JsonSerializer serialize(Object value) {
+        JsonSerializer serializer = SERIALIZERS.get();
+        serializer.size = 0;
+        if (serializer.buffer.length > MAX_KEPT_BUFFER_SIZE) {
+            serializer.buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        if (value instanceof TransferResponse) {
+            serializer.write((TransferResponse) value);
+        } else if (value instanceof AccountModel) {
+            serializer.write((AccountModel) value);
+        } else {
+            throw new IllegalArgumentException("Not supported " + value);
+        }
+        return serializer;
+    }
+
+    private void write(TransferResponse response) {
+        append(TRANSACTION_ID);
+        string(response.getTransactionId());
+        append(TRANSACTION_STATE);
+        string(response.getTransactionState());
+        append(MESSAGE);
+        string(response.getMessage());
+        append(ID_FROM);
+        string(response.getIdFrom());
+        append(ID_TO);
+        string(response.getIdTo());
+        append(AMOUNT);
+        string(response.getAmount());
+        append(TRANSACTION_DATE);
+        Date date = response.getTransactionDate();
+        if (Objects.isNull(date)) {
+            append(NULL);
+        } else {
+            number(date.getTime());
+        }
+        append((byte) '}');
+    }
+
+    private void write(AccountModel account) {
+        append(ID);
+        UUID id = account.getId();
+        if (Objects.isNull(id)) {
+            append(NULL);
+        } else {
+            uuid(id);
+        }
+        append(FIRST_NAME);
+        string(account.getFirstName());
+        append(LAST_NAME);
+        string(account.getLastName());
+        append(BALANCE);
+        decimal(account.getBalance());
+        append((byte) '}');
+    }
+
+    private void string(String value) {
+        if (Objects.isNull(value)) {
+            append(NULL);
+            return;
+        }
+        //every char takes at most 6 bytes, escaped ones being the longest
+        ensure(value.length() * 6 + 2);
+        byte[] buf = buffer;
+        int pos = size;
+        buf[pos++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x80) {
+                pos = escape(buf, pos, c);
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | c >> 6);
+                buf[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                //Jackson escapes surrogates instead of encoding the code point, a lone one included
+                pos = escape(buf, pos, c);
+            } else {
+                buf[pos++] = (byte) (0xE0 | c >> 12);
+                buf[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buf[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        buf[pos++] = '"';
+        size = pos;
+    }
+
+    private static int escape(byte[] buf, int pos, char c) {
+        buf[pos++] = '\\';
+        switch (c) {
+            case '"':
+                buf[pos++] = '"';
+                break;
+            case '\\':
+                buf[pos++] = '\\';
+                break;
+            case '\b':
+                buf[pos++] = 'b';
+                break;
+            case '\f':
+                buf[pos++] = 'f';
+                break;
+            case '\n':
+                buf[pos++] = 'n';
+                break;
+            case '\r':
+                buf[pos++] = 'r';
+                break;
+            case '\t':
+                buf[pos++] = 't';
+                break;
+            default:
+                buf[pos++] = 'u';
+                buf[pos++] = ESCAPE_HEX[c >> 12];
+                buf[pos++] = ESCAPE_HEX[c >> 8 & 0xF];
+                buf[pos++] = ESCAPE_HEX[c >> 4 & 0xF];
+                buf[pos++] = ESCAPE_HEX[c & 0xF];
+        }
+        return pos;
+    }
+
+    private void uuid(UUID id) {
+        ensure(38);
+        buffer[size++] = '"';
+        hex(id.getMostSignificantBits() >>> 32, 8);
+        buffer[size++] = '-';
+        hex(id.getMostSignificantBits() >>> 16, 4);
+        buffer[size++] = '-';
+        hex(id.getMostSignificantBits(), 4);
+        buffer[size++] = '-';
+        hex(id.getLeastSignificantBits() >>> 48, 4);
+        buffer[size++] = '-';
+        hex(id.getLeastSignificantBits(), 12);
+        buffer[size++] = '"';
+    }
+
+    //lowest digits of the value as hex, the buffer has to have room for them
+    private void hex(long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[size + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        size += digits;
+    }
+
+    private void decimal(BigDecimal value) {
+        if (Objects.isNull(value)) {
+            append(NULL);
+        } else if (value.scale() == Money.SCALE && value.precision() <= 18) {
+            //what the db hands out, written from minor units
+            long minorUnits = value.unscaledValue().longValue();
+            if (minorUnits < 0) {
+                append((byte) '-');
+            }
+            //the digits are taken from the negative value, as Money.format does
+            long negative = minorUnits < 0 ? minorUnits : -minorUnits;
+            digits(negative / 100);
+            append((byte) '.');
+            long cents = -(negative % 100);
+            append((byte) ('0' + cents / 10));
+            append((byte) ('0' + cents % 10));
+        } else {
+            append(ascii(value.toString()));
+        }
+    }
+
+    private void number(long value) {
+        if (value < 0) {
+            append((byte) '-');
+            digits(value);
+        } else {
+            digits(-value);
+        }
+    }
+
+    //digits of a value which is zero or negative, so that Long.MIN_VALUE has them too
+    private void digits(long negative) {
+        ensure(20);
+        int length = 1;
+        for (long rest = negative / 10; rest != 0; rest /= 10) {
+            length++;
+        }
+        for (int i = size + length - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' - negative % 10);
+            negative /= 10;
+        }
+        size += length;
+    }
+
+    private void append(byte value) {
+        ensure(1);
+        buffer[size++] = value;
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensure(int bytes) {
+        if (size + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,37 @@
+package com.revolut.utils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amounts inside the app are kept as a long number of minor units (cents), BigDecimal is only used at the
+ * AccountModel and request boundary.
+ */
+public class Money {
+    public static final int SCALE = 2;
+    private static final long UNIT = 100;
+
+    public static long toMinorUnits(BigDecimal amount) {
+        try {
+            return amount.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException(String.format("Amount %s is out of range", amount), ex);
+        }
+    }
+
+    public static BigDecimal toBigDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    public static String format(long minorUnits) {
+        StringBuilder builder = new StringBuilder(24);
+        if (minorUnits < 0) {
+            builder.append('-');
+        }
+        //Math.abs would overflow for Long.MIN_VALUE, so the digits are taken from the negative value
+        long negative = minorUnits < 0 ? minorUnits : -minorUnits;
+        builder.append(-(negative / UNIT));
+        long cents = -(negative % UNIT);
+        return builder.append('.').append(cents < 10 ? "0" : "").append(cents).toString();
+    }
+}
@@ -0,0 +1,55 @@
+package com.revolut.utils;
+
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Newline delimited JSON of the values of an iterator, written by {@link JsonSerializer} one value at a time as
+ * the stream is read, so a response of any length never holds more than one value.
+ */
+public class NdjsonStream extends InputStream {
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private final Iterator<?> values;
+    private byte[] current = new byte[0];
+    private int position;
+
+    public NdjsonStream(Iterator<?> values) {
+        this.values = values;
+    }
+
+    @Override
+    public int read() {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        int read = 0;
+        //a call fills the whole buffer unless the values run out, so the response is written in big chunks
+        while (read < length && fill()) {
+            int count = Math.min(length - read, current.length - position);
+            System.arraycopy(current, position, buffer, offset + read, count);
+            position += count;
+            read += count;
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    private boolean fill() {
+        if (position < current.length) {
+            return true;
+        } else if (!values.hasNext()) {
+            return false;
+        }
+        current = JsonSerializer.toLine(values.next());
+        position = 0;
+        return true;
+    }
+}
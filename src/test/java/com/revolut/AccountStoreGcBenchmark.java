@@ -0,0 +1,77 @@
+package com.revolut;
+
+import com.revolut.db.AccountStore;
+import com.revolut.db.AppDb;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.offheap.OffHeapAppDb;
+import com.revolut.model.AccountModel;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares heap usage and GC pauses of the heap and the off heap account store holding the same accounts.
+ * Not a test, run it once per store with a big enough heap and direct memory, e.g. for 10M accounts:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.revolut.AccountStoreGcBenchmark \
+ *     -Dexec.args="OFF_HEAP 10000000"    (with MAVEN_OPTS="-Xmx8g -XX:MaxDirectMemorySize=4g")
+ * </pre>
+ */
+public class AccountStoreGcBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        AccountStore store = args.length > 0 ? AccountStore.valueOf(args[0]) : AccountStore.OFF_HEAP;
+        int accountCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        int transferCount = args.length > 2 ? Integer.parseInt(args[2]) : 10_000_000;
+        AppDb db = AccountStore.OFF_HEAP.equals(store)
+                ? new OffHeapAppDb(new TransferResultStore(), accountCount)
+                : new InMemoryAppDb();
+        UUID[] ids = new UUID[accountCount];
+        long started = System.nanoTime();
+        for (int i = 0; i < accountCount; i++) {
+            ids[i] = UUID.randomUUID();
+            db.insertAccount(AccountModel.builder().id(ids[i]).firstName("First").lastName("Last")
+                    .balance(new BigDecimal(1000)).build());
+        }
+        print("populated", started);
+
+        started = System.nanoTime();
+        System.gc();
+        print("full gc", started);
+        System.out.printf("%-24s %8d MB%n", "heap used", heapUsed() / (1 << 20));
+
+        //transfers make young garbage only, so their pauses show what scanning the old accounts costs
+        long pausesBefore = gcMillis();
+        long collectionsBefore = gcCount();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        started = System.nanoTime();
+        for (int i = 0; i < transferCount; i++) {
+            db.makeTransfer(ids[random.nextInt(accountCount)], ids[random.nextInt(accountCount)], random.nextInt(10000));
+        }
+        print("transfers", started);
+        long collections = gcCount() - collectionsBefore;
+        long pauses = gcMillis() - pausesBefore;
+        System.out.printf("%-24s %8d ms in %d collections, %.1f ms avg%n", "gc during transfers", pauses, collections,
+                collections == 0 ? 0.0 : (double) pauses / collections);
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static void print(String phase, long started) {
+        System.out.printf("%-24s %8d ms%n", phase, (System.nanoTime() - started) / 1_000_000);
+    }
+}
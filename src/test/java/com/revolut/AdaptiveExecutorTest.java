@@ -0,0 +1,63 @@
+package com.revolut;
+
+import com.revolut.metrics.LatencyHistogram;
+import com.revolut.transaction.AdaptiveExecutor;
+import com.revolut.transaction.ThreadMode;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class AdaptiveExecutorTest {
+
+    @Test
+    public void tuneTest() throws Exception {
+        LatencyHistogram queueWait = new LatencyHistogram();
+        AtomicLong contended = new AtomicLong();
+        AdaptiveExecutor executor = new AdaptiveExecutor(4, 2, 8, ThreadMode.PLATFORM.threadFactory("test-"),
+                queueWait, contended::get);
+
+        //nothing happened, nothing to learn from
+        assertEquals(4, executor.tune());
+
+        //transfers wait long and hardly meet on locks, so more threads help
+        record(queueWait, 100, TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(5, executor.tune());
+        record(queueWait, 100, TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(6, executor.tune());
+        record(queueWait, 100, TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(7, executor.tune());
+        record(queueWait, 100, TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(8, executor.tune());
+        record(queueWait, 100, TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(8, executor.tune());
+
+        //threads queue up on the same accounts, fewer of them do as well
+        record(queueWait, 100, TimeUnit.MILLISECONDS.toNanos(5));
+        contended.addAndGet(50);
+        assertEquals(7, executor.tune());
+
+        //transfers don't wait and the pool is idle
+        for (int i = 0; i < 10; i++) {
+            record(queueWait, 100, 1000);
+            executor.tune();
+        }
+        assertEquals(2, executor.getMaximumPoolSize());
+        assertEquals(2, executor.getCorePoolSize());
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveExecutor(1, 2, 8,
+                ThreadMode.PLATFORM.threadFactory("test-"), queueWait, contended::get));
+    }
+
+    private static void record(LatencyHistogram histogram, int count, long nanos) {
+        for (int i = 0; i < count; i++) {
+            histogram.record(nanos);
+        }
+    }
+}
@@ -1,21 +1,35 @@
 package com.revolut;
 
 import com.revolut.client.AppException;
+import com.revolut.client.TransferBatchItem;
+import com.revolut.client.TransferBatchResponse;
+import com.revolut.client.TransferResponse;
 import com.revolut.controller.AppControllerImpl;
 import com.revolut.model.AccountModel;
 import com.revolut.repository.AccountRepositoryImpl;
 import com.revolut.repository.TransferRepositoryImpl;
+import com.revolut.transfer.BatchMode;
+import com.revolut.transfer.TransferService;
 import com.revolut.transfer.TransferServiceImpl;
 import org.junit.Test;
 
 import io.javalin.http.Context;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.*;
 
+//Context has pathParam, queryParam and header twins which differ only in the return type, so these are stubbed with
+//thenAnswer: thenReturn checks the value against whichever of the two mockito happens to pick
 public class AppControllerImplTest {
 
     @Test
@@ -25,7 +39,7 @@ public class AppControllerImplTest {
         AppControllerImpl appController = new AppControllerImpl(null, repository, null);
 
         UUID uuid = UUID.randomUUID();
-        when(ctx.pathParam("id")).thenReturn(uuid.toString());
+        when(ctx.pathParam("id")).thenAnswer(invocation -> uuid.toString());
 
         appController.getAccountById(ctx);
 
@@ -34,6 +48,69 @@ public class AppControllerImplTest {
 
     }
 
+    @Test
+    public void getAccountByIdConditionalTest() throws Exception {
+        Context ctx = mock(Context.class);
+        AccountRepositoryImpl repository = mock(AccountRepositoryImpl.class);
+        AppControllerImpl appController = new AppControllerImpl(null, repository, null);
+
+        UUID uuid = UUID.randomUUID();
+        when(ctx.pathParam("id")).thenAnswer(invocation -> uuid.toString());
+        when(ctx.header("If-None-Match")).thenAnswer(invocation -> "\"other\", W/\"v1\"");
+        when(repository.getVersion(uuid)).thenReturn("v1");
+
+        assertNull(appController.getAccountById(ctx));
+        verify(ctx, times(1)).status(304);
+        verify(ctx, times(1)).header("ETag", "\"v1\"");
+        verify(repository, never()).getById(uuid);
+
+        when(repository.getVersion(uuid)).thenReturn("v2");
+        when(repository.getById(uuid)).thenReturn(AccountModel.builder().id(uuid).version("v2").build());
+        assertEquals("v2", appController.getAccountById(ctx).getVersion());
+        verify(ctx, times(1)).header("ETag", "\"v2\"");
+    }
+
+    @Test
+    public void getAccountsTest() throws Exception {
+        Context ctx = mock(Context.class);
+        AccountRepositoryImpl repository = mock(AccountRepositoryImpl.class);
+        AppControllerImpl appController = new AppControllerImpl(null, repository, null);
+
+        when(ctx.queryParam("limit", "100")).thenAnswer(invocation -> "20");
+        when(ctx.queryParam("cursor")).thenAnswer(invocation -> "AAAAAAAAAAo");
+        appController.getAccounts(ctx);
+        verify(repository, times(1)).list("AAAAAAAAAAo", 20);
+
+        when(ctx.queryParam("limit", "100")).thenAnswer(invocation -> "0");
+        AppException ex = assertThrows(AppException.class, () -> appController.getAccounts(ctx));
+        assertEquals(400, ex.getHttpCode());
+        assertEquals("Parameter limit should be from 1 to 1000.", ex.getMessage());
+    }
+
+    @Test
+    public void getAccountTransactionsTest() throws Exception {
+        Context ctx = mock(Context.class);
+        AccountRepositoryImpl repository = mock(AccountRepositoryImpl.class);
+        AppControllerImpl appController = new AppControllerImpl(null, repository, null);
+
+        UUID uuid = UUID.randomUUID();
+        when(ctx.pathParam("id")).thenAnswer(invocation -> uuid.toString());
+        when(ctx.queryParam("limit", "100")).thenAnswer(invocation -> "100");
+        appController.getAccountTransactions(ctx);
+        verify(repository, times(1)).getLedger(uuid, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 100);
+
+        when(ctx.queryParam("beforeSeq")).thenAnswer(invocation -> "42");
+        when(ctx.queryParam("from")).thenAnswer(invocation -> "1000");
+        when(ctx.queryParam("to")).thenAnswer(invocation -> "2000");
+        appController.getAccountTransactions(ctx);
+        verify(repository, times(1)).getLedger(uuid, 42, 1000, 2000, 100);
+
+        when(ctx.queryParam("to")).thenAnswer(invocation -> "yesterday");
+        AppException ex = assertThrows(AppException.class, () -> appController.getAccountTransactions(ctx));
+        assertEquals(400, ex.getHttpCode());
+        assertEquals("Parameter to is not correct number.", ex.getMessage());
+    }
+
     @Test
     public void updateAccountByIdTest() throws Exception {
         Context ctx = mock(Context.class);
@@ -42,7 +119,7 @@ public class AppControllerImplTest {
 
         UUID uuid = UUID.randomUUID();
         AccountModel account = buildAccount(uuid);
-        when(ctx.pathParam("id")).thenReturn(uuid.toString());
+        when(ctx.pathParam("id")).thenAnswer(invocation -> uuid.toString());
         when(ctx.formParam("firstName")).thenReturn("updatedFirstName");
         when(ctx.formParam("lastName")).thenReturn("updatedLastName");
         when(repository.getById(uuid)).thenReturn(account);
@@ -93,7 +170,7 @@ public class AppControllerImplTest {
         AppControllerImpl appController = new AppControllerImpl(null, repository, null);
 
         UUID uuid = UUID.randomUUID();
-        when(ctx.pathParam("id")).thenReturn(uuid.toString());
+        when(ctx.pathParam("id")).thenAnswer(invocation -> uuid.toString());
 
         appController.deleteAccountById(ctx);
 
@@ -115,17 +192,85 @@ public class AppControllerImplTest {
         when(ctx.formParam("amount")).thenReturn("1000");
         when(ctx.formParam("idTo")).thenReturn(idTo.toString());
         when(ctx.formParam("idFrom")).thenReturn(idFrom.toString());
-        when(transferService.queueTransferRequest(idFrom.toString(), idTo.toString(), "1000", false))
+        when(transferService.queueTransferRequest(idFrom.toString(), idTo.toString(), "1000", false, null))
                 .thenReturn(transactionId);
+        TransferResponse pending = TransferResponse.builder().transactionState("PENDING").build();
+        when(transferService.getTransferResponse(transactionId, 20000l))
+                .thenReturn(CompletableFuture.completedFuture(pending));
 
-        appController.transferMoney(ctx);
+        assertEquals(pending, appController.transferMoney(ctx).get());
+        verify(ctx, times(1)).status(202);
 
         verify(ctx, times(1)).formParam("amount");
         verify(ctx, times(1)).formParam("idTo");
         verify(ctx, times(1)).formParam("idFrom");
         verify(transferService, times(1))
-                .queueTransferRequest(idFrom.toString(), idTo.toString(), "1000", false);
-        verify(transferService, times(1)).waitTransferResponse(transactionId, 20000l);
+                .queueTransferRequest(idFrom.toString(), idTo.toString(), "1000", false, null);
+        verify(transferService, times(1)).getTransferResponse(transactionId, 20000l);
+    }
+
+    @Test
+    public void transferMoneyBatchTest() throws Exception {
+        Context ctx = mock(Context.class);
+        TransferServiceImpl transferService = mock(TransferServiceImpl.class);
+        AppControllerImpl appController = new AppControllerImpl(transferService, null, null);
+
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        List<TransferBatchItem> items = Arrays.asList(
+                TransferBatchItem.builder().idFrom(idFrom).idTo(idTo).amount("10.50").build(),
+                TransferBatchItem.builder().idFrom(idTo).idTo(idFrom).amount("3").build());
+        List<UUID> transactionIds = Arrays.asList(UUID.randomUUID(), UUID.randomUUID());
+        String ndjson = String.format("{\"idFrom\":\"%s\",\"idTo\":\"%s\",\"amount\":\"10.50\"}\n"
+                + "{\"idFrom\":\"%s\",\"idTo\":\"%s\",\"amount\":3}\n", idFrom, idTo, idTo, idFrom);
+
+        when(ctx.queryParam("mode", "INDEPENDENT")).thenAnswer(invocation -> "atomic");
+        when(ctx.bodyAsBytes()).thenReturn(ndjson.getBytes(StandardCharsets.UTF_8));
+        when(transferService.queueTransferBatch(items, BatchMode.ATOMIC)).thenReturn(transactionIds);
+
+        TransferBatchResponse response = appController.transferMoneyBatch(ctx);
+
+        assertEquals("ATOMIC", response.getMode());
+        assertEquals(transactionIds.get(0).toString(), response.getTransactionIds().get(0));
+        assertEquals(transactionIds.get(1).toString(), response.getTransactionIds().get(1));
+
+        //the same batch as a JSON array
+        String array = String.format("[{\"idFrom\":\"%s\",\"idTo\":\"%s\",\"amount\":\"10.50\"},"
+                + "{\"idFrom\":\"%s\",\"idTo\":\"%s\",\"amount\":\"3\"}]", idFrom, idTo, idTo, idFrom);
+        when(ctx.bodyAsBytes()).thenReturn(array.getBytes(StandardCharsets.UTF_8));
+        appController.transferMoneyBatch(ctx);
+
+        verify(transferService, times(2)).queueTransferBatch(items, BatchMode.ATOMIC);
+    }
+
+    @Test
+    public void transferMoneyBatchWrongRequestTest() {
+        Context ctx = mock(Context.class);
+        AppControllerImpl appController = new AppControllerImpl(null, null, null);
+        String item = String.format("{\"idFrom\":\"%s\",\"idTo\":\"%s\",\"amount\":\"1\"}",
+                UUID.randomUUID(), UUID.randomUUID());
+
+        when(ctx.queryParam("mode", "INDEPENDENT")).thenAnswer(invocation -> "all");
+        AppException ex = assertThrows(AppException.class, () -> appController.transferMoneyBatch(ctx));
+        assertEquals(400, ex.getHttpCode());
+
+        when(ctx.queryParam("mode", "INDEPENDENT")).thenAnswer(invocation -> "independent");
+        when(ctx.bodyAsBytes()).thenReturn((item + "{\"idFrom\":\"wrong\",\"idTo\":null,\"amount\":\"1\"}").getBytes());
+        ex = assertThrows(AppException.class, () -> appController.transferMoneyBatch(ctx));
+        assertEquals("Not proper transfer at index 1.", ex.getMessage());
+
+        when(ctx.bodyAsBytes()).thenReturn("[]".getBytes());
+        ex = assertThrows(AppException.class, () -> appController.transferMoneyBatch(ctx));
+        assertEquals("Batch is empty.", ex.getMessage());
+
+        when(ctx.bodyAsBytes()).thenReturn("[{".getBytes());
+        ex = assertThrows(AppException.class, () -> appController.transferMoneyBatch(ctx));
+        assertEquals(400, ex.getHttpCode());
+
+        when(ctx.queryParam("mode", "INDEPENDENT")).thenAnswer(invocation -> "atomic");
+        when(ctx.bodyAsBytes()).thenReturn(String.join("\n", Collections.nCopies(1001, item)).getBytes());
+        ex = assertThrows(AppException.class, () -> appController.transferMoneyBatch(ctx));
+        assertEquals(413, ex.getHttpCode());
     }
 
     @Test(expected = AppException.class)
@@ -184,33 +329,41 @@ public class AppControllerImplTest {
         when(ctx.formParam("amount")).thenReturn("1000");
         when(ctx.formParam("idTo")).thenReturn(idTo.toString());
         when(ctx.formParam("idFrom")).thenReturn(idFrom.toString());
-        when(transferService.queueTransferRequest(idFrom.toString(), idTo.toString(), "1000", true))
+        when(ctx.header("Idempotency-Key")).thenAnswer(invocation -> "key-1");
+        when(transferService.queueTransferRequest(idFrom.toString(), idTo.toString(), "1000", true, "key-1"))
                 .thenReturn(transactionId);
 
-        appController.transferMoneyAsync(ctx);
+        assertEquals(transactionId.toString(), appController.transferMoneyAsync(ctx));
 
         verify(ctx, times(1)).formParam("amount");
         verify(ctx, times(1)).formParam("idTo");
         verify(ctx, times(1)).formParam("idFrom");
         verify(transferService, times(1))
-                .queueTransferRequest(idFrom.toString(), idTo.toString(), "1000", true);
+                .queueTransferRequest(idFrom.toString(), idTo.toString(), "1000", true, "key-1");
 
     }
 
     @Test
-    public void getTransferResultByIdTest() {
+    public void getTransferResultByIdTest() throws Exception {
         Context ctx = mock(Context.class);
         TransferRepositoryImpl repository = mock(TransferRepositoryImpl.class);
-        AppControllerImpl appController = new AppControllerImpl(null, null, repository);
+        TransferService transferService = mock(TransferService.class);
+        AppControllerImpl appController = new AppControllerImpl(transferService, null, repository);
 
         UUID id = UUID.randomUUID();
-        when(ctx.pathParam("id")).thenReturn(id.toString());
+        when(ctx.pathParam("id")).thenAnswer(invocation -> id.toString());
 
         appController.getTransferResultById(ctx);
 
         verify(ctx, times(1)).pathParam("id");
         verify(repository, times(1)).getTransferResultById(id);
 
+        //queued or running
+        TransferResponse pending = TransferResponse.builder().transactionState("PENDING").build();
+        when(transferService.getPendingResponse(id)).thenReturn(pending);
+        assertEquals(pending, appController.getTransferResultById(ctx));
+        verify(ctx, times(1)).status(202);
+        verify(repository, times(1)).getTransferResultById(id);
     }
 
     public static AccountModel buildAccount(UUID id) {
@@ -2,30 +2,53 @@ package com.revolut;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.client.AccountPage;
+import com.revolut.client.LedgerPage;
+import com.revolut.client.TransferBatchResponse;
 import com.revolut.client.TransferResponse;
+import com.revolut.config.AppConfig;
 import com.revolut.controller.AppController;
 import com.revolut.controller.AppControllerImpl;
 import com.revolut.db.AppDb;
 import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.offheap.OffHeapAppDb;
 import com.revolut.model.AccountModel;
 import com.revolut.repository.AccountRepository;
 import com.revolut.repository.AccountRepositoryImpl;
 import com.revolut.repository.TransferRepository;
 import com.revolut.repository.TransferRepositoryImpl;
+import com.revolut.transaction.ExecutionMode;
+import com.revolut.transaction.ThreadMode;
+import com.revolut.metrics.TransferMetrics;
 import com.revolut.transaction.TransactionProcessor;
+import com.revolut.transfer.AdmissionControl;
+import com.revolut.transfer.AdmissionPolicy;
+import com.revolut.transfer.RejectReason;
 import com.revolut.transfer.TransferService;
 import com.revolut.transfer.TransferServiceImpl;
+import com.revolut.transfer.TransferSubscriptions;
+import com.revolut.transfer.IdempotencyIndex;
+import com.revolut.transfer.WaitStrategy;
+import com.revolut.utils.NdjsonStream;
 import io.javalin.Javalin;
 import kong.unirest.HttpResponse;
 import kong.unirest.Unirest;
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.IntStream;
@@ -76,6 +99,14 @@ public class AppIntegrationTest {
         assertEquals("Myrkymbayev", account.getLastName());
         assertEquals("1233.00", account.getBalance().toString());
 
+        //conditional fetch of an unchanged account
+        String etag = response.getHeaders().getFirst("ETag");
+        assertNotNull(etag);
+        response = Unirest.get("http://localhost:8888/account/" + currentId).header("If-None-Match", etag).asString();
+        assertEquals(304, response.getStatus());
+        assertEquals(etag, response.getHeaders().getFirst("ETag"));
+        assertTrue(response.getBody() == null || response.getBody().isEmpty());
+
         //update account
         response = Unirest.put("http://localhost:8888/account/" + currentId)
                 .field("firstName", "Nick")
@@ -87,6 +118,11 @@ public class AppIntegrationTest {
         assertEquals("Nick", account.getFirstName());
         assertEquals("Nickov", account.getLastName());
         assertEquals("1233.00", account.getBalance().toString());
+        assertNotEquals(etag, response.getHeaders().getFirst("ETag"));
+
+        response = Unirest.get("http://localhost:8888/account/" + currentId).header("If-None-Match", etag).asString();
+        assertEquals(200, response.getStatus());
+        assertEquals("Nick", mapper.readValue(response.getBody(), AccountModel.class).getFirstName());
 
         //delete account
         response = Unirest.delete("http://localhost:8888/account/" + currentId).asString();
@@ -256,4 +292,293 @@ public class AppIntegrationTest {
         assertEquals(finalBalance2, account2.getBalance());
         assertEquals(finalBalance3, account3.getBalance());
     }
+
+    @Test
+    public void appIntegrationBatchTest() throws Exception {
+        final AppDb db = new InMemoryAppDb();
+        final TransferService transferService = new TransferServiceImpl(db);
+        final AppController controller = new AppControllerImpl(transferService, new AccountRepositoryImpl(db),
+                new TransferRepositoryImpl(db));
+        ExecutorService processor = Executors.newSingleThreadExecutor();
+        processor.execute(new TransactionProcessor(db, transferService));
+        Javalin server = App.startServer(controller, 8889);
+
+        UUID id1 = db.insertAccount(AccountModel.builder().balance(new BigDecimal("100.00")).build()).getId();
+        UUID id2 = db.insertAccount(AccountModel.builder().balance(new BigDecimal("0.00")).build()).getId();
+
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            ndjson.append(String.format("{\"idFrom\":\"%s\",\"idTo\":\"%s\",\"amount\":\"0.10\"}%n", id1, id2));
+        }
+        HttpResponse<String> response = Unirest.post("http://localhost:8889/transfer/batch")
+                .header("Content-Type", "application/x-ndjson")
+                .body(ndjson.toString())
+                .asString();
+        assertEquals(200, response.getStatus());
+        TransferBatchResponse batch = mapper.readValue(response.getBody(), TransferBatchResponse.class);
+        assertEquals("INDEPENDENT", batch.getMode());
+        assertEquals(1000, batch.getTransactionIds().size());
+
+        //the second transfer can't be paid, so the atomic batch changes nothing
+        String array = String.format("[{\"idFrom\":\"%s\",\"idTo\":\"%s\",\"amount\":\"1.00\"},"
+                + "{\"idFrom\":\"%s\",\"idTo\":\"%s\",\"amount\":\"500.00\"}]", id2, id1, id1, id2);
+        response = Unirest.post("http://localhost:8889/transfer/batch?mode=atomic")
+                .header("Content-Type", "application/json")
+                .body(array)
+                .asString();
+        assertEquals(200, response.getStatus());
+        TransferBatchResponse atomic = mapper.readValue(response.getBody(), TransferBatchResponse.class);
+
+        response = Unirest.post("http://localhost:8889/transfer/batch?mode=atomic").body("[]").asString();
+        assertEquals(400, response.getStatus());
+
+        //transfers of a batch are processed in order, so the last one is done after all others
+        assertEquals("Balance is not enough.", awaitTransfer(8889, atomic.getTransactionIds().get(1)).getMessage());
+        assertEquals("Another transfer of the atomic batch failed.",
+                awaitTransfer(8889, atomic.getTransactionIds().get(0)).getMessage());
+        awaitTransfer(8889, batch.getTransactionIds().get(999));
+        for (String id : batch.getTransactionIds()) {
+            assertEquals("SUCCESS", awaitTransfer(8889, id).getTransactionState());
+        }
+
+        response = Unirest.get("http://localhost:8889/metrics").asString();
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getHeaders().getFirst("Content-Type").startsWith("text/plain; version=0.0.4"));
+        assertTrue(response.getBody().contains("transfer_results_total{code=\"SUCCESS\"} 1000\n"));
+        assertTrue(response.getBody().contains("transfer_results_total{code=\"BALANCE_NOT_ENOUGH\"} 1\n"));
+        assertTrue(response.getBody().contains("transfer_results_total{code=\"BATCH_ABORTED\"} 1\n"));
+        assertTrue(response.getBody().contains("transfer_end_to_end_seconds_count 1002\n"));
+
+        server.stop();
+        processor.shutdownNow();
+
+        assertEquals(new BigDecimal("0.00"), db.selectAccountById(id1).getBalance());
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(id2).getBalance());
+    }
+
+    @Test
+    public void appIntegrationVirtualThreadsTest() throws Exception {
+        Assume.assumeTrue("virtual threads need JDK 21", Runtime.version().major() >= 21);
+        final AppDb db = new InMemoryAppDb();
+        final TransferService transferService = new TransferServiceImpl(db);
+        final AppController controller = new AppControllerImpl(transferService, new AccountRepositoryImpl(db),
+                new TransferRepositoryImpl(db));
+        ExecutorService processor = Executors.newSingleThreadExecutor();
+        processor.execute(new TransactionProcessor(db, transferService, ThreadMode.VIRTUAL));
+        Javalin server = App.startServer(controller, 8890, ThreadMode.VIRTUAL);
+
+        UUID id1 = db.insertAccount(AccountModel.builder().balance(new BigDecimal("100.00")).build()).getId();
+        UUID id2 = db.insertAccount(AccountModel.builder().balance(new BigDecimal("100.00")).build()).getId();
+
+        //the http client pins virtual threads, so it gets platform ones
+        ExecutorService clients = Executors.newFixedThreadPool(20);
+        List<Future<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String idFrom = (i % 2 == 0 ? id1 : id2).toString();
+            String idTo = (i % 2 == 0 ? id2 : id1).toString();
+            responses.add(clients.submit(() -> Unirest.post("http://localhost:8890/transfer")
+                    .field("amount", "1.00")
+                    .field("idFrom", idFrom)
+                    .field("idTo", idTo)
+                    .asString()));
+        }
+        for (Future<HttpResponse<String>> response : responses) {
+            assertEquals("SUCCESS", mapper.readValue(response.get().getBody(), TransferResponse.class).getTransactionState());
+        }
+        clients.shutdown();
+        server.stop();
+        processor.shutdownNow();
+
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(id1).getBalance());
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(id2).getBalance());
+    }
+
+    @Test
+    public void appIntegrationAdmissionTest() throws Exception {
+        final AppDb db = new InMemoryAppDb();
+        //no transaction processor, so nothing leaves the queue
+        final TransferService transferService = new TransferServiceImpl(db, WaitStrategy.BLOCKING, new TransferMetrics(),
+                new AdmissionControl(AdmissionPolicy.REJECT, 1, 0));
+        final AppController controller = new AppControllerImpl(transferService, new AccountRepositoryImpl(db),
+                new TransferRepositoryImpl(db));
+        Javalin server = App.startServer(controller, 8891);
+
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        HttpResponse<String> response = Unirest.post("http://localhost:8891/transfer/async")
+                .field("amount", "1.00").field("idFrom", idFrom).field("idTo", idTo).asString();
+        assertEquals(200, response.getStatus());
+        String transactionId = mapper.readValue(response.getBody(), String.class);
+        response = Unirest.get("http://localhost:8891/transfer/" + transactionId).asString();
+        assertEquals(202, response.getStatus());
+        assertEquals("PENDING", mapper.readValue(response.getBody(), TransferResponse.class).getTransactionState());
+
+        response = Unirest.post("http://localhost:8891/transfer")
+                .field("amount", "1.00").field("idFrom", idFrom).field("idTo", idTo).asString();
+        assertEquals(429, response.getStatus());
+        assertEquals("1", response.getHeaders().getFirst("Retry-After"));
+        assertEquals(RejectReason.QUEUE_FULL.getMessage(), response.getBody());
+        assertEquals(1, transferService.getMetrics().rejections(RejectReason.QUEUE_FULL));
+        server.stop();
+    }
+
+    @Test
+    public void appIntegrationAccountListTest() throws Exception {
+        final AppDb db = new OffHeapAppDb();
+        final AppController controller = new AppControllerImpl(new TransferServiceImpl(db), new AccountRepositoryImpl(db),
+                new TransferRepositoryImpl(db));
+        Javalin server = App.startServer(controller, 8892);
+
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            ids.add(db.insertAccount(AccountModel.builder().balance(BigDecimal.ONE).build()).getId());
+        }
+        for (int i = 0; i < 250; i += 5) {
+            db.deleteAccountById(ids.get(i));
+        }
+        List<UUID> expected = new ArrayList<>(ids);
+        expected.removeIf(id -> ids.indexOf(id) % 5 == 0);
+
+        List<UUID> listed = new ArrayList<>();
+        String cursor = null;
+        do {
+            HttpResponse<String> response = Unirest.get("http://localhost:8892/accounts?limit=90"
+                    + (cursor == null ? "" : "&cursor=" + cursor)).asString();
+            assertEquals(200, response.getStatus());
+            AccountPage page = mapper.readValue(response.getBody(), AccountPage.class);
+            assertTrue(page.getAccounts().size() <= 90);
+            page.getAccounts().forEach(account -> listed.add(account.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(expected, listed);
+
+        HttpResponse<String> response = Unirest.get("http://localhost:8892/accounts")
+                .header("Accept", NdjsonStream.CONTENT_TYPE)
+                .asString();
+        assertEquals(NdjsonStream.CONTENT_TYPE, response.getHeaders().getFirst("Content-Type"));
+        String[] lines = response.getBody().split("\n");
+        assertEquals(expected.size(), lines.length);
+        assertEquals(expected.get(199), mapper.readValue(lines[199], AccountModel.class).getId());
+
+        assertEquals(400, Unirest.get("http://localhost:8892/accounts?cursor=abc").asString().getStatus());
+        assertEquals(400, Unirest.get("http://localhost:8892/accounts?limit=1001").asString().getStatus());
+        server.stop();
+    }
+
+    @Test
+    public void appIntegrationLedgerTest() throws Exception {
+        final AppDb db = new InMemoryAppDb();
+        final AppController controller = new AppControllerImpl(new TransferServiceImpl(db), new AccountRepositoryImpl(db),
+                new TransferRepositoryImpl(db));
+        Javalin server = App.startServer(controller, 8893);
+
+        UUID idA = db.insertAccount(AccountModel.builder().balance(new BigDecimal("100.00")).build()).getId();
+        UUID idB = db.insertAccount(AccountModel.builder().balance(BigDecimal.ZERO).build()).getId();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("SUCCESS", db.makeTransfer(idA, idB, 150l).getTransactionState());
+        }
+
+        HttpResponse<String> response = Unirest.get("http://localhost:8893/account/" + idB + "/transactions?limit=3")
+                .asString();
+        assertEquals(200, response.getStatus());
+        LedgerPage page = mapper.readValue(response.getBody(), LedgerPage.class);
+        assertEquals(3, page.getEntries().size());
+        assertEquals(4, page.getEntries().get(0).getSeq());
+        assertEquals("7.50", page.getEntries().get(0).getBalance());
+        assertEquals(idA.toString(), page.getEntries().get(0).getCounterparty());
+        assertEquals(Long.valueOf(2), page.getNextBeforeSeq());
+
+        response = Unirest.get("http://localhost:8893/account/" + idA + "/transactions?beforeSeq=2").asString();
+        page = mapper.readValue(response.getBody(), LedgerPage.class);
+        assertEquals(2, page.getEntries().size());
+        assertEquals("-1.50", page.getEntries().get(1).getAmount());
+        assertEquals("98.50", page.getEntries().get(1).getBalance());
+        assertNull(page.getNextBeforeSeq());
+
+        assertEquals(404, Unirest.get("http://localhost:8893/account/" + UUID.randomUUID() + "/transactions")
+                .asString().getStatus());
+        assertEquals(400, Unirest.get("http://localhost:8893/account/" + idA + "/transactions?from=now")
+                .asString().getStatus());
+        server.stop();
+    }
+
+    @Test
+    public void appIntegrationShardedLedgerOffTest() throws Exception {
+        //a config built in code gets the same mode dependent default as one read from system properties
+        Javalin server = App.start(AppConfig.builder().port(8895).executionMode(ExecutionMode.SHARDED).build());
+
+        HttpResponse<String> response = Unirest.post("http://localhost:8895/account/").field("balance", "1.00").asString();
+        UUID id = mapper.readValue(response.getBody(), AccountModel.class).getId();
+        assertEquals(501, Unirest.get("http://localhost:8895/account/" + id + "/transactions").asString().getStatus());
+        server.stop();
+    }
+
+    @Test
+    public void appIntegrationTransferEventsTest() throws Exception {
+        final AppDb db = new InMemoryAppDb();
+        final TransferSubscriptions subscriptions = new TransferSubscriptions();
+        final TransferService transferService = new TransferServiceImpl(db, WaitStrategy.BLOCKING, new TransferMetrics(),
+                new AdmissionControl(), new IdempotencyIndex(), subscriptions);
+        final AppController controller = new AppControllerImpl(transferService, new AccountRepositoryImpl(db),
+                new TransferRepositoryImpl(db));
+        ExecutorService processor = Executors.newSingleThreadExecutor();
+        processor.execute(new TransactionProcessor(db, transferService));
+        Javalin server = App.startServer(controller, 8894);
+
+        String idA = db.insertAccount(AccountModel.builder().balance(new BigDecimal("100.00")).build()).getId().toString();
+        String idB = db.insertAccount(AccountModel.builder().balance(BigDecimal.ZERO).build()).getId().toString();
+        String done = mapper.readValue(Unirest.post("http://localhost:8894/transfer/async")
+                .field("amount", "1.00").field("idFrom", idA).field("idTo", idB).asString().getBody(), String.class);
+        awaitTransfer(8894, done);
+
+        //the transfer done before subscribing comes right away, the next one of the account as it completes
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8894/transfer/events?transactionId="
+                + done + "&accountId=" + idB).openConnection();
+        connection.setRequestProperty("Accept", "text/event-stream");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/event-stream"));
+        BufferedReader events = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+        TransferResponse first = readTransferEvent(events);
+        assertEquals(done, first.getTransactionId());
+
+        String next = mapper.readValue(Unirest.post("http://localhost:8894/transfer/async")
+                .field("amount", "2.00").field("idFrom", idA).field("idTo", idB).asString().getBody(), String.class);
+        TransferResponse second = readTransferEvent(events);
+        assertEquals(next, second.getTransactionId());
+        assertEquals("2.00", second.getAmount());
+        assertEquals("SUCCESS", second.getTransactionState());
+
+        assertEquals(400, Unirest.get("http://localhost:8894/transfer/events").asString().getStatus());
+        assertEquals(400, Unirest.get("http://localhost:8894/transfer/events?accountId=abc").asString().getStatus());
+        assertEquals(406, Unirest.get("http://localhost:8894/transfer/events?accountId=" + idA).asString().getStatus());
+        //the stream ends when the subscription is closed
+        subscriptions.close();
+        while (events.readLine() != null) {
+        }
+        server.stop();
+        processor.shutdownNow();
+    }
+
+    private static TransferResponse readTransferEvent(BufferedReader events) throws IOException {
+        boolean transfer = false;
+        for (String line; (line = events.readLine()) != null; ) {
+            if (line.equals("event: transfer")) {
+                transfer = true;
+            } else if (transfer && line.startsWith("data: ")) {
+                return mapper.readValue(line.substring("data: ".length()), TransferResponse.class);
+            }
+        }
+        throw new AssertionError("Event stream ended");
+    }
+
+    private static TransferResponse awaitTransfer(int port, String id) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            HttpResponse<String> response = Unirest.get("http://localhost:" + port + "/transfer/" + id).asString();
+            if (response.getStatus() == 200) {
+                return mapper.readValue(response.getBody(), TransferResponse.class);
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("No result of transfer " + id);
+    }
 }
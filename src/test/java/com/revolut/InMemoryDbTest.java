@@ -1,19 +1,29 @@
 package com.revolut;
 
+import com.revolut.client.LedgerEntry;
+import com.revolut.client.LedgerPage;
 import com.revolut.client.TransferResponse;
 import com.revolut.db.AppDb;
+import com.revolut.db.DB_CODE;
 import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.Transfer;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.journal.Journal;
 import com.revolut.model.AccountModel;
+import com.revolut.utils.Money;
 import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.IntStream;
 
@@ -147,13 +157,9 @@ public class InMemoryDbTest {
         db.insertAccount(accountFrom);
         db.insertAccount(accountTo);
 
-        BigDecimal amount = BigDecimal.valueOf(20d);
+        long amount = 2000l;
 
-        Runnable r = () -> {
-            ReentrantLock lock = new ReentrantLock();
-            lock.lock();
-            db.makeTransfer(idFrom, idTo, amount, lock);
-        };
+        Runnable r = () -> db.makeTransfer(idFrom, idTo, amount);
 
         int pool_size = 2;
         ExecutorService executor = Executors.newFixedThreadPool(pool_size);
@@ -162,7 +168,7 @@ public class InMemoryDbTest {
         executor.shutdown();
         executor.awaitTermination(2, TimeUnit.MINUTES);
 
-        BigDecimal operationSum = amount.multiply(BigDecimal.valueOf(pool_size));
+        BigDecimal operationSum = Money.toBigDecimal(amount * pool_size);
         BigDecimal balanceFrom = balance.subtract(operationSum);
         BigDecimal balanceTo = balance.add(operationSum);
 
@@ -173,6 +179,352 @@ public class InMemoryDbTest {
         assertEquals(balanceTo, accountTo.getBalance());
     }
 
+    @Test
+    public void makeTransferOppositeDirectionsStressTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID id1 = UUID.randomUUID();
+        UUID id2 = UUID.randomUUID();
+        db.insertAccount(buildAccount(id1));
+        db.insertAccount(buildAccount(id2));
+
+        long amount = 100l;
+        int transfers = 1000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        IntStream.range(0, transfers).forEach(i -> executor.execute(() -> {
+            if (i % 2 == 0) {
+                db.makeTransfer(id1, id2, amount);
+            } else {
+                db.makeTransfer(id2, id1, amount);
+            }
+        }));
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        assertEquals(balance, db.selectAccountById(id1).getBalance());
+        assertEquals(balance, db.selectAccountById(id2).getBalance());
+    }
+
+    @Test
+    public void makeTransferAccountNotFoundTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID id = UUID.randomUUID();
+        db.insertAccount(buildAccount(id));
+
+        long amount = 2000l;
+        TransferResponse response = db.makeTransfer(UUID.randomUUID(), id, amount);
+        assertEquals("FAILED", response.getTransactionState());
+        assertEquals("The account from which the transfer is made does not exist.", response.getMessage());
+
+        response = db.makeTransfer(id, UUID.randomUUID(), amount);
+        assertEquals("FAILED", response.getTransactionState());
+        assertEquals("The account to which the transfer is made does not exist.", response.getMessage());
+        assertEquals(balance, db.selectAccountById(id).getBalance());
+    }
+
+    @Test
+    public void withdrawAndDepositTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID id = UUID.randomUUID();
+        db.insertAccount(buildAccount(id));
+
+        assertEquals(DB_CODE.SUCCESS, db.withdraw(id, 23600l));
+        assertEquals(DB_CODE.BALANCE_NOT_ENOUGH, db.withdraw(id, 100001l));
+        assertEquals(DB_CODE.SUCCESS, db.deposit(id, 1l));
+        assertEquals(new BigDecimal("1000.01"), db.selectAccountById(id).getBalance());
+        assertEquals(DB_CODE.BALANCE_OVERFLOW, db.deposit(id, Long.MAX_VALUE));
+        assertEquals(new BigDecimal("1000.01"), db.selectAccountById(id).getBalance());
+
+        assertEquals(DB_CODE.FROM_ACCOUNT_NOT_FOUND, db.withdraw(UUID.randomUUID(), 1l));
+        assertEquals(DB_CODE.TO_ACCOUNT_NOT_FOUND, db.deposit(UUID.randomUUID(), 1l));
+
+        assertEquals(new BigDecimal("1000.01"), db.deleteAccountById(id).getBalance());
+        assertEquals(DB_CODE.TO_ACCOUNT_NOT_FOUND, db.deposit(id, 1l));
+    }
+
+    @Test
+    public void makeAtomicTransferTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID idA = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idB = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idC = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+
+        //B can pay C only with the money it gets from A in the same batch
+        List<TransferResponse> responses = db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(
+                new Transfer(idA, idB, 123600l),
+                new Transfer(idB, idC, 200000l),
+                new Transfer(idC, idA, 10000l)));
+        assertEquals(3, responses.size());
+        responses.forEach(response -> assertEquals("SUCCESS", response.getTransactionState()));
+        assertEquals(idB.toString(), responses.get(1).getIdFrom());
+        assertEquals("2000.00", responses.get(1).getAmount());
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(idA).getBalance());
+        assertEquals(new BigDecimal("472.00"), db.selectAccountById(idB).getBalance());
+        assertEquals(new BigDecimal("3136.00"), db.selectAccountById(idC).getBalance());
+
+        responses = db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(
+                new Transfer(idC, idA, 100000l),
+                new Transfer(idA, idB, 500000l),
+                new Transfer(idB, idC, 100l)));
+        assertEquals("Another transfer of the atomic batch failed.", responses.get(0).getMessage());
+        assertEquals("Balance is not enough.", responses.get(1).getMessage());
+        assertEquals("Another transfer of the atomic batch failed.", responses.get(2).getMessage());
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(idA).getBalance());
+        assertEquals(new BigDecimal("472.00"), db.selectAccountById(idB).getBalance());
+        assertEquals(new BigDecimal("3136.00"), db.selectAccountById(idC).getBalance());
+
+        responses = db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(
+                new Transfer(idA, idB, 100l),
+                new Transfer(idB, UUID.randomUUID(), 100l)));
+        assertEquals("FAILED", responses.get(0).getTransactionState());
+        assertEquals("The account to which the transfer is made does not exist.", responses.get(1).getMessage());
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(idA).getBalance());
+    }
+
+    @Test
+    public void makeNettedTransferTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID idA = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idB = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+
+        //every transfer sees the balances the ones before it left, and fails alone
+        List<TransferResponse> responses = db.makeNettedTransfer(UUID.randomUUID(), Arrays.asList(
+                new Transfer(idA, idB, 100000l),
+                new Transfer(idA, idB, 50000l),
+                new Transfer(idB, idA, 30000l),
+                new Transfer(idA, idB, 50000l),
+                new Transfer(idA, UUID.randomUUID(), 100l)));
+        assertEquals(5, responses.size());
+        assertEquals("SUCCESS", responses.get(0).getTransactionState());
+        assertEquals("Balance is not enough.", responses.get(1).getMessage());
+        assertEquals("SUCCESS", responses.get(2).getTransactionState());
+        assertEquals("SUCCESS", responses.get(3).getTransactionState());
+        assertEquals("The account to which the transfer is made does not exist.", responses.get(4).getMessage());
+        assertEquals(new BigDecimal("36.00"), db.selectAccountById(idA).getBalance());
+        assertEquals(new BigDecimal("2436.00"), db.selectAccountById(idB).getBalance());
+
+        //ledgers get the applied transfers only
+        List<LedgerEntry> entries = db.selectLedger(idA, Long.MAX_VALUE, 0, Long.MAX_VALUE, 10).getEntries();
+        assertEquals(3, entries.size());
+        assertEquals("36.00", entries.get(0).getBalance());
+        assertEquals("536.00", entries.get(1).getBalance());
+    }
+
+    @Test
+    public void selectAccountAtTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        assertEquals(0, db.nextAccountPosition());
+        UUID first = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID second = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        assertEquals(2, db.nextAccountPosition());
+        assertEquals(first, db.selectAccountAt(0).getId());
+        assertEquals(balance, db.selectAccountAt(1).getBalance());
+        assertNull(db.selectAccountAt(2));
+
+        //a deleted account leaves its position empty and a new one with the same id gets the next position
+        db.deleteAccountById(second);
+        assertNull(db.selectAccountAt(1));
+        db.insertAccount(buildAccount(second));
+        assertEquals(second, db.selectAccountAt(2).getId());
+        assertEquals(3, db.nextAccountPosition());
+    }
+
+    @Test
+    public void selectLedgerTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID idA = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idB = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+
+        assertEquals("SUCCESS", db.makeTransfer(idA, idB, 600l).getTransactionState());
+        assertEquals("FAILED", db.makeTransfer(idA, idB, 1000000l).getTransactionState());
+        assertEquals(DB_CODE.SUCCESS, db.deposit(idA, 100l));
+        db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(
+                new Transfer(idB, idA, 200l),
+                new Transfer(idA, idB, 50l)));
+
+        //failed transfers leave no entries, newest entries come first
+        LedgerPage page = db.selectLedger(idA, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 10);
+        assertEquals(idA.toString(), page.getAccountId());
+        assertNull(page.getNextBeforeSeq());
+        assertEquals(4, page.getEntries().size());
+        LedgerEntry debit = page.getEntries().get(3);
+        assertEquals(0, debit.getSeq());
+        assertEquals("-6.00", debit.getAmount());
+        assertEquals(idB.toString(), debit.getCounterparty());
+        assertEquals("1230.00", debit.getBalance());
+        assertNull(page.getEntries().get(2).getCounterparty());
+        assertEquals("1231.00", page.getEntries().get(2).getBalance());
+        assertEquals("1233.00", page.getEntries().get(1).getBalance());
+        assertEquals("-0.50", page.getEntries().get(0).getAmount());
+        assertEquals("1232.50", page.getEntries().get(0).getBalance());
+
+        //pages follow the seq down
+        page = db.selectLedger(idA, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 3);
+        assertEquals(Long.valueOf(1), page.getNextBeforeSeq());
+        page = db.selectLedger(idA, page.getNextBeforeSeq(), Long.MIN_VALUE, Long.MAX_VALUE, 3);
+        assertEquals(1, page.getEntries().size());
+        assertEquals(0, page.getEntries().get(0).getSeq());
+        assertNull(page.getNextBeforeSeq());
+
+        long now = System.currentTimeMillis();
+        assertTrue(db.selectLedger(idB, Long.MAX_VALUE, now + 1000, Long.MAX_VALUE, 10).getEntries().isEmpty());
+        assertEquals(3, db.selectLedger(idB, Long.MAX_VALUE, now - 60000, now + 1000, 10).getEntries().size());
+        assertNull(db.selectLedger(UUID.randomUUID(), Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 10));
+    }
+
+    @Test
+    public void ledgerRetentionTest() throws Exception {
+        AppDb db = new InMemoryAppDb(new TransferResultStore(), Journal.NONE, 100);
+        UUID id = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        for (int i = 0; i < 5000; i++) {
+            db.deposit(id, 1l);
+        }
+        //whole chunks are dropped, so at least the retention and less than a chunk more is kept
+        List<LedgerEntry> entries = new ArrayList<>();
+        LedgerPage page = db.selectLedger(id, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 7);
+        entries.addAll(page.getEntries());
+        while (page.getNextBeforeSeq() != null) {
+            page = db.selectLedger(id, page.getNextBeforeSeq(), Long.MIN_VALUE, Long.MAX_VALUE, 7);
+            entries.addAll(page.getEntries());
+        }
+        assertTrue(entries.size() >= 100 && entries.size() < 100 + 1024);
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(4999 - i, entries.get(i).getSeq());
+            assertEquals(Money.format(123600l + 5000 - i), entries.get(i).getBalance());
+        }
+
+        AppDb off = new InMemoryAppDb(new TransferResultStore(), Journal.NONE, 0);
+        UUID offId = off.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        assertThrows(UnsupportedOperationException.class,
+                () -> off.selectLedger(offId, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, 10));
+    }
+
+    @Test
+    public void hotAccountTest() throws Exception {
+        InMemoryAppDb db = new InMemoryAppDb();
+        UUID hot = UUID.randomUUID();
+        db.hotAccounts(Collections.singleton(hot), 4);
+        db.insertAccount(buildAccount(hot));
+        UUID[] others = IntStream.range(0, 8)
+                .mapToObj(i -> UUID.randomUUID())
+                .toArray(UUID[]::new);
+        for (UUID id : others) {
+            db.insertAccount(buildAccount(id));
+        }
+
+        //credits spread over the stripes while debits need them moved back to the balance
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        LongAdder debited = new LongAdder();
+        LongAdder failed = new LongAdder();
+        IntStream.range(0, 8).forEach(t -> executor.execute(() -> {
+            for (int i = 0; i < 10000; i++) {
+                UUID other = others[(t + i) % others.length];
+                if (t == 0) {
+                    if (DB_CODE.SUCCESS.equals(DB_CODE.of(db.makeTransfer(hot, other, 7)))) {
+                        debited.add(7);
+                    }
+                } else if (!DB_CODE.SUCCESS.equals(DB_CODE.of(db.makeTransfer(other, hot, 1)))) {
+                    failed.increment();
+                }
+            }
+        }));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        assertEquals(0, failed.sum());
+
+        BigDecimal total = balance.multiply(BigDecimal.valueOf(others.length + 1));
+        BigDecimal sum = db.selectAccountById(hot).getBalance();
+        for (UUID id : others) {
+            sum = sum.add(db.selectAccountById(id).getBalance());
+        }
+        assertEquals(total, sum);
+        assertEquals(balance.add(Money.toBigDecimal(70000 - debited.sum())), db.selectAccountById(hot).getBalance());
+
+        //a debit bigger than the balance alone takes what the stripes hold
+        long all = Money.toMinorUnits(db.selectAccountById(hot).getBalance());
+        assertEquals(DB_CODE.SUCCESS, db.withdraw(hot, all));
+        assertEquals(0, db.selectAccountById(hot).getBalance().signum());
+        assertEquals(DB_CODE.BALANCE_NOT_ENOUGH, db.withdraw(hot, 1));
+
+        try {
+            db.selectLedger(hot, Long.MAX_VALUE, 0, Long.MAX_VALUE, 10);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            //hot accounts have no ledger
+        }
+
+        assertEquals(DB_CODE.SUCCESS, db.deposit(hot, 500));
+        assertEquals(new BigDecimal("5.00"), db.deleteAccountById(hot).getBalance());
+        assertEquals(DB_CODE.TO_ACCOUNT_NOT_FOUND, DB_CODE.of(db.makeTransfer(others[0], hot, 1)));
+    }
+
+    @Test
+    public void accountVersionTest() throws Exception {
+        InMemoryAppDb db = new InMemoryAppDb();
+        UUID idA = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idB = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        String version = db.selectAccountById(idA).getVersion();
+        assertNotNull(version);
+        assertEquals(version, db.selectAccountVersion(idA));
+        assertNotEquals(version, db.selectAccountVersion(idB));
+
+        //every change makes a new version, a failed one doesn't
+        db.makeTransfer(idA, idB, 100l);
+        assertNotEquals(version, db.selectAccountVersion(idA));
+        version = db.selectAccountVersion(idA);
+        db.makeTransfer(idA, idB, 1000000l);
+        assertEquals(version, db.selectAccountVersion(idA));
+        db.updateAccountById(AccountModel.builder().id(idA).firstName("a").lastName("b").build());
+        assertNotEquals(version, db.selectAccountVersion(idA));
+
+        //an account inserted again with the same id doesn't take up the versions of the deleted one
+        version = db.selectAccountVersion(idB);
+        db.deleteAccountById(idB);
+        assertNull(db.selectAccountVersion(idB));
+        db.insertAccount(buildAccount(idB));
+        assertNotEquals(version, db.selectAccountVersion(idB));
+
+        //credits to the stripes of a hot account change its version too
+        UUID hot = UUID.randomUUID();
+        db.hotAccounts(Collections.singleton(hot), 4);
+        db.insertAccount(buildAccount(hot));
+        version = db.selectAccountVersion(hot);
+        db.makeTransfer(idA, hot, 1l);
+        assertNotEquals(version, db.selectAccountVersion(hot));
+        //a debit too big even for the stripes moves them to the balance and fails, the total stays as it was
+        version = db.selectAccountVersion(hot);
+        assertEquals("Balance is not enough.", db.makeTransfer(hot, idA, 1_000_000l).getMessage());
+        assertEquals(version, db.selectAccountVersion(hot));
+        assertEquals(new BigDecimal("1236.01"), db.selectAccountById(hot).getBalance());
+    }
+
+    @Test
+    public void accountReadsAreNotTornTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID id = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        LongAdder torn = new LongAdder();
+        //names are always written in pairs, a reader must never see one of each
+        executor.execute(() -> {
+            for (int i = 0; i < 100000; i++) {
+                String name = String.valueOf(i % 2);
+                db.updateAccountById(AccountModel.builder().id(id).firstName(name).lastName(name).build());
+            }
+        });
+        executor.execute(() -> {
+            for (int i = 0; i < 100000; i++) {
+                AccountModel account = db.selectAccountById(id);
+                if (!account.getFirstName().equals(account.getLastName())) {
+                    torn.increment();
+                }
+            }
+        });
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        assertEquals(0, torn.sum());
+    }
+
     public static AccountModel buildAccount(UUID id) {
         return  AccountModel.builder()
                 .id(id)
@@ -0,0 +1,192 @@
+package com.revolut;
+
+import com.revolut.db.DB_CODE;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.Transfer;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.journal.FileJournal;
+import com.revolut.db.journal.FsyncPolicy;
+import com.revolut.db.journal.Journal;
+import com.revolut.db.journal.JournalRecord;
+import com.revolut.model.AccountModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendAndReplayTest() throws IOException {
+        Path path = folder.newFolder().toPath();
+        UUID id = UUID.randomUUID();
+        UUID idTo = UUID.randomUUID();
+
+        FileJournal journal = new FileJournal(path, FsyncPolicy.ALWAYS, 10);
+        journal.replay(record -> fail());
+        JournalRecord insert = journal.append(JournalRecord.insert(id, 1000l, "Ivan", null));
+        journal.append(JournalRecord.transfer(id, idTo, 250l));
+        JournalRecord delete = journal.append(JournalRecord.delete(idTo));
+        journal.awaitDurable(delete);
+        journal.close();
+
+        List<JournalRecord> records = replay(path, FsyncPolicy.ALWAYS);
+        assertEquals(3, records.size());
+        assertEquals(JournalRecord.Type.INSERT, records.get(0).getType());
+        assertEquals(insert.getSeq(), records.get(0).getSeq());
+        assertEquals(id, records.get(0).getId());
+        assertEquals(1000l, records.get(0).getAmount());
+        assertEquals("Ivan", records.get(0).getFirstName());
+        assertNull(records.get(0).getLastName());
+        assertEquals(JournalRecord.Type.TRANSFER, records.get(1).getType());
+        assertEquals(idTo, records.get(1).getIdTo());
+        assertEquals(250l, records.get(1).getAmount());
+        assertEquals(JournalRecord.Type.DELETE, records.get(2).getType());
+        assertEquals(delete.getSeq(), records.get(2).getSeq());
+    }
+
+    @Test
+    public void tornTailTest() throws IOException {
+        Path path = folder.newFolder().toPath();
+        FileJournal journal = new FileJournal(path, FsyncPolicy.OS, 1);
+        journal.replay(record -> fail());
+        journal.append(JournalRecord.adjust(UUID.randomUUID(), 1l));
+        journal.append(JournalRecord.adjust(UUID.randomUUID(), 2l));
+        journal.close();
+
+        //cutting the last record in half, as a crash in the middle of a write would
+        try (FileChannel channel = FileChannel.open(segment(path), WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        journal = new FileJournal(path, FsyncPolicy.ALWAYS, 10);
+        List<JournalRecord> records = new ArrayList<>();
+        journal.replay(records::add);
+        assertEquals(1, records.size());
+        assertEquals(1l, records.get(0).getAmount());
+
+        //new records go right after the last valid one
+        journal.awaitDurable(journal.append(JournalRecord.adjust(UUID.randomUUID(), 3l)));
+        assertEquals(2l, journal.lastSeq());
+        journal.close();
+
+        records = replay(path, FsyncPolicy.ALWAYS);
+        assertEquals(2, records.size());
+        assertEquals(3l, records.get(1).getAmount());
+    }
+
+    @Test
+    public void recoverDbTest() throws Exception {
+        Path path = folder.newFolder().toPath();
+        UUID idFrom = UUID.randomUUID();
+        UUID idTo = UUID.randomUUID();
+        UUID idDeleted = UUID.randomUUID();
+
+        Journal journal = new FileJournal(path, FsyncPolicy.INTERVAL, 1);
+        InMemoryAppDb db = new InMemoryAppDb(new TransferResultStore(), journal);
+        db.recover();
+        db.insertAccount(AccountModel.builder().id(idFrom).firstName("Ivan").balance(new BigDecimal("100.50")).build());
+        db.insertAccount(AccountModel.builder().id(idTo).balance(BigDecimal.ZERO).build());
+        db.insertAccount(AccountModel.builder().id(idDeleted).balance(BigDecimal.TEN).build());
+        db.makeTransfer(idFrom, idTo, 2050l);
+        db.makeTransfer(idFrom, idTo, 1000000l);
+        assertEquals(DB_CODE.SUCCESS, db.withdraw(idTo, 50l));
+        assertEquals(DB_CODE.SUCCESS, db.deposit(idFrom, 50l));
+        db.updateAccountById(AccountModel.builder().id(idTo).firstName("Petr").lastName("Petrov").build());
+        db.deleteAccountById(idDeleted);
+        db.makeTransfer(idFrom, idFrom, 100l);
+        db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(new Transfer(idFrom, idTo, 1000l), new Transfer(idTo, idFrom, 3000l)));
+        journal.close();
+
+        journal = new FileJournal(path, FsyncPolicy.INTERVAL, 1);
+        InMemoryAppDb recovered = new InMemoryAppDb(new TransferResultStore(), journal);
+        recovered.recover();
+        assertEquals(new BigDecimal("100.50"), recovered.selectAccountById(idFrom).getBalance());
+        assertEquals("Ivan", recovered.selectAccountById(idFrom).getFirstName());
+        assertEquals(new BigDecimal("0.00"), recovered.selectAccountById(idTo).getBalance());
+        assertEquals("Petrov", recovered.selectAccountById(idTo).getLastName());
+        assertNull(recovered.selectAccountById(idDeleted));
+        journal.close();
+    }
+
+    @Test
+    public void failedJournalKeepsBalancesTest() throws Exception {
+        Path path = folder.newFolder().toPath();
+        UUID idFrom = UUID.randomUUID();
+        UUID idTo = UUID.randomUUID();
+
+        Journal journal = new FileJournal(path, FsyncPolicy.ALWAYS, 10);
+        InMemoryAppDb db = new InMemoryAppDb(new TransferResultStore(), journal);
+        db.recover();
+        db.insertAccount(AccountModel.builder().id(idFrom).firstName("Ivan").balance(BigDecimal.TEN).build());
+        db.insertAccount(AccountModel.builder().id(idTo).balance(BigDecimal.ZERO).build());
+
+        //a record the flusher can't encode fails the journal, the waiter gets an error instead of parking forever
+        JournalRecord broken = journal.append(JournalRecord.transfer(idFrom, null, 1l));
+        assertThrows(IllegalStateException.class, () -> journal.awaitDurable(broken));
+
+        assertEquals(DB_CODE.INTERNAL_ERROR, DB_CODE.of(db.makeTransfer(idFrom, idTo, 100l)));
+        assertEquals(DB_CODE.INTERNAL_ERROR, DB_CODE.of(db.makeAtomicTransfer(UUID.randomUUID(),
+                Arrays.asList(new Transfer(idFrom, idTo, 100l), new Transfer(idTo, idFrom, 50l))).get(0)));
+        assertThrows(IllegalStateException.class, () -> db.withdraw(idFrom, 100l));
+        assertThrows(IllegalStateException.class, () -> db.deposit(idTo, 100l));
+        assertThrows(IllegalStateException.class,
+                () -> db.updateAccountById(AccountModel.builder().id(idFrom).firstName("Petr").build()));
+        assertThrows(IllegalStateException.class, () -> db.deleteAccountById(idTo));
+        UUID idNew = UUID.randomUUID();
+        assertThrows(IllegalStateException.class, () -> db.insertAccount(AccountModel.builder().id(idNew).build()));
+
+        assertEquals(new BigDecimal("10.00"), db.selectAccountById(idFrom).getBalance());
+        assertEquals("Ivan", db.selectAccountById(idFrom).getFirstName());
+        assertEquals(new BigDecimal("0.00"), db.selectAccountById(idTo).getBalance());
+        assertNull(db.selectAccountById(idNew));
+        journal.close();
+    }
+
+    @Test
+    public void rotateTest() throws IOException {
+        Path path = folder.newFolder().toPath();
+        FileJournal journal = new FileJournal(path, FsyncPolicy.INTERVAL, 1);
+        journal.replay(record -> fail());
+        journal.append(JournalRecord.adjust(UUID.randomUUID(), 1l));
+        long segment = journal.rotate();
+        journal.awaitDurable(journal.append(JournalRecord.adjust(UUID.randomUUID(), 2l)));
+        journal.deleteSegmentsBefore(segment);
+        journal.close();
+
+        List<JournalRecord> records = replay(path, FsyncPolicy.INTERVAL);
+        assertEquals(1, records.size());
+        assertEquals(2l, records.get(0).getAmount());
+        assertEquals(2l, records.get(0).getSeq());
+    }
+
+    private Path segment(Path path) throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("journal-")).findFirst().get();
+        }
+    }
+
+    private List<JournalRecord> replay(Path path, FsyncPolicy fsyncPolicy) throws IOException {
+        List<JournalRecord> records = new ArrayList<>();
+        FileJournal journal = new FileJournal(path, fsyncPolicy, 10);
+        journal.replay(records::add);
+        journal.close();
+        return records;
+    }
+}
@@ -0,0 +1,60 @@
+package com.revolut;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.client.TransferResponse;
+import com.revolut.db.DB_CODE;
+import com.revolut.model.AccountModel;
+import com.revolut.utils.JsonSerializer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class JsonSerializerTest {
+    private static ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void transferResponseTest() throws Exception {
+        TransferResponse response = DB_CODE.SUCCESS.toResponse(UUID.randomUUID(), UUID.randomUUID(), 123456l);
+        response.setTransactionId(UUID.randomUUID().toString());
+        assertSameAsJackson(response);
+        assertSameAsJackson(new TransferResponse());
+        assertSameAsJackson(TransferResponse.builder()
+                .message("\"quoted\" \\ back/slash \b\f\n\r\t \u0001\u001f \u00e9 \u20ac \ud83d\ude00 \ud800")
+                .amount("-0.05")
+                .transactionDate(new Date(-1l))
+                .build());
+        assertSameAsJackson(TransferResponse.builder().transactionDate(new Date(Long.MAX_VALUE)).build());
+    }
+
+    @Test
+    public void accountModelTest() throws Exception {
+        assertSameAsJackson(AccountModel.builder().id(UUID.randomUUID()).firstName("Ivan").lastName("\u0418\u0432\u0430\u043d\u043e\u0432")
+                .balance(new BigDecimal("1233.00")).build());
+        assertSameAsJackson(AccountModel.builder().id(new UUID(0l, -1l)).balance(new BigDecimal("-0.05")).build());
+        assertSameAsJackson(AccountModel.builder().id(new UUID(Long.MIN_VALUE, 1l)).balance(new BigDecimal("92233720368547758.07")).build());
+        assertSameAsJackson(AccountModel.builder().balance(new BigDecimal("1.5")).build());
+        assertSameAsJackson(new AccountModel());
+    }
+
+    @Test
+    public void bufferReuseTest() throws Exception {
+        AccountModel account = AccountModel.builder().id(UUID.randomUUID()).firstName(new String(new char[100_000]).replace('\0', 'a'))
+                .balance(BigDecimal.ZERO).build();
+        assertSameAsJackson(account);
+        //a shorter response after a longer one doesn't keep its tail
+        assertSameAsJackson(AccountModel.builder().id(UUID.randomUUID()).balance(new BigDecimal("0.00")).build());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonSerializer.write(account, out);
+        assertEquals(mapper.writeValueAsString(account), new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static void assertSameAsJackson(Object value) throws Exception {
+        assertArrayEquals(mapper.writeValueAsBytes(value), JsonSerializer.toBytes(value));
+    }
+}
@@ -0,0 +1,37 @@
+package com.revolut;
+
+import com.revolut.utils.Money;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+public class MoneyTest {
+
+    @Test
+    public void toMinorUnitsTest() {
+        assertEquals(123456l, Money.toMinorUnits(new BigDecimal("1234.56")));
+        assertEquals(100l, Money.toMinorUnits(BigDecimal.ONE));
+        assertEquals(2l, Money.toMinorUnits(new BigDecimal("0.015")));
+        assertEquals(-5l, Money.toMinorUnits(new BigDecimal("-0.05")));
+        assertEquals(new BigDecimal("1234.56"), Money.toBigDecimal(123456l));
+        assertEquals(new BigDecimal("0.00"), Money.toBigDecimal(0l));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toMinorUnitsOverflowTest() {
+        Money.toMinorUnits(new BigDecimal("92233720368547758.08"));
+    }
+
+    @Test
+    public void formatTest() {
+        assertEquals("1234.56", Money.format(123456l));
+        assertEquals("14.00", Money.format(1400l));
+        assertEquals("0.05", Money.format(5l));
+        assertEquals("0.00", Money.format(0l));
+        assertEquals("-0.50", Money.format(-50l));
+        assertEquals("92233720368547758.07", Money.format(Long.MAX_VALUE));
+        assertEquals("-92233720368547758.08", Money.format(Long.MIN_VALUE));
+    }
+}
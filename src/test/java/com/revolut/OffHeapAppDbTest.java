@@ -0,0 +1,186 @@
+package com.revolut;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.db.DB_CODE;
+import com.revolut.db.Transfer;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.offheap.OffHeapAppDb;
+import com.revolut.model.AccountModel;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.revolut.InMemoryDbTest.buildAccount;
+import static org.junit.Assert.*;
+
+public class OffHeapAppDbTest {
+
+    private static final BigDecimal balance = new BigDecimal("1236.00");
+
+    @Test
+    public void accountCrudTest() throws Exception {
+        OffHeapAppDb db = new OffHeapAppDb(new TransferResultStore(), 16);
+        UUID id = UUID.randomUUID();
+        assertNull(db.selectAccountById(id));
+
+        AccountModel created = db.insertAccount(buildAccount(id));
+        assertEquals(id, created.getId());
+        assertEquals("fn", created.getFirstName());
+        assertEquals(balance, db.selectAccountById(id).getBalance());
+        assertThrows(Exception.class, () -> db.insertAccount(buildAccount(id)));
+
+        //names are UTF-8 in the arena, null ones included
+        String name = "\u0418\u0432\u0430\u043d \ud83d\ude00";
+        db.updateAccountById(AccountModel.builder().id(id).firstName(name).build());
+        assertEquals(name, db.selectAccountById(id).getFirstName());
+        assertNull(db.selectAccountById(id).getLastName());
+        assertNull(db.updateAccountById(AccountModel.builder().id(UUID.randomUUID()).build()));
+
+        UUID generated = db.insertAccount(AccountModel.builder().build()).getId();
+        assertEquals(new BigDecimal("0.00"), db.selectAccountById(generated).getBalance());
+        assertThrows(Exception.class, () -> db.insertAccount(AccountModel.builder().balance(BigDecimal.ONE.negate()).build()));
+
+        assertEquals(balance, db.deleteAccountById(id).getBalance());
+        assertNull(db.selectAccountById(id));
+        assertNull(db.deleteAccountById(id));
+        //deleted id can be taken again by a new account
+        db.insertAccount(AccountModel.builder().id(id).balance(BigDecimal.ONE).build());
+        assertEquals(new BigDecimal("1.00"), db.selectAccountById(id).getBalance());
+    }
+
+    @Test
+    public void capacityTest() throws Exception {
+        OffHeapAppDb db = new OffHeapAppDb(new TransferResultStore(), 2);
+        UUID id = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        db.insertAccount(buildAccount(UUID.randomUUID()));
+        Exception ex = assertThrows(Exception.class, () -> db.insertAccount(buildAccount(UUID.randomUUID())));
+        assertEquals("Account store is full, it has room for 2 accounts", ex.getMessage());
+        //records of deleted accounts are not reused
+        db.deleteAccountById(id);
+        assertThrows(Exception.class, () -> db.insertAccount(buildAccount(UUID.randomUUID())));
+    }
+
+    @Test
+    public void manyAccountsTest() throws Exception {
+        int accountCount = 50000;
+        OffHeapAppDb db = new OffHeapAppDb(new TransferResultStore(), accountCount * 2);
+        List<UUID> ids = IntStream.range(0, accountCount).mapToObj(i -> new UUID(i % 7, i)).collect(Collectors.toList());
+        for (UUID id : ids) {
+            db.insertAccount(AccountModel.builder().id(id).lastName(id.toString()).balance(BigDecimal.ONE).build());
+        }
+        //every other one leaves a tombstone in the index
+        for (int i = 0; i < accountCount; i += 2) {
+            assertNotNull(db.deleteAccountById(ids.get(i)));
+        }
+        for (int i = 0; i < accountCount; i++) {
+            AccountModel account = db.selectAccountById(ids.get(i));
+            if (i % 2 == 0) {
+                assertNull(account);
+            } else {
+                assertEquals(ids.get(i).toString(), account.getLastName());
+            }
+        }
+        for (int i = 0; i < accountCount; i += 2) {
+            db.insertAccount(AccountModel.builder().id(ids.get(i)).build());
+            assertNotNull(db.selectAccountById(ids.get(i)));
+        }
+        assertTrue(db.allocatedBytes() > 0);
+    }
+
+    @Test
+    public void makeTransferTest() throws Exception {
+        OffHeapAppDb db = new OffHeapAppDb();
+        UUID idFrom = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idTo = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+
+        assertEquals("SUCCESS", db.makeTransfer(idFrom, idTo, 23600l).getTransactionState());
+        TransferResponse response = db.makeTransfer(idFrom, idTo, 100001l);
+        assertEquals("Balance is not enough.", response.getMessage());
+        assertEquals(new BigDecimal("1000.00"), db.selectAccountById(idFrom).getBalance());
+        assertEquals(new BigDecimal("1472.00"), db.selectAccountById(idTo).getBalance());
+
+        assertEquals(DB_CODE.BALANCE_OVERFLOW, db.deposit(idTo, Long.MAX_VALUE));
+        assertEquals(DB_CODE.SUCCESS, db.withdraw(idFrom, 1l));
+        assertEquals(DB_CODE.FROM_ACCOUNT_NOT_FOUND, db.withdraw(UUID.randomUUID(), 1l));
+        assertEquals(DB_CODE.TO_ACCOUNT_NOT_FOUND, db.deposit(UUID.randomUUID(), 1l));
+
+        response = db.makeTransfer(UUID.randomUUID(), idTo, 1l);
+        assertEquals("The account from which the transfer is made does not exist.", response.getMessage());
+        db.deleteAccountById(idTo);
+        response = db.makeTransfer(idFrom, idTo, 1l);
+        assertEquals("The account to which the transfer is made does not exist.", response.getMessage());
+        assertEquals(DB_CODE.TO_ACCOUNT_NOT_FOUND, db.deposit(idTo, 1l));
+        assertEquals(new BigDecimal("999.99"), db.selectAccountById(idFrom).getBalance());
+    }
+
+    @Test
+    public void makeAtomicTransferTest() throws Exception {
+        OffHeapAppDb db = new OffHeapAppDb();
+        UUID idA = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idB = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idC = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+
+        List<TransferResponse> responses = db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(
+                new Transfer(idA, idB, 123600l),
+                new Transfer(idB, idC, 200000l),
+                new Transfer(idC, idA, 10000l)));
+        responses.forEach(response -> assertEquals("SUCCESS", response.getTransactionState()));
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(idA).getBalance());
+        assertEquals(new BigDecimal("472.00"), db.selectAccountById(idB).getBalance());
+        assertEquals(new BigDecimal("3136.00"), db.selectAccountById(idC).getBalance());
+
+        responses = db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(
+                new Transfer(idC, idA, 100000l),
+                new Transfer(idA, idB, 500000l)));
+        assertEquals("Another transfer of the atomic batch failed.", responses.get(0).getMessage());
+        assertEquals("Balance is not enough.", responses.get(1).getMessage());
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(idA).getBalance());
+        assertEquals(new BigDecimal("3136.00"), db.selectAccountById(idC).getBalance());
+
+        responses = db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(
+                new Transfer(idA, idB, 100l),
+                new Transfer(idB, UUID.randomUUID(), 100l)));
+        assertEquals("The account to which the transfer is made does not exist.", responses.get(1).getMessage());
+        assertEquals(new BigDecimal("100.00"), db.selectAccountById(idA).getBalance());
+    }
+
+    @Test
+    public void concurrentTransfersTest() throws Exception {
+        OffHeapAppDb db = new OffHeapAppDb(new TransferResultStore(), 1000);
+        int accountCount = 50;
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < accountCount; i++) {
+            ids.add(db.insertAccount(buildAccount(UUID.randomUUID())).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        IntStream.range(0, 8).forEach(t -> executor.execute(() -> {
+            Random random = new Random(t);
+            for (int i = 0; i < 20000; i++) {
+                UUID from = ids.get(random.nextInt(accountCount));
+                UUID to = ids.get(random.nextInt(accountCount));
+                if (i % 10 == 0) {
+                    db.makeAtomicTransfer(UUID.randomUUID(), Arrays.asList(new Transfer(from, to, random.nextInt(5000)),
+                            new Transfer(to, ids.get(random.nextInt(accountCount)), random.nextInt(5000))));
+                } else {
+                    db.makeTransfer(from, to, random.nextInt(5000));
+                }
+            }
+        }));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        BigDecimal total = ids.stream().map(id -> db.selectAccountById(id).getBalance()).reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(balance.multiply(BigDecimal.valueOf(accountCount)), total);
+    }
+}
@@ -0,0 +1,206 @@
+package com.revolut;
+
+import com.revolut.client.TransferBatchItem;
+import com.revolut.client.TransferResponse;
+import com.revolut.db.AppDb;
+import com.revolut.db.DB_CODE;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.model.AccountModel;
+import com.revolut.transaction.ShardedTransactionProcessor;
+import com.revolut.transfer.BatchMode;
+import com.revolut.transfer.TransferService;
+import com.revolut.transfer.TransferServiceImpl;
+import com.revolut.utils.Money;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.revolut.InMemoryDbTest.buildAccount;
+import static org.junit.Assert.*;
+
+public class ShardedTransactionProcessorTest {
+
+    private AppDb db;
+    private TransferService transferService;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        db = new InMemoryAppDb();
+        transferService = new TransferServiceImpl(db);
+        executor = Executors.newSingleThreadExecutor();
+        executor.execute(new ShardedTransactionProcessor(db, transferService, 4));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void transferStressTest() throws Exception {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            ids.add(db.insertAccount(buildAccount(UUID.randomUUID())).getId());
+        }
+
+        Random random = new Random(42);
+        List<UUID> transactionIds = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            UUID idFrom = ids.get(random.nextInt(ids.size()));
+            UUID idTo = ids.get(random.nextInt(ids.size()));
+            transactionIds.add(transferService.queueTransferRequest(idFrom.toString(), idTo.toString(),
+                    String.valueOf(random.nextInt(300)), false));
+        }
+
+        for (UUID transactionId : transactionIds) {
+            TransferResponse response = transferService.getTransferResponse(transactionId, 5000l).get();
+            assertNotNull(response);
+            assertEquals(transactionId.toString(), response.getTransactionId());
+        }
+
+        BigDecimal total = ids.stream()
+                .map(id -> db.selectAccountById(id).getBalance())
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertEquals(new BigDecimal("1236.00").multiply(BigDecimal.valueOf(ids.size())), total);
+        ids.forEach(id -> assertTrue(db.selectAccountById(id).getBalance().signum() >= 0));
+    }
+
+    @Test
+    public void transferToMissingAccountIsRefundedTest() throws Exception {
+        UUID idFrom = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID transactionId = transferService.queueTransferRequest(idFrom.toString(), UUID.randomUUID().toString(),
+                "100", false);
+
+        TransferResponse response = transferService.getTransferResponse(transactionId, 5000l).get();
+
+        assertEquals("FAILED", response.getTransactionState());
+        assertEquals("The account to which the transfer is made does not exist.", response.getMessage());
+        assertEquals(new BigDecimal("1236.00"), db.selectAccountById(idFrom).getBalance());
+    }
+
+    @Test
+    public void transferOverflowIsRefundedTest() throws Exception {
+        UUID idFrom = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idTo = db.insertAccount(AccountModel.builder().id(UUID.randomUUID())
+                .balance(Money.toBigDecimal(Long.MAX_VALUE)).build()).getId();
+        UUID transactionId = transferService.queueTransferRequest(idFrom.toString(), idTo.toString(), "100", false);
+
+        TransferResponse response = transferService.getTransferResponse(transactionId, 5000l).get();
+
+        assertEquals(DB_CODE.BALANCE_OVERFLOW, DB_CODE.of(response));
+        assertEquals(new BigDecimal("1236.00"), db.selectAccountById(idFrom).getBalance());
+        assertEquals(Money.toBigDecimal(Long.MAX_VALUE), db.selectAccountById(idTo).getBalance());
+    }
+
+    @Test
+    public void transferNotEnoughBalanceTest() throws Exception {
+        UUID idFrom = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID idTo = db.insertAccount(buildAccount(UUID.randomUUID())).getId();
+        UUID transactionId = transferService.queueTransferRequest(idFrom.toString(), idTo.toString(),
+                "5000", false);
+
+        TransferResponse response = transferService.getTransferResponse(transactionId, 5000l).get();
+
+        assertEquals("FAILED", response.getTransactionState());
+        assertEquals("Balance is not enough.", response.getMessage());
+        assertEquals(response, db.selectTransferResultById(transactionId));
+    }
+
+    @Test
+    public void transferWithWrongAccountIdTest() throws Exception {
+        //rejected when queued, answered 400
+        try {
+            transferService.queueTransferRequest("wrong", UUID.randomUUID().toString(), "5000", false);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //expected
+        }
+        assertNull(transferService.getNextRequest());
+    }
+
+    @Test
+    public void shutdownDrainsQueueTest() throws Exception {
+        TransferService drained = new TransferServiceImpl(db);
+        ShardedTransactionProcessor processor = new ShardedTransactionProcessor(db, drained, 4);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            ids.add(db.insertAccount(buildAccount(UUID.randomUUID())).getId());
+        }
+        List<UUID> transactionIds = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            transactionIds.add(drained.queueTransferRequest(ids.get(i % ids.size()).toString(),
+                    ids.get((i + 5) % ids.size()).toString(), "1", true));
+        }
+        //missing receivers send refunds between the shards while they drain
+        for (int i = 0; i < 50; i++) {
+            transactionIds.add(drained.queueTransferRequest(ids.get(i % ids.size()).toString(),
+                    UUID.randomUUID().toString(), "1", true));
+        }
+        Thread thread = new Thread(processor);
+        thread.start();
+
+        assertTrue(processor.shutdown(5, TimeUnit.SECONDS));
+        thread.join(1000l);
+        assertFalse(thread.isAlive());
+        for (UUID transactionId : transactionIds) {
+            assertNotNull(db.selectTransferResultById(transactionId));
+        }
+        assertEquals(new BigDecimal("1236.00").multiply(BigDecimal.valueOf(ids.size())), ids.stream()
+                .map(id -> db.selectAccountById(id).getBalance())
+                .reduce(BigDecimal.ZERO, BigDecimal::add));
+    }
+
+    @Test
+    public void transferBatchTest() throws Exception {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            ids.add(db.insertAccount(buildAccount(UUID.randomUUID())).getId());
+        }
+        List<TransferBatchItem> ring = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            ring.add(TransferBatchItem.builder().idFrom(ids.get(i).toString())
+                    .idTo(ids.get((i + 1) % ids.size()).toString()).amount("100").build());
+        }
+        List<UUID> independent = transferService.queueTransferBatch(ring, BatchMode.INDEPENDENT);
+        List<UUID> atomic = transferService.queueTransferBatch(ring, BatchMode.ATOMIC);
+        ring.get(3).setAmount("100000");
+        List<UUID> failed = transferService.queueTransferBatch(ring, BatchMode.ATOMIC);
+
+        for (UUID transactionId : independent) {
+            assertEquals("SUCCESS", awaitResult(transactionId).getTransactionState());
+        }
+        for (UUID transactionId : atomic) {
+            assertEquals("SUCCESS", awaitResult(transactionId).getTransactionState());
+        }
+        assertEquals("Balance is not enough.", awaitResult(failed.get(3)).getMessage());
+        assertEquals("Another transfer of the atomic batch failed.", awaitResult(failed.get(0)).getMessage());
+        for (UUID id : ids) {
+            assertEquals(new BigDecimal("1236.00"), db.selectAccountById(id).getBalance());
+        }
+    }
+
+    private TransferResponse awaitResult(UUID transactionId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        TransferResponse response;
+        while (Objects.isNull(response = db.selectTransferResultById(transactionId)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return response;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongShardCountTest() {
+        new ShardedTransactionProcessor(db, transferService, 0);
+    }
+}
@@ -0,0 +1,79 @@
+package com.revolut;
+
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.Snapshotter;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.journal.FileJournal;
+import com.revolut.db.journal.FsyncPolicy;
+import com.revolut.model.AccountModel;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Compares restart time from the journal alone with restart time from a snapshot plus an empty journal.
+ * Not a test, run it with a big enough heap, e.g. for the default 10M accounts and 10M transfers:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.revolut.SnapshotStartupBenchmark \
+ *     -Dexec.args="10000000 10000000"    (with MAVEN_OPTS=-Xmx8g)
+ * </pre>
+ */
+public class SnapshotStartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int accountCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int transferCount = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        Path directory = Files.createTempDirectory("snapshot-benchmark");
+        try {
+            UUID[] ids = new UUID[accountCount];
+            FileJournal journal = new FileJournal(directory, FsyncPolicy.OS, 10);
+            InMemoryAppDb db = new InMemoryAppDb(new TransferResultStore(), journal);
+            db.recover();
+            long started = System.nanoTime();
+            for (int i = 0; i < accountCount; i++) {
+                ids[i] = UUID.randomUUID();
+                db.insertAccount(AccountModel.builder().id(ids[i]).balance(new BigDecimal(1000)).build());
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < transferCount; i++) {
+                db.makeTransfer(ids[random.nextInt(accountCount)], ids[random.nextInt(accountCount)], random.nextInt(10000));
+            }
+            journal.close();
+            print("populated", started);
+            db = null;
+
+            started = System.nanoTime();
+            journal = new FileJournal(directory, FsyncPolicy.OS, 10);
+            db = new InMemoryAppDb(new TransferResultStore(), journal);
+            db.recover();
+            print("restart from journal", started);
+
+            started = System.nanoTime();
+            new Snapshotter(db, journal, directory).snapshot();
+            journal.close();
+            print("snapshot", started);
+            db = null;
+
+            started = System.nanoTime();
+            journal = new FileJournal(directory, FsyncPolicy.OS, 10);
+            db = new InMemoryAppDb(new TransferResultStore(), journal);
+            new Snapshotter(db, journal, directory).load();
+            db.recover();
+            print("restart from snapshot", started);
+            journal.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void print(String phase, long started) {
+        System.out.printf("%-24s %8d ms%n", phase, (System.nanoTime() - started) / 1_000_000);
+    }
+}
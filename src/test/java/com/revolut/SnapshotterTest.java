@@ -0,0 +1,136 @@
+package com.revolut;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.db.DB_CODE;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.db.Snapshotter;
+import com.revolut.db.TransferResultStore;
+import com.revolut.db.journal.FileJournal;
+import com.revolut.db.journal.FsyncPolicy;
+import com.revolut.model.AccountModel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static com.revolut.InMemoryDbTest.buildTransferResponse;
+import static org.junit.Assert.*;
+
+public class SnapshotterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotAndLoadTest() throws Exception {
+        Path path = folder.newFolder().toPath();
+        UUID idFrom = UUID.randomUUID();
+        UUID idTo = UUID.randomUUID();
+        UUID idDeleted = UUID.randomUUID();
+        UUID transactionId = UUID.randomUUID();
+
+        FileJournal journal = new FileJournal(path, FsyncPolicy.ALWAYS, 10);
+        InMemoryAppDb db = new InMemoryAppDb(new TransferResultStore(), journal);
+        Snapshotter snapshotter = new Snapshotter(db, journal, path);
+        assertEquals(0, snapshotter.load());
+        db.recover();
+        db.insertAccount(AccountModel.builder().id(idFrom).firstName("Ivan").balance(new BigDecimal("100.00")).build());
+        db.insertAccount(AccountModel.builder().id(idTo).balance(BigDecimal.ZERO).build());
+        db.insertAccount(AccountModel.builder().id(idDeleted).balance(BigDecimal.ONE).build());
+        db.makeTransfer(idFrom, idTo, 1000l);
+        TransferResponse result = buildTransferResponse(transactionId);
+        db.insertTransferResult(transactionId, result);
+        snapshotter.snapshot();
+
+        //changes after the snapshot come from the journal
+        db.makeTransfer(idFrom, idTo, 500l);
+        db.deleteAccountById(idDeleted);
+        snapshotter.snapshot();
+        db.updateAccountById(AccountModel.builder().id(idTo).firstName("Petr").build());
+        assertEquals(DB_CODE.SUCCESS, db.deposit(idTo, 1l));
+        journal.close();
+
+        assertEquals(1, files(path, "snapshot-").size());
+        assertEquals(1, files(path, "journal-").size());
+
+        journal = new FileJournal(path, FsyncPolicy.ALWAYS, 10);
+        InMemoryAppDb recovered = new InMemoryAppDb(new TransferResultStore(), journal);
+        assertEquals(2, new Snapshotter(recovered, journal, path).load());
+        recovered.recover();
+        assertEquals(new BigDecimal("85.00"), recovered.selectAccountById(idFrom).getBalance());
+        assertEquals("Ivan", recovered.selectAccountById(idFrom).getFirstName());
+        assertEquals(new BigDecimal("15.01"), recovered.selectAccountById(idTo).getBalance());
+        assertEquals("Petr", recovered.selectAccountById(idTo).getFirstName());
+        assertNull(recovered.selectAccountById(idDeleted));
+        TransferResponse response = recovered.selectTransferResultById(transactionId);
+        assertEquals(result, response);
+
+        //new records must not be taken for ones already in the snapshot
+        recovered.makeTransfer(idFrom, idTo, 100l);
+        journal.close();
+        journal = new FileJournal(path, FsyncPolicy.ALWAYS, 10);
+        recovered = new InMemoryAppDb(new TransferResultStore(), journal);
+        new Snapshotter(recovered, journal, path).load();
+        recovered.recover();
+        assertEquals(new BigDecimal("84.00"), recovered.selectAccountById(idFrom).getBalance());
+        journal.close();
+    }
+
+    @Test
+    public void snapshotUnderLoadTest() throws Exception {
+        Path path = folder.newFolder().toPath();
+        int accountCount = 100;
+        FileJournal journal = new FileJournal(path, FsyncPolicy.OS, 10);
+        InMemoryAppDb db = new InMemoryAppDb(new TransferResultStore(), journal);
+        Snapshotter snapshotter = new Snapshotter(db, journal, path);
+        db.recover();
+        List<UUID> ids = IntStream.range(0, accountCount).mapToObj(i -> UUID.randomUUID()).collect(Collectors.toList());
+        for (UUID id : ids) {
+            db.insertAccount(AccountModel.builder().id(id).balance(new BigDecimal("100.00")).build());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        IntStream.range(0, 4).forEach(t -> executor.execute(() -> {
+            Random random = new Random(t);
+            for (int i = 0; i < 20000; i++) {
+                db.makeTransfer(ids.get(random.nextInt(accountCount)), ids.get(random.nextInt(accountCount)), random.nextInt(5000));
+            }
+        }));
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+            snapshotter.snapshot();
+        }
+        journal.close();
+
+        journal = new FileJournal(path, FsyncPolicy.OS, 10);
+        InMemoryAppDb recovered = new InMemoryAppDb(new TransferResultStore(), journal);
+        new Snapshotter(recovered, journal, path).load();
+        recovered.recover();
+        long total = 0;
+        for (UUID id : ids) {
+            assertEquals(db.selectAccountById(id).getBalance(), recovered.selectAccountById(id).getBalance());
+            total += recovered.selectAccountById(id).getBalance().movePointRight(2).longValueExact();
+        }
+        assertEquals(accountCount * 10000l, total);
+        journal.close();
+    }
+
+    private List<Path> files(Path path, String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(file -> file.getFileName().toString().startsWith(prefix)).collect(Collectors.toList());
+        }
+    }
+}
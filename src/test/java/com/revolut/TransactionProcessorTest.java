@@ -2,10 +2,22 @@ package com.revolut;
 
 import com.revolut.client.TransferResponse;
 import com.revolut.db.AppDb;
+import com.revolut.db.DB_CODE;
+import com.revolut.db.InMemoryAppDb;
+import com.revolut.metrics.TransferMetrics;
+import com.revolut.transaction.ThreadMode;
 import com.revolut.transaction.TransactionProcessor;
+import com.revolut.transaction.WorkerPool;
+import com.revolut.transfer.AdmissionControl;
+import com.revolut.transfer.AdmissionPolicy;
+import com.revolut.transfer.RejectReason;
+import com.revolut.transfer.TransferRejectedException;
 import com.revolut.transfer.TransferRequest;
 import com.revolut.transfer.TransferService;
+import com.revolut.transfer.TransferServiceImpl;
+import com.revolut.transfer.WaitStrategy;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.math.BigDecimal;
 import java.util.Date;
@@ -14,40 +26,32 @@ import java.util.concurrent.*;
 
 import static java.util.UUID.fromString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 public class TransactionProcessorTest {
     @Test
-    public void runTest() throws ExecutionException, InterruptedException {
-        Long timeToWait = 1000l;
+    public void runTest() throws Exception {
         UUID transactionId = UUID.randomUUID();
 
-        Callable<Long> callable = () -> {
-            long timeInMills = System.currentTimeMillis();
-            synchronized (transactionId) {
-                try {
-                    transactionId.wait(timeToWait);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-            timeInMills = System.currentTimeMillis() - timeInMills;
-            return timeInMills;
-        };
-
         TransferRequest request = TransferRequest.builder()
                 .accountIdFrom(UUID.randomUUID().toString())
                 .accountIdTo(UUID.randomUUID().toString())
-                .amount(BigDecimal.valueOf(1456l))
+                .amount(145600l)
                 .uuid(transactionId)
                 .async(false)
                 .build();
 
         TransferResponse response = TransferResponse.builder()
-                .amount(request.getAmount().toString())
+                .amount("1456.00")
                 .message("Test Message")
                 .transactionState("SUCCESS")
                 .transactionDate(new Date())
@@ -57,19 +61,178 @@ public class TransactionProcessorTest {
         AppDb db = mock(AppDb.class);
         TransferService transferService = mock(TransferService.class);
 
-        when(transferService.getNextRequest()).thenReturn(null).thenReturn(request).thenReturn(null);
+        when(transferService.awaitNextRequest(anyLong(), any())).thenReturn(null).thenReturn(request).thenReturn(null);
         when(db.makeTransfer(eq(fromString(request.getAccountIdFrom())), eq(fromString(request.getAccountIdTo())),
-                eq(request.getAmount()), any())).thenReturn(response);
+                eq(request.getAmount()))).thenReturn(response);
 
         TransactionProcessor tp = new TransactionProcessor(db, transferService);
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
-        Future<Long> future = executorService.submit(callable);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
         executorService.execute(tp);
-        executorService.shutdown();
-        executorService.awaitTermination(2, TimeUnit.SECONDS);
 
-        assertTrue(future.get() < timeToWait);
+        verify(transferService, timeout(1000l)).completeTransferRequest(request, response);
+        executorService.shutdownNow();
+
         assertEquals(transactionId.toString(), response.getTransactionId());
         verify(db, times(1)).insertTransferResult(transactionId, response);
     }
+
+    @Test
+    public void runStopsOnInterruptTest() throws Exception {
+        AppDb db = mock(AppDb.class);
+        TransferService transferService = mock(TransferService.class);
+        when(transferService.awaitNextRequest(anyLong(), any())).thenThrow(new InterruptedException());
+
+        Thread thread = new Thread(new TransactionProcessor(db, transferService));
+        thread.start();
+        thread.join(1000l);
+
+        assertFalse(thread.isAlive());
+        verifyNoInteractions(db);
+    }
+
+    @Test
+    public void shutdownDrainsQueueTest() throws Exception {
+        for (WorkerPool pool : WorkerPool.values()) {
+            AppDb db = mock(AppDb.class);
+            TransferService transferService = mock(TransferService.class);
+            TransferRequest first = buildRequest();
+            TransferRequest second = buildRequest();
+            when(transferService.getMetrics()).thenReturn(new TransferMetrics());
+            when(transferService.awaitNextRequest(anyLong(), any())).thenReturn(null);
+            //both are still queued when the shutdown starts
+            when(transferService.getNextRequest()).thenReturn(first, second, null);
+            when(db.makeTransfer(any(), any(), anyLong())).thenAnswer(invocation -> {
+                Thread.sleep(100l);
+                return TransferResponse.builder().transactionState("SUCCESS").build();
+            });
+
+            TransactionProcessor tp = new TransactionProcessor(db, transferService, ThreadMode.PLATFORM, pool, 2);
+            Thread thread = new Thread(tp);
+            thread.start();
+            assertTrue(tp.shutdown(5, TimeUnit.SECONDS));
+            thread.join(1000l);
+
+            assertFalse(thread.isAlive());
+            verify(transferService, times(1)).completeTransferRequest(eq(first), any());
+            verify(transferService, times(1)).completeTransferRequest(eq(second), any());
+        }
+    }
+
+    @Test
+    public void nettingTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID idA = db.insertAccount(InMemoryDbTest.buildAccount(UUID.randomUUID())).getId();
+        UUID idB = db.insertAccount(InMemoryDbTest.buildAccount(UUID.randomUUID())).getId();
+        UUID idC = db.insertAccount(InMemoryDbTest.buildAccount(UUID.randomUUID())).getId();
+        TransferRequest first = buildRequest(idA, idB, 100000l);
+        TransferRequest second = buildRequest(idB, idA, 20000l);
+        TransferRequest third = buildRequest(idA, idB, 50000l);
+        TransferRequest other = buildRequest(idC, idA, 100l);
+        TransferService transferService = mock(TransferService.class);
+        when(transferService.getMetrics()).thenReturn(new TransferMetrics());
+        when(transferService.awaitNextRequest(anyLong(), any())).thenReturn(first, second, third, other, null);
+
+        AppDb spied = spy(db);
+        TransactionProcessor tp = new TransactionProcessor(spied, transferService, ThreadMode.PLATFORM, WorkerPool.FIXED,
+                2, TimeUnit.SECONDS.toMicros(1));
+        Thread thread = new Thread(tp);
+        thread.start();
+
+        //A<->B transfers are netted in queue order, the C->A one runs alone
+        ArgumentCaptor<TransferResponse> responses = ArgumentCaptor.forClass(TransferResponse.class);
+        verify(transferService, timeout(5000l).times(4)).completeTransferRequest(any(), responses.capture());
+        verify(spied, times(1)).makeNettedTransfer(any(), argThat(transfers -> transfers.size() == 3));
+        verify(spied, times(1)).makeTransfer(idC, idA, 100l);
+        assertEquals(new BigDecimal("437.00"), db.selectAccountById(idA).getBalance());
+        assertEquals(new BigDecimal("2036.00"), db.selectAccountById(idB).getBalance());
+        assertEquals(1, responses.getAllValues().stream()
+                .filter(response -> "Balance is not enough.".equals(response.getMessage()))
+                .count());
+        assertTrue(tp.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void nettingBadIdTest() throws Exception {
+        AppDb db = new InMemoryAppDb();
+        UUID idA = db.insertAccount(InMemoryDbTest.buildAccount(UUID.randomUUID())).getId();
+        UUID idB = db.insertAccount(InMemoryDbTest.buildAccount(UUID.randomUUID())).getId();
+        TransferRequest bad = TransferRequest.builder()
+                .accountIdFrom("not-an-id")
+                .accountIdTo(idB.toString())
+                .amount(100l)
+                .uuid(UUID.randomUUID())
+                .async(true)
+                .build();
+        TransferRequest good = buildRequest(idA, idB, 100l);
+        TransferService transferService = mock(TransferService.class);
+        when(transferService.getMetrics()).thenReturn(new TransferMetrics());
+        when(transferService.awaitNextRequest(anyLong(), any())).thenReturn(bad, good, null);
+
+        TransactionProcessor tp = new TransactionProcessor(db, transferService, ThreadMode.PLATFORM, WorkerPool.FIXED,
+                1, 1000l);
+        Thread thread = new Thread(tp);
+        thread.start();
+
+        //the bad one fails alone and the processor keeps going
+        verify(transferService, timeout(5000l)).completeTransferRequest(eq(bad),
+                argThat(response -> DB_CODE.INTERNAL_ERROR.equals(DB_CODE.of(response))));
+        verify(transferService, timeout(5000l)).completeTransferRequest(eq(good),
+                argThat(response -> DB_CODE.SUCCESS.equals(DB_CODE.of(response))));
+        assertTrue(thread.isAlive());
+        assertTrue(tp.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void admissionCountsRunningTransfersTest() throws Exception {
+        AppDb db = mock(AppDb.class);
+        CountDownLatch release = new CountDownLatch(1);
+        when(db.makeTransfer(any(), any(), anyLong())).thenAnswer(invocation -> {
+            release.await();
+            return DB_CODE.SUCCESS.toResponse((UUID) invocation.getArgument(0), invocation.getArgument(1), 100l);
+        });
+        TransferService transferService = new TransferServiceImpl(db, WaitStrategy.BLOCKING, new TransferMetrics(),
+                new AdmissionControl(AdmissionPolicy.REJECT, 2, 0));
+        TransactionProcessor tp = new TransactionProcessor(db, transferService, ThreadMode.PLATFORM, WorkerPool.FIXED, 1);
+        Thread thread = new Thread(tp);
+        thread.start();
+
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        transferService.queueTransferRequest(idFrom, idTo, "1.00", true);
+        transferService.queueTransferRequest(idFrom, idTo, "1.00", true);
+        //one is running and the other waits for the worker, both left the transfer queue
+        verify(db, timeout(1000l)).makeTransfer(any(), any(), anyLong());
+        assertNull(transferService.getNextRequest());
+        try {
+            transferService.queueTransferRequest(idFrom, idTo, "1.00", true);
+            fail();
+        } catch (TransferRejectedException ex) {
+            assertEquals(RejectReason.QUEUE_FULL, ex.getReason());
+        }
+
+        release.countDown();
+        verify(db, timeout(1000l).times(2)).insertTransferResult(any(), any());
+        assertNotNull(transferService.queueTransferRequest(idFrom, idTo, "1.00", true));
+        assertTrue(tp.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    private static TransferRequest buildRequest(UUID from, UUID to, long amount) {
+        return TransferRequest.builder()
+                .accountIdFrom(from.toString())
+                .accountIdTo(to.toString())
+                .amount(amount)
+                .uuid(UUID.randomUUID())
+                .async(false)
+                .build();
+    }
+
+    private static TransferRequest buildRequest() {
+        return TransferRequest.builder()
+                .accountIdFrom(UUID.randomUUID().toString())
+                .accountIdTo(UUID.randomUUID().toString())
+                .amount(100l)
+                .uuid(UUID.randomUUID())
+                .async(false)
+                .build();
+    }
 }
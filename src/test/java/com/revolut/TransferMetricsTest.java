@@ -0,0 +1,86 @@
+package com.revolut;
+
+import com.revolut.db.DB_CODE;
+import com.revolut.metrics.LatencyHistogram;
+import com.revolut.metrics.TransferMetrics;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class TransferMetricsTest {
+
+    @Test
+    public void histogramPrecisionTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().valueAt(0.99));
+        for (long value = 1; value <= 1_000_000; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1_000_000, snapshot.count());
+        assertEquals(500_000_500_000l, histogram.sum());
+        for (double quantile : new double[]{0.001, 0.5, 0.9, 0.99, 0.999, 1.0}) {
+            long exact = (long) (quantile * 1_000_000);
+            long reported = snapshot.valueAt(quantile);
+            assertTrue(quantile + ": " + reported, reported >= exact && reported <= exact * 1.016);
+        }
+
+        //too long and negative times are still counted
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+        assertEquals(1_000_002, histogram.snapshot().count());
+        assertEquals(0, histogram.snapshot().valueAt(0));
+        assertTrue(histogram.snapshot().valueAt(1.0) > TimeUnit.MINUTES.toNanos(30));
+    }
+
+    @Test
+    public void concurrentRecordTest() throws InterruptedException {
+        TransferMetrics metrics = new TransferMetrics();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        IntStream.range(0, 4).forEach(t -> executor.execute(() -> {
+            Random random = new Random(t);
+            for (int i = 0; i < 100_000; i++) {
+                long queuedAt = System.nanoTime();
+                metrics.recordTransfer(queuedAt, queuedAt + random.nextInt(1000), queuedAt + 1000,
+                        i % 10 == 0 ? DB_CODE.BALANCE_NOT_ENOUGH : DB_CODE.SUCCESS);
+            }
+        }));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(360_000, metrics.results(DB_CODE.SUCCESS));
+        assertEquals(40_000, metrics.results(DB_CODE.BALANCE_NOT_ENOUGH));
+        assertEquals(400_000, metrics.getExecution().snapshot().count());
+        assertEquals(400_000 * 1000l, metrics.getEndToEnd().sum());
+        assertEquals(metrics.getEndToEnd().sum(), metrics.getQueueWait().sum() + metrics.getExecution().sum());
+    }
+
+    @Test
+    public void scrapeTest() {
+        TransferMetrics metrics = new TransferMetrics();
+        AtomicLong depth = new AtomicLong(7);
+        metrics.gauge("transfer_queue_depth", "Queued requests.", depth::get);
+        metrics.recordTransfer(0, 2_000, 5_000, DB_CODE.SUCCESS);
+        metrics.recordTransfer(0, 1_000, 3_000, DB_CODE.TO_ACCOUNT_NOT_FOUND);
+
+        String text = metrics.scrape();
+        assertTrue(text.contains("# TYPE transfer_queue_wait_seconds summary\n"));
+        assertTrue(text.contains("transfer_queue_wait_seconds_count 2\n"));
+        assertTrue(text.contains("transfer_end_to_end_seconds_sum 8.0E-6\n"));
+        assertTrue(text.contains("transfer_execution_seconds{quantile=\"1.0\"} 3.007E-6\n"));
+        assertTrue(text.contains("# TYPE transfer_results_total counter\n"));
+        assertTrue(text.contains("transfer_results_total{code=\"SUCCESS\"} 1\n"));
+        assertTrue(text.contains("transfer_results_total{code=\"TO_ACCOUNT_NOT_FOUND\"} 1\n"));
+        assertTrue(text.contains("transfer_results_total{code=\"BALANCE_NOT_ENOUGH\"} 0\n"));
+        assertTrue(text.contains("# TYPE transfer_queue_depth gauge\ntransfer_queue_depth 7\n"));
+        depth.set(3);
+        assertTrue(metrics.scrape().contains("transfer_queue_depth 3\n"));
+    }
+}
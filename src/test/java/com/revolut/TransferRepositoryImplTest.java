@@ -1,5 +1,6 @@
 package com.revolut;
 
+import com.revolut.client.AppException;
 import com.revolut.client.TransferResponse;
 import com.revolut.db.AppDb;
 import com.revolut.repository.TransferRepository;
@@ -11,11 +12,12 @@ import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.*;
 
 public class TransferRepositoryImplTest {
     @Test
-    public void getTransferResultByIdTest() {
+    public void getTransferResultByIdTest() throws Exception {
         UUID transactionId = UUID.randomUUID();
         TransferResponse response = TransferResponse.builder()
                 .amount("1222")
@@ -41,4 +43,20 @@ public class TransferRepositoryImplTest {
         assertEquals(response.getTransactionState() ,mockResponse.getTransactionState());
         verify(db, times(1)).selectTransferResultById(transactionId);
     }
+
+    @Test
+    public void getTransferResultByIdNotFoundTest() {
+        UUID transactionId = UUID.randomUUID();
+        AppDb db = mock(AppDb.class);
+        TransferRepository repository = new TransferRepositoryImpl(db);
+        when(db.selectTransferResultById(transactionId)).thenReturn(null);
+
+        when(db.isTransferResultExpired(transactionId)).thenReturn(false);
+        AppException exception = assertThrows(AppException.class, () -> repository.getTransferResultById(transactionId));
+        assertEquals(404, exception.getHttpCode());
+
+        when(db.isTransferResultExpired(transactionId)).thenReturn(true);
+        exception = assertThrows(AppException.class, () -> repository.getTransferResultById(transactionId));
+        assertEquals(410, exception.getHttpCode());
+    }
 }
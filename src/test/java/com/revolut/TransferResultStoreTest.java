@@ -0,0 +1,99 @@
+package com.revolut;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.db.TransferResultStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static com.revolut.InMemoryDbTest.buildTransferResponse;
+import static org.junit.Assert.*;
+
+public class TransferResultStoreTest {
+
+    @Test
+    public void putAndGetTest() {
+        TransferResultStore store = new TransferResultStore();
+        UUID transactionId = UUID.randomUUID();
+        TransferResponse response = buildTransferResponse(transactionId);
+
+        assertNull(store.get(transactionId));
+        assertFalse(store.isExpired(transactionId));
+
+        store.put(transactionId, response);
+
+        assertSame(response, store.get(transactionId));
+        assertFalse(store.isExpired(transactionId));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void expiryTest() throws InterruptedException {
+        TransferResultStore store = new TransferResultStore(50, 100);
+        UUID transactionId = UUID.randomUUID();
+        store.put(transactionId, buildTransferResponse(transactionId));
+
+        Thread.sleep(100l);
+
+        assertNull(store.get(transactionId));
+        assertTrue(store.isExpired(transactionId));
+
+        //next write evicts the expired entry, but it is still reported as expired
+        UUID nextId = UUID.randomUUID();
+        store.put(nextId, buildTransferResponse(nextId));
+        assertEquals(1, store.size());
+        assertTrue(store.isExpired(transactionId));
+        assertFalse(store.isExpired(UUID.randomUUID()));
+    }
+
+    @Test
+    public void maxSizeTest() {
+        TransferResultStore store = new TransferResultStore(TimeUnit.HOURS.toMillis(1), 10);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            UUID transactionId = UUID.randomUUID();
+            ids.add(transactionId);
+            store.put(transactionId, buildTransferResponse(transactionId));
+        }
+
+        assertEquals(10, store.size());
+        //ids of evicted results are bounded by the same max size
+        ids.subList(0, 5).forEach(id -> {
+            assertNull(store.get(id));
+            assertFalse(store.isExpired(id));
+        });
+        ids.subList(5, 15).forEach(id -> {
+            assertNull(store.get(id));
+            assertTrue(store.isExpired(id));
+        });
+        ids.subList(15, 25).forEach(id -> assertNotNull(store.get(id)));
+    }
+
+    @Test
+    public void concurrentPutTest() throws InterruptedException {
+        TransferResultStore store = new TransferResultStore(TimeUnit.HOURS.toMillis(1), 1000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        IntStream.range(0, 20000).forEach(i -> executor.execute(() -> {
+            UUID transactionId = UUID.randomUUID();
+            store.put(transactionId, buildTransferResponse(transactionId));
+        }));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        //the last writers may have skipped eviction while another one was running
+        UUID transactionId = UUID.randomUUID();
+        store.put(transactionId, buildTransferResponse(transactionId));
+        assertEquals(1000, store.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongSettingsTest() {
+        new TransferResultStore(0, 10);
+    }
+}
@@ -1,15 +1,29 @@
 package com.revolut;
 
+import com.revolut.client.TransferBatchItem;
 import com.revolut.client.TransferResponse;
 import com.revolut.db.AppDb;
+import com.revolut.db.DB_CODE;
+import com.revolut.metrics.TransferMetrics;
+import com.revolut.transfer.AdmissionControl;
+import com.revolut.transfer.AdmissionPolicy;
+import com.revolut.transfer.BatchMode;
+import com.revolut.transfer.IdempotencyIndex;
+import com.revolut.transfer.IdempotencyKeyReusedException;
+import com.revolut.transfer.RejectReason;
+import com.revolut.transfer.TransferRejectedException;
 import com.revolut.transfer.TransferRequest;
 import com.revolut.transfer.TransferService;
 import com.revolut.transfer.TransferServiceImpl;
+import com.revolut.transfer.WaitStrategy;
 import org.junit.Test;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.*;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -28,15 +42,113 @@ public class TransferServiceImplTest {
         assertNotNull(request);
         assertEquals(idFrom, request.getAccountIdFrom());
         assertEquals(idTo, request.getAccountIdTo());
-        assertEquals(new BigDecimal(amount), request.getAmount());
+        assertEquals(100000l, request.getAmount());
         assertEquals(transactionId, request.getUuid());
         assertNull(transferService.getNextRequest());
+
+        //taken but not done
+        TransferResponse pending = transferService.getPendingResponse(transactionId);
+        assertEquals("PENDING", pending.getTransactionState());
+        assertEquals(transactionId.toString(), pending.getTransactionId());
+        assertEquals("1000.00", pending.getAmount());
+        transferService.completeTransferRequest(request, buildTransferResponse(transactionId));
+        assertNull(transferService.getPendingResponse(transactionId));
+        assertNull(transferService.getPendingResponse(UUID.randomUUID()));
+    }
+
+    @Test
+    public void queueTransferBatchTest() {
+        TransferService transferService = new TransferServiceImpl(null);
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        List<UUID> transactionIds = transferService.queueTransferBatch(Arrays.asList(
+                TransferBatchItem.builder().idFrom(idFrom).idTo(idTo).amount("10.50").build(),
+                TransferBatchItem.builder().idFrom(idTo).idTo(idFrom).amount("1").build()), BatchMode.ATOMIC);
+
+        TransferRequest batch = transferService.getNextRequest();
+        assertNull(transferService.getNextRequest());
+        assertEquals(BatchMode.ATOMIC, batch.getMode());
+        assertEquals(2, batch.getItems().size());
+        assertEquals(2, transactionIds.size());
+        assertEquals(transactionIds.get(0), batch.getItems().get(0).getUuid());
+        assertEquals(idFrom, batch.getItems().get(0).getAccountIdFrom());
+        assertEquals(1050l, batch.getItems().get(0).getAmount());
+        assertEquals(transactionIds.get(1), batch.getItems().get(1).getUuid());
+        assertEquals(100l, batch.getItems().get(1).getAmount());
+        assertTrue(batch.getItems().get(1).getAsync());
     }
 
     @Test
-    public void waitTransferResponse() {
-        UUID transactionId = UUID.randomUUID();
-        TransferResponse response = TransferResponse.builder()
+    public void getTransferResponseTest() throws Exception {
+        AppDb db = mock(AppDb.class);
+        TransferService transferService = new TransferServiceImpl(db);
+        UUID transactionId = transferService.queueTransferRequest(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), "1222", false);
+        TransferRequest request = transferService.getNextRequest();
+        TransferResponse response = buildTransferResponse(transactionId);
+
+        //completion which happens before anybody waits must not be lost
+        transferService.completeTransferRequest(request, response);
+        when(db.selectTransferResultById(transactionId)).thenReturn(response);
+        long timeMillis = System.currentTimeMillis();
+        TransferResponse mockResponse = transferService.getTransferResponse(transactionId, 1000l).get();
+        timeMillis = System.currentTimeMillis() - timeMillis;
+
+        assertTrue(timeMillis < 1000l);
+        assertSame(response, mockResponse);
+
+        //completion which happens while waiting
+        transactionId = transferService.queueTransferRequest(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), "1222", false);
+        request = transferService.getNextRequest();
+        response = buildTransferResponse(transactionId);
+        CompletableFuture<TransferResponse> future = transferService.getTransferResponse(transactionId, 1000l);
+        assertFalse(future.isDone());
+        transferService.completeTransferRequest(request, response);
+
+        assertSame(response, future.get(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void getTransferResponseTimeOutTest() throws Exception {
+        AppDb db = mock(AppDb.class);
+        TransferService transferService = new TransferServiceImpl(db);
+        UUID transactionId = transferService.queueTransferRequest(UUID.randomUUID().toString(),
+                UUID.randomUUID().toString(), "1222", false);
+        long waitTime = 100;
+        long timeMillis = System.currentTimeMillis();
+        TransferResponse response = transferService.getTransferResponse(transactionId, waitTime).get();
+        timeMillis = System.currentTimeMillis() - timeMillis;
+
+        assertEquals("PENDING", response.getTransactionState());
+        assertTrue(timeMillis >= waitTime);
+        verify(db, times(1)).selectTransferResultById(transactionId);
+    }
+
+    @Test
+    public void idempotentRetryAfterTimeOutTest() throws Exception {
+        AppDb db = mock(AppDb.class);
+        TransferService transferService = new TransferServiceImpl(db);
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        UUID transactionId = transferService.queueTransferRequest(idFrom, idTo, "10.00", false, "key");
+        CompletableFuture<TransferResponse> first = transferService.getTransferResponse(transactionId, 5000l);
+        assertEquals("PENDING", transferService.getTransferResponse(transactionId, 10l).get().getTransactionState());
+
+        //the retry comes before the processor takes the transfer and waits for the same result
+        assertEquals(transactionId, transferService.queueTransferRequest(idFrom, idTo, "10.00", false, "key"));
+        CompletableFuture<TransferResponse> retry = transferService.getTransferResponse(transactionId, 5000l);
+        TransferRequest request = transferService.getNextRequest();
+        assertNull(transferService.getNextRequest());
+        TransferResponse response = buildTransferResponse(transactionId);
+        transferService.completeTransferRequest(request, response);
+
+        assertSame(response, first.get(1, TimeUnit.SECONDS));
+        assertSame(response, retry.get(1, TimeUnit.SECONDS));
+    }
+
+    private static TransferResponse buildTransferResponse(UUID transactionId) {
+        return TransferResponse.builder()
                 .amount("1222")
                 .transactionState("SUCCESS")
                 .transactionId(transactionId.toString())
@@ -45,37 +157,211 @@ public class TransferServiceImplTest {
                 .idFrom(UUID.randomUUID().toString())
                 .message("Test Message")
                 .build();
+    }
+
+    @Test
+    public void awaitNextRequestTest() throws Exception {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            TransferService transferService = new TransferServiceImpl(null, waitStrategy);
+            assertNull(transferService.awaitNextRequest(10, TimeUnit.MILLISECONDS));
+
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<TransferRequest> future = executor.submit(() -> transferService.awaitNextRequest(5, TimeUnit.SECONDS));
+            UUID transactionId = transferService.queueTransferRequest(UUID.randomUUID().toString(),
+                    UUID.randomUUID().toString(), "10.00", true);
+
+            assertEquals(transactionId, future.get(1, TimeUnit.SECONDS).getUuid());
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void metricsTest() {
+        TransferService transferService = new TransferServiceImpl(null);
+        transferService.queueTransferRequest(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "1.00", true);
+        transferService.queueTransferRequest(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "2.00", true);
+        assertTrue(transferService.getMetrics().scrape().contains("transfer_queue_depth 2\n"));
+
+        TransferRequest request = transferService.getNextRequest();
+        request.start();
+        transferService.completeTransferRequest(request,
+                DB_CODE.BALANCE_NOT_ENOUGH.toResponse(request.getAccountIdFrom(), request.getAccountIdTo(), 100l));
+        //never started, e.g. failed before it got to the db
+        transferService.completeTransferRequest(transferService.getNextRequest(), buildTransferResponse(UUID.randomUUID()));
+
+        TransferMetrics metrics = transferService.getMetrics();
+        assertEquals(1, metrics.results(DB_CODE.BALANCE_NOT_ENOUGH));
+        assertEquals(1, metrics.results(DB_CODE.INTERNAL_ERROR));
+        assertEquals(0, metrics.results(DB_CODE.SUCCESS));
+        assertEquals(2, metrics.getEndToEnd().snapshot().count());
+        assertTrue(metrics.getQueueWait().sum() >= request.getStartedAt() - request.getQueuedAt());
+        assertTrue(metrics.scrape().contains("transfer_queue_depth 0\n"));
+    }
 
+    @Test
+    public void queueTransferRequestBadIdTest() {
+        TransferService transferService = new TransferServiceImpl(null);
+        String id = UUID.randomUUID().toString();
+        try {
+            transferService.queueTransferRequest("not-an-id", id, "1.00", true);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //expected
+        }
+        try {
+            transferService.queueTransferRequest(id, null, "1.00", true);
+            fail();
+        } catch (NullPointerException ex) {
+            //expected
+        }
+        assertNull(transferService.getNextRequest());
+        assertTrue(transferService.getMetrics().scrape().contains("transfer_queued_transfers 0\n"));
+    }
+
+    @Test
+    public void admissionCapacityTest() {
+        TransferService transferService = new TransferServiceImpl(null, WaitStrategy.BLOCKING, new TransferMetrics(),
+                new AdmissionControl(AdmissionPolicy.SHED_ASYNC, 4, 0));
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        transferService.queueTransferBatch(Arrays.asList(
+                TransferBatchItem.builder().idFrom(idFrom).idTo(idTo).amount("1").build(),
+                TransferBatchItem.builder().idFrom(idFrom).idTo(idTo).amount("1").build()), BatchMode.INDEPENDENT);
+        transferService.queueTransferRequest(idFrom, idTo, "1", true);
+        //async ones get 3 of the 4 places
+        assertEquals(RejectReason.QUEUE_FULL, rejected(() -> transferService.queueTransferRequest(idFrom, idTo, "1", true)));
+        transferService.queueTransferRequest(idFrom, idTo, "1", false);
+        assertEquals(RejectReason.QUEUE_FULL, rejected(() -> transferService.queueTransferRequest(idFrom, idTo, "1", false)));
+        assertEquals(2, transferService.getMetrics().rejections(RejectReason.QUEUE_FULL));
+
+        //taking the batch frees nothing, completing its items frees their places
+        TransferRequest batch = transferService.getNextRequest();
+        assertEquals(RejectReason.QUEUE_FULL, rejected(() -> transferService.queueTransferRequest(idFrom, idTo, "1", false)));
+        for (TransferRequest item : batch.getItems()) {
+            transferService.completeTransferRequest(item, buildTransferResponse(item.getUuid()));
+        }
+        transferService.queueTransferRequest(idFrom, idTo, "1", true);
+        transferService.queueTransferRequest(idFrom, idTo, "1", false);
+        assertTrue(transferService.getMetrics().scrape().contains("transfer_queued_transfers 4\n"));
+    }
+
+    @Test
+    public void admissionQueueWaitTest() throws Exception {
+        TransferService transferService = new TransferServiceImpl(null, WaitStrategy.BLOCKING, new TransferMetrics(),
+                new AdmissionControl(AdmissionPolicy.REJECT, 100, 10));
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        for (int i = 0; i < 3; i++) {
+            transferService.queueTransferRequest(idFrom, idTo, "1", true);
+        }
+        //longer than the interval, so the transfer done next closes it with its queue wait
+        Thread.sleep(150);
+        complete(transferService);
+
+        TransferRejectedException ex = null;
+        try {
+            transferService.queueTransferRequest(idFrom, idTo, "1", false);
+        } catch (TransferRejectedException e) {
+            ex = e;
+        }
+        assertNotNull(ex);
+        assertEquals(RejectReason.QUEUE_WAIT, ex.getReason());
+        assertEquals(1l, ex.getRetryAfterSeconds());
+        assertTrue(transferService.getMetrics().scrape().contains("transfer_rejected_total{reason=\"QUEUE_WAIT\"} 1\n"));
+
+        //nothing in flight is not standing anymore
+        complete(transferService);
+        complete(transferService);
+        assertNotNull(transferService.queueTransferRequest(idFrom, idTo, "1", false));
+    }
+
+    @Test
+    public void idempotencyKeyTest() throws Exception {
         AppDb db = mock(AppDb.class);
-        when(db.selectTransferResultById(transactionId)).thenReturn(response).thenReturn(null);
         TransferService transferService = new TransferServiceImpl(db);
-        long waitTime = 1000;
-        long timeMillis = System.currentTimeMillis();
-        TransferResponse mockResponse = transferService.waitTransferResponse(transactionId, waitTime);
-        timeMillis = System.currentTimeMillis() - timeMillis;
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        UUID transactionId = transferService.queueTransferRequest(idFrom, idTo, "10.00", true, "key-1");
+        //in flight: a sync retry of the async request coalesces onto its result
+        assertEquals(transactionId, transferService.queueTransferRequest(idFrom, idTo, "10.0", true, "key-1"));
+        assertEquals(transactionId, transferService.queueTransferRequest(idFrom, idTo, "10", false, "key-1"));
+        CompletableFuture<TransferResponse> future = transferService.getTransferResponse(transactionId, 5000l);
+        assertNotEquals(transactionId, transferService.queueTransferRequest(idFrom, idTo, "10.00", true, "key-2"));
+        try {
+            transferService.queueTransferRequest(idFrom, idTo, "11.00", true, "key-1");
+            fail();
+        } catch (IdempotencyKeyReusedException ex) {
+            //expected
+        }
 
-        assertTrue(waitTime < timeMillis);
-        assertNotNull(mockResponse);
-        assertEquals(response.getIdTo() ,mockResponse.getIdTo());
-        assertEquals(response.getAmount() ,mockResponse.getAmount());
-        assertEquals(response.getIdFrom() ,mockResponse.getIdFrom());
-        assertEquals(response.getMessage(), mockResponse.getMessage());
-        assertEquals(response.getTransactionId() ,mockResponse.getTransactionId());
-        assertEquals(response.getTransactionDate() ,mockResponse.getTransactionDate());
-        assertEquals(response.getTransactionState() ,mockResponse.getTransactionState());
-
-        //testing notify
-        when(db.selectTransferResultById(transactionId)).thenReturn(response).thenReturn(null);
-        Runnable r = () -> {
-            transferService.waitTransferResponse(transactionId, waitTime);
-        };
-        timeMillis = System.currentTimeMillis();
-        new Thread(r).start();
-        synchronized (transactionId) {
-            transactionId.notify();
+        TransferRequest request = transferService.getNextRequest();
+        assertEquals("key-1", request.getIdempotencyKey());
+        TransferResponse response = buildTransferResponse(transactionId);
+        transferService.completeTransferRequest(request, response);
+        assertEquals(response, future.get(1, TimeUnit.SECONDS));
+        assertEquals("key-2", transferService.getNextRequest().getIdempotencyKey());
+        assertNull(transferService.getNextRequest());
+
+        //done: a retry reads the stored result
+        when(db.selectTransferResultById(transactionId)).thenReturn(response);
+        assertEquals(transactionId, transferService.queueTransferRequest(idFrom, idTo, "10.00", false, "key-1"));
+        assertEquals(response, transferService.getTransferResponse(transactionId, 5000l).get(1, TimeUnit.SECONDS));
+        assertNull(transferService.getNextRequest());
+    }
+
+    @Test
+    public void idempotencyConcurrentTest() throws Exception {
+        TransferService transferService = new TransferServiceImpl(null);
+        String idFrom = UUID.randomUUID().toString();
+        String idTo = UUID.randomUUID().toString();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<UUID>> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ids.add(executor.submit(() -> transferService.queueTransferRequest(idFrom, idTo, "1.00", true, "key")));
         }
-        timeMillis = System.currentTimeMillis() - timeMillis;
-        assertTrue(waitTime > timeMillis);
+        for (Future<UUID> id : ids) {
+            assertEquals(ids.get(0).get(), id.get());
+        }
+        executor.shutdown();
+        assertTrue(transferService.getMetrics().scrape().contains("transfer_queued_transfers 1\n"));
+        complete(transferService);
+        assertNull(transferService.getNextRequest());
+        assertTrue(transferService.getMetrics().scrape().contains("transfer_queued_transfers 0\n"));
+        assertTrue(transferService.getMetrics().scrape().contains("transfer_idempotency_keys 1\n"));
+    }
+
+    @Test
+    public void idempotencyIndexTest() throws Exception {
+        IdempotencyIndex index = new IdempotencyIndex(100, 2);
+        UUID first = UUID.randomUUID();
+        assertEquals(first, index.putIfAbsent("a", first, "f").getTransactionId());
+        assertEquals(first, index.putIfAbsent("a", UUID.randomUUID(), "f").getTransactionId());
+        index.putIfAbsent("b", UUID.randomUUID(), "f");
+        //the oldest key goes first
+        index.putIfAbsent("c", UUID.randomUUID(), "f");
+        assertNull(index.get("a"));
+        assertNotNull(index.get("b"));
+        assertEquals(2, index.size());
+
+        Thread.sleep(150);
+        assertNull(index.get("b"));
+        UUID second = UUID.randomUUID();
+        assertEquals(second, index.putIfAbsent("b", second, "f").getTransactionId());
+        assertEquals(second, index.get("b").getTransactionId());
     }
 
+    private static void complete(TransferService transferService) {
+        TransferRequest request = transferService.getNextRequest();
+        assertNotNull(request);
+        transferService.completeTransferRequest(request, buildTransferResponse(request.getUuid()));
+    }
+
+    private static RejectReason rejected(Runnable queue) {
+        try {
+            queue.run();
+        } catch (TransferRejectedException ex) {
+            return ex.getReason();
+        }
+        return null;
+    }
 }
@@ -0,0 +1,124 @@
+package com.revolut;
+
+import com.revolut.client.TransferResponse;
+import com.revolut.transfer.TransferSubscriptions;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TransferSubscriptionsTest {
+
+    @Test
+    public void publishTest() throws Exception {
+        TransferSubscriptions subscriptions = new TransferSubscriptions();
+        String accountA = UUID.randomUUID().toString();
+        String accountB = UUID.randomUUID().toString();
+        TransferResponse first = buildResponse(accountA, accountB);
+        TransferResponse second = buildResponse(accountB, accountA);
+
+        List<String> byTransaction = new CopyOnWriteArrayList<>();
+        List<String> byAccounts = new CopyOnWriteArrayList<>();
+        List<String> unrelated = new CopyOnWriteArrayList<>();
+        subscriptions.subscribe(Collections.singletonList(first.getTransactionId()), Collections.emptyList(),
+                (event, data, id) -> byTransaction.add(id));
+        //both accounts of a transfer are subscribed, it still comes once
+        TransferSubscriptions.Subscription accounts = subscriptions.subscribe(Collections.emptyList(),
+                Arrays.asList(accountA, accountB), (event, data, id) -> byAccounts.add(id));
+        subscriptions.subscribe(Collections.emptyList(), Collections.singletonList(UUID.randomUUID().toString()),
+                (event, data, id) -> unrelated.add(id));
+        assertEquals(3, subscriptions.size());
+
+        subscriptions.publish(first);
+        subscriptions.publish(second);
+        awaitSize(byAccounts, 2);
+        assertEquals(Collections.singletonList(first.getTransactionId()), byTransaction);
+        assertEquals(Arrays.asList(first.getTransactionId(), second.getTransactionId()), byAccounts);
+        assertTrue(unrelated.isEmpty());
+
+        subscriptions.unsubscribe(accounts);
+        subscriptions.publish(buildResponse(accountA, accountB));
+        Thread.sleep(100l);
+        assertEquals(2, byAccounts.size());
+        assertEquals(2, subscriptions.size());
+    }
+
+    @Test
+    public void slowSubscriberTest() throws Exception {
+        TransferSubscriptions subscriptions = new TransferSubscriptions(4, TransferSubscriptions.DEFAULT_HEARTBEAT_MILLIS);
+        String account = UUID.randomUUID().toString();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> events = new CopyOnWriteArrayList<>();
+        List<String> data = new CopyOnWriteArrayList<>();
+        subscriptions.subscribe(Collections.emptyList(), Collections.singletonList(account), (event, value, id) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+            data.add(value);
+        });
+        AtomicLong fast = new AtomicLong();
+        subscriptions.subscribe(Collections.emptyList(), Collections.singletonList(account),
+                (event, value, id) -> fast.addAndGet("dropped".equals(event) ? Long.parseLong(value) : 1));
+
+        //the stuck subscriber holds up neither the publisher nor the other subscriber
+        long started = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            subscriptions.publish(buildResponse(account, UUID.randomUUID().toString()));
+        }
+        assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+        //whatever didn't fit its buffer during the burst is reported to it
+        for (int i = 0; i < 200 && fast.get() < 100; i++) {
+            Thread.sleep(10l);
+        }
+        assertEquals(100, fast.get());
+
+        release.countDown();
+        awaitSize(events, 1);
+        Thread.sleep(100l);
+        int delivered = (int) events.stream().filter("transfer"::equals).count();
+        assertTrue(delivered <= 5);
+        assertEquals("dropped", events.get(events.size() - 1));
+        assertEquals(String.valueOf(100 - delivered), data.get(data.size() - 1));
+    }
+
+    @Test
+    public void heartbeatTest() throws Exception {
+        TransferSubscriptions subscriptions = new TransferSubscriptions(4, 20l);
+        List<String> events = new CopyOnWriteArrayList<>();
+        subscriptions.subscribe(Collections.emptyList(), Collections.singletonList(UUID.randomUUID().toString()),
+                (event, data, id) -> events.add(event));
+        awaitSize(events, 3);
+        assertEquals("ping", events.get(0));
+    }
+
+    private static void awaitSize(List<String> list, int size) throws InterruptedException {
+        for (int i = 0; i < 200 && list.size() < size; i++) {
+            Thread.sleep(10l);
+        }
+        assertTrue(list.size() >= size);
+    }
+
+    private static TransferResponse buildResponse(String idFrom, String idTo) {
+        return TransferResponse.builder()
+                .transactionId(UUID.randomUUID().toString())
+                .idFrom(idFrom)
+                .idTo(idTo)
+                .amount("1.00")
+                .transactionState("SUCCESS")
+                .message("Transaction completed successfully.")
+                .transactionDate(new Date())
+                .build();
+    }
+}
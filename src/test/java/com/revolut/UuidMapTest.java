@@ -0,0 +1,108 @@
+package com.revolut;
+
+import com.revolut.db.UuidMap;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class UuidMapTest {
+
+    @Test
+    public void putGetRemoveTest() {
+        UuidMap<String> map = new UuidMap<>();
+        UUID key = UUID.randomUUID();
+        assertNull(map.get(key));
+
+        assertNull(map.putIfAbsent(key, "a"));
+        assertEquals("a", map.putIfAbsent(key, "b"));
+        assertEquals("a", map.get(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+        assertEquals("a", map.put(key, "c"));
+        assertEquals("c", map.get(key));
+        assertTrue(map.containsKey(key));
+        assertEquals(1, map.size());
+
+        assertFalse(map.remove(key, "a"));
+        assertTrue(map.remove(key, "c"));
+        assertNull(map.get(key));
+        assertNull(map.remove(key));
+        assertEquals(0, map.size());
+
+        //a removed key can come back
+        map.put(key, "d");
+        assertEquals("d", map.remove(key));
+    }
+
+    @Test
+    public void growAndIterateTest() {
+        UuidMap<Integer> map = new UuidMap<>();
+        int count = 100000;
+        UUID[] keys = new UUID[count];
+        for (int i = 0; i < count; i++) {
+            //sequential ids, the hash has to spread them
+            keys[i] = new UUID(0, i);
+            map.put(keys[i], i);
+        }
+        for (int i = 0; i < count; i += 2) {
+            map.remove(keys[i]);
+        }
+        //tombstones are dropped by rehashes as new keys come in
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < count; i += 2) {
+                map.put(keys[i], i);
+                map.remove(keys[i]);
+            }
+        }
+        assertEquals(count / 2, map.size());
+        Set<Integer> values = new HashSet<>();
+        map.forEach(values::add);
+        assertEquals(count / 2, values.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get(keys[i]));
+        }
+    }
+
+    @Test
+    public void concurrentReadersTest() throws InterruptedException {
+        UuidMap<UUID> map = new UuidMap<>();
+        UUID[] stable = IntStream.range(0, 1000).mapToObj(i -> UUID.randomUUID()).toArray(UUID[]::new);
+        for (UUID key : stable) {
+            map.put(key, key);
+        }
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        //readers must see every stable key, whatever rehashes the writers cause
+        IntStream.range(0, 3).forEach(t -> executor.execute(() -> {
+            while (!done.get()) {
+                for (UUID key : stable) {
+                    if (map.get(key) != key) {
+                        failed.set(true);
+                    }
+                }
+            }
+        }));
+        executor.execute(() -> {
+            for (int i = 0; i < 200000; i++) {
+                UUID key = UUID.randomUUID();
+                map.putIfAbsent(key, key);
+                if (i % 3 != 0) {
+                    map.remove(key, key);
+                }
+            }
+            done.set(true);
+        });
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        assertFalse(failed.get());
+        assertEquals(stable.length + 66667, map.size());
+    }
+}